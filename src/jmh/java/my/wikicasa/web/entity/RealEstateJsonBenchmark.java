@@ -0,0 +1,84 @@
+package my.wikicasa.web.entity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import my.wikicasa.web.json.RealEstateJson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RealEstateJsonBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int listSize;
+
+    private final ObjectMapper sharedMapper = new ObjectMapper();
+    private final RealEstateJson realEstateJson = new RealEstateJson(sharedMapper);
+    private RealEstate realEstate;
+    private List<RealEstate> realEstates;
+
+    @Setup
+    public void setUp() {
+        realEstates = new ArrayList<>(listSize);
+        for (int i = 0; i < listSize; i++) {
+            RealEstate item = new RealEstate("Trilocale " + i, "Via Verdi " + i + ", Torino", 180_000. + i, 3, 2, 95.5);
+            item.setId((long) i + 1);
+            item.setVersion(0L);
+            realEstates.add(item);
+        }
+        realEstate = realEstates.get(0);
+    }
+
+    @Benchmark
+    public String toJsonSingle() {
+        return realEstate.toJson();
+    }
+
+    @Benchmark
+    public String toJsonList() {
+        return RealEstate.toJson(realEstates);
+    }
+
+    // Implementazione precedente di toJson: un nuovo ObjectMapper a ogni chiamata
+    @Benchmark
+    public String perCallMapperSingle() throws IOException {
+        return new ObjectMapper().writeValueAsString(realEstate);
+    }
+
+    @Benchmark
+    public String perCallMapperList() throws IOException {
+        return new ObjectMapper().writeValueAsString(realEstates);
+    }
+
+    @Benchmark
+    public void streamingArray() throws IOException {
+        try (RealEstateJson.StreamWriter writer = realEstateJson.array(OutputStream.nullOutputStream())) {
+            realEstates.forEach(writer);
+        }
+    }
+
+    @Benchmark
+    public String sharedMapperSingle() throws IOException {
+        return sharedMapper.writeValueAsString(realEstate);
+    }
+
+    // Serializzazione diretta sullo stream, come fa il converter di Spring MVC per le risposte
+    @Benchmark
+    public void sharedMapperListToStream() throws IOException {
+        sharedMapper.writeValue(OutputStream.nullOutputStream(), realEstates);
+    }
+
+}
@@ -0,0 +1,84 @@
+package my.wikicasa.web.protobuf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.response.CursorPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
+
+// Costo di codifica di una pagina di GET /api/realestate nei formati negoziabili; i rapporti tra le dimensioni
+// dei payload sono verificati da ResponseFormatIT
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseFormatBenchmark {
+
+    @Param({"50", "500"})
+    private int pageSize;
+
+    private CursorPage<RealEstate> page;
+    private ObjectWriter jsonWriter;
+    private ObjectWriter smileWriter;
+    private ObjectWriter cborWriter;
+
+    @Setup
+    public void setUp() {
+        List<RealEstate> content = IntStream.range(0, pageSize).mapToObj(i -> {
+            RealEstate realEstate = new RealEstate("Bilocale luminoso " + i, "Via Roma " + i + ", Milano", 250_000.5 + i, 2 + i % 4, 1 + i % 2, 65. + i);
+            realEstate.setId(1_000L + i);
+            realEstate.setVersion(3L);
+            return realEstate;
+        }).toList();
+        page = new CursorPage<>(content, "MTA0OQ");
+        jsonWriter = new ObjectMapper().writer();
+        smileWriter = new ObjectMapper(new SmileFactory()).writer();
+        cborWriter = new ObjectMapper(new CBORFactory()).writer();
+    }
+
+    @Benchmark
+    public byte[] json() throws IOException {
+        return jsonWriter.writeValueAsBytes(page);
+    }
+
+    // Compressione al livello predefinito, come quella di Tomcat
+    @Benchmark
+    public byte[] jsonGzip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            jsonWriter.writeValue(gzip, page);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] smile() throws IOException {
+        return smileWriter.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] cbor() throws IOException {
+        return cborWriter.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] protobuf() {
+        return RealEstateProtobuf.toBytes(page);
+    }
+
+}
@@ -0,0 +1,62 @@
+package my.wikicasa.web.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.entity.RealEstateSummary;
+import my.wikicasa.web.metrics.RepositoryMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RealEstateRowMapperBenchmark {
+
+    private static final String[] COLUMNS = {"id", "name", "address", "price", "rooms", "bathrooms", "sq_meters", "version"};
+
+    private RealEstateRepository repository;
+    private ResultSet resultSet;
+
+    @Setup
+    public void setUp() {
+        repository = new RealEstateRepository(new JdbcTemplate(), new RepositoryMetrics(new SimpleMeterRegistry()));
+        resultSet = SyntheticResultSet.of(COLUMNS,
+                new Object[]{42L, "Bilocale luminoso", "Via Roma 1, Milano", 250_000.5, 2, 1, 65.0, 3L});
+    }
+
+    @Benchmark
+    public RealEstate mapRowByIndex() throws SQLException {
+        return repository.realEstateRowMapper.mapRow(resultSet, 0);
+    }
+
+    @Benchmark
+    public RealEstateSummary mapSummaryRowByIndex() throws SQLException {
+        return repository.realEstateSummaryRowMapper.mapRow(resultSet, 0);
+    }
+
+    // Mapper precedente, con ricerca delle colonne per nome e setter, tenuto come riferimento
+    @Benchmark
+    public RealEstate mapRowByLabel() throws SQLException {
+        RealEstate realEstate = new RealEstate();
+        realEstate.setId(resultSet.getLong("id"));
+        realEstate.setName(resultSet.getString("name"));
+        realEstate.setAddress(resultSet.getString("address"));
+        realEstate.setPrice(resultSet.getDouble("price"));
+        realEstate.setRooms(resultSet.getInt("rooms"));
+        realEstate.setBathrooms(resultSet.getInt("bathrooms"));
+        realEstate.setSqMeters(resultSet.getDouble("sq_meters"));
+        realEstate.setVersion(resultSet.getLong("version"));
+        return realEstate;
+    }
+
+}
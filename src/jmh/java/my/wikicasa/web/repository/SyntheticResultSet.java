@@ -0,0 +1,36 @@
+package my.wikicasa.web.repository;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.Map;
+
+// ResultSet in memoria con una sola riga, sufficiente per esercitare i RowMapper senza database.
+// Il costo del proxy è lo stesso per ogni variante del mapper, quindi i confronti restano validi
+final class SyntheticResultSet {
+
+    private SyntheticResultSet() {
+    }
+
+    static ResultSet of(String[] columns, Object[] values) {
+        Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < columns.length; i++) {
+            indexes.put(columns[i], i);
+        }
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("wasNull")) {
+                        return false;
+                    }
+                    Object value = args[0] instanceof String label ? values[indexes.get(label)] : values[(Integer) args[0] - 1];
+                    return switch (method.getName()) {
+                        case "getLong" -> ((Number) value).longValue();
+                        case "getInt" -> ((Number) value).intValue();
+                        case "getDouble" -> ((Number) value).doubleValue();
+                        case "getString", "getObject" -> value;
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    };
+                });
+    }
+
+}
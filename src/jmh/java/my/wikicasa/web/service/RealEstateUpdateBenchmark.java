@@ -0,0 +1,82 @@
+package my.wikicasa.web.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import my.wikicasa.web.cache.RealEstateCache;
+import my.wikicasa.web.cache.RealEstateCacheProperties;
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.entity.RealEstateChange;
+import my.wikicasa.web.metrics.RepositoryMetrics;
+import my.wikicasa.web.repository.RealEstateRepository;
+import my.wikicasa.web.stats.InMemoryRealEstateStats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Misura il costo lato applicazione della PUT (conversione della mappa e invalidazione della cache),
+// con un repository che non esegue SQL
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RealEstateUpdateBenchmark {
+
+    private RealEstateService realEstateService;
+    private Map<String, Object> singleFieldUpdate;
+    private Map<String, Object> fullUpdate;
+
+    @Setup
+    public void setUp() {
+        RealEstate stored = new RealEstate("Villa", "Via Mare 3, Genova", 750_000., 8, 3, 240.);
+        stored.setId(1L);
+        stored.setVersion(7L);
+        RealEstateRepository repository = new RealEstateRepository(new JdbcTemplate(), new RepositoryMetrics(new SimpleMeterRegistry())) {
+            @Override
+            public Optional<RealEstateChange> update(Long id, Map<String, Object> changes, Long expectedVersion) {
+                return Optional.of(new RealEstateChange(stored, stored));
+            }
+        };
+        RealEstateCache cache = new RealEstateCache(new RealEstateCacheProperties(true, 10_000, Duration.ofMinutes(10), Duration.ofSeconds(30)), false);
+        InMemoryRealEstateStats stats = new InMemoryRealEstateStats(repository, null, 1000, 0.01);
+        stats.onCreated(stored);
+        RealEstateServiceProperties properties = new RealEstateServiceProperties(
+                new RealEstateServiceProperties.Pagination(50, 500, false),
+                new RealEstateServiceProperties.Export(1000),
+                new RealEstateServiceProperties.Batch(500, 10_000),
+                new RealEstateServiceProperties.Search(10_000),
+                new RealEstateServiceProperties.Autocomplete("trigram", 3, 10, 50),
+                new RealEstateServiceProperties.Similarity(10, 100));
+        realEstateService = new RealEstateService(repository, cache, null, stats, List.of(stats), null, null, properties);
+
+        singleFieldUpdate = Map.of("price", 700_000);
+        fullUpdate = Map.of(
+                "name", "Villa al mare",
+                "address", "Via Mare 5, Genova",
+                "price", "699999.99",
+                "rooms", 9,
+                "bathrooms", "4",
+                "sqMeters", 250.5,
+                "version", 7
+        );
+    }
+
+    @Benchmark
+    public RealEstate updateSingleField() {
+        return realEstateService.updateRealEstate(1L, singleFieldUpdate);
+    }
+
+    @Benchmark
+    public RealEstate updateAllFields() {
+        return realEstateService.updateRealEstate(1L, fullUpdate);
+    }
+
+}
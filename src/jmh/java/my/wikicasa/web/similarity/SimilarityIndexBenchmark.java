@@ -0,0 +1,80 @@
+package my.wikicasa.web.similarity;
+
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.request.RealEstateSearchCriteria;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Latenza di GET /api/realestate/{id}/similar lato indice, senza la lettura delle righe.
+// L'indice viene riempito con le notifiche di creazione e poi ricostruito, senza passare dal database
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SimilarityIndexBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @Param({"100000", "1000000"})
+    private int listings;
+
+    @Param({"10"})
+    private int k;
+
+    private SimilarityIndex index;
+    private RealEstate[] references;
+    private RealEstateSearchCriteria noFilters;
+    private RealEstateSearchCriteria rangeFilters;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        index = new SimilarityIndex(null, null, true, 1000, Integer.MAX_VALUE);
+        references = new RealEstate[QUERIES];
+        for (int i = 0; i < listings; i++) {
+            RealEstate realEstate = randomRealEstate(random, i + 1L);
+            index.onCreated(realEstate);
+            if (i < QUERIES) {
+                references[i] = realEstate;
+            }
+        }
+        index.reindex();
+
+        noFilters = new RealEstateSearchCriteria();
+        rangeFilters = new RealEstateSearchCriteria();
+        rangeFilters.setMaxPrice(400_000.);
+        rangeFilters.setMinRooms(3);
+    }
+
+    // Distribuzioni plausibili: metri quadri legati ai locali, prezzo legato ai metri quadri
+    private static RealEstate randomRealEstate(SplittableRandom random, long id) {
+        int rooms = random.nextInt(1, 9);
+        int bathrooms = random.nextInt(1, Math.max(2, rooms / 2 + 1));
+        double sqMeters = Math.round(rooms * random.nextDouble(18, 35));
+        double price = Math.round(sqMeters * random.nextDouble(1_500, 6_000));
+        RealEstate realEstate = new RealEstate("Listing " + id, "Via " + id, price, rooms, bathrooms, sqMeters);
+        realEstate.setId(id);
+        return realEstate;
+    }
+
+    @Benchmark
+    public List<SimilarityIndex.Neighbour> nearest() {
+        return index.nearest(references[next++ & (QUERIES - 1)], k, noFilters);
+    }
+
+    @Benchmark
+    public List<SimilarityIndex.Neighbour> nearestWithRangeFilters() {
+        return index.nearest(references[next++ & (QUERIES - 1)], k, rangeFilters);
+    }
+
+}
@@ -0,0 +1,142 @@
+package my.wikicasa.web.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Istogrammi di latenza per operazione e scrittura del report JSON
+class LatencyReport {
+
+    // Fino a un minuto con 3 cifre significative: oltre la latenza viene saturata al massimo tracciabile
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+
+    LatencyReport() {
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    void record(Operation operation, long latencyNanos, boolean error) {
+        OperationStats operationStats = stats.get(operation);
+        operationStats.histogram.recordValue(Math.min(latencyNanos, HIGHEST_TRACKABLE_NANOS));
+        if (error) {
+            operationStats.errors.increment();
+        }
+    }
+
+    // Richiesta non inviata perché già max-in-flight richieste erano in corso
+    void dropped(Operation operation) {
+        stats.get(operation).dropped.increment();
+    }
+
+    Path write(LoadTestSettings settings, double measuredSeconds) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", Instant.now().toString());
+        report.put("commit", settings.commit());
+        report.put("settings", settingsNode(settings));
+
+        Map<String, Object> operations = new LinkedHashMap<>();
+        Histogram all = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+        long allErrors = 0;
+        long allDropped = 0;
+        for (Map.Entry<Operation, OperationStats> entry : stats.entrySet()) {
+            OperationStats operationStats = entry.getValue();
+            if (operationStats.histogram.getTotalCount() == 0 && operationStats.dropped.sum() == 0) {
+                continue;
+            }
+            all.add(operationStats.histogram);
+            allErrors += operationStats.errors.sum();
+            allDropped += operationStats.dropped.sum();
+            operations.put(entry.getKey().name(), operationNode(operationStats.histogram,
+                    operationStats.errors.sum(), operationStats.dropped.sum(), measuredSeconds));
+        }
+        report.put("operations", operations);
+        report.put("total", operationNode(all, allErrors, allDropped, measuredSeconds));
+
+        Files.createDirectories(settings.reportDir());
+        String json = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(report);
+        Path file = settings.reportDir().resolve("loadtest-" + Instant.now().toEpochMilli() + ".json");
+        Files.writeString(file, json);
+        Files.copy(file, settings.reportDir().resolve("latest.json"), StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+
+    String summary() {
+        StringBuilder summary = new StringBuilder();
+        stats.forEach((operation, operationStats) -> {
+            Histogram histogram = operationStats.histogram;
+            if (histogram.getTotalCount() > 0) {
+                summary.append(String.format("%-10s count=%d errors=%d dropped=%d p50=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms%n",
+                        operation, histogram.getTotalCount(), operationStats.errors.sum(), operationStats.dropped.sum(),
+                        millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(99)),
+                        millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMaxValue())));
+            }
+        });
+        return summary.toString();
+    }
+
+    private static Map<String, Object> settingsNode(LoadTestSettings settings) {
+        Map<String, Object> node = new LinkedHashMap<>();
+        node.put("seedRows", settings.seedRows());
+        node.put("ratePerSecond", settings.ratePerSecond());
+        node.put("warmup", settings.warmup().toString());
+        node.put("duration", settings.duration().toString());
+        node.put("maxInFlight", settings.maxInFlight());
+        node.put("mix", settings.mix());
+        node.put("randomSeed", settings.randomSeed());
+        node.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        node.put("javaVersion", System.getProperty("java.version"));
+        return node;
+    }
+
+    private static Map<String, Object> operationNode(Histogram histogram, long errors, long dropped, double seconds) {
+        Map<String, Object> node = new LinkedHashMap<>();
+        node.put("count", histogram.getTotalCount());
+        node.put("errors", errors);
+        node.put("dropped", dropped);
+        node.put("throughputPerSecond", histogram.getTotalCount() / seconds);
+        Map<String, Object> latency = new LinkedHashMap<>();
+        if (histogram.getTotalCount() > 0) {
+            for (double percentile : PERCENTILES) {
+                latency.put("p" + String.valueOf(percentile).replace(".0", ""), millis(histogram.getValueAtPercentile(percentile)));
+            }
+            latency.put("max", millis(histogram.getMaxValue()));
+            latency.put("mean", histogram.getMean() / 1_000_000.0);
+        }
+        node.put("latencyMillis", latency);
+        // Istogramma completo (formato compresso di HdrHistogram) per confronti e merge tra esecuzioni
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        node.put("histogram", Base64.getEncoder().encodeToString(Arrays.copyOf(buffer.array(), length)));
+        return node;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static final class OperationStats {
+        private final ConcurrentHistogram histogram = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, 3);
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+    }
+
+}
@@ -0,0 +1,118 @@
+package my.wikicasa.web.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import my.wikicasa.web.WebApplication;
+import my.wikicasa.web.config.TestDatabaseConfig;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test a modello aperto: le richieste partono a intervalli fissi (rate al secondo) indipendentemente da
+ * quanto rispondono le precedenti, e la latenza è misurata dall'istante previsto di partenza, così i ritardi
+ * accumulati dal sistema non vengono nascosti (coordinated omission).
+ * <p>
+ * Avvio: ./gradlew loadTest [-Ploadtest.rate=500 -Ploadtest.duration=PT2M -Ploadtest.mix=GET_BY_ID:90,CREATE:10 ...]
+ */
+public class LoadTestRunner {
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSettings settings = LoadTestSettings.fromSystemProperties();
+        // Stesso ambiente dei test di integrazione: container postgres:16-alpine e profilo test
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(WebApplication.class, TestDatabaseConfig.class)
+                .profiles("test")
+                .properties("server.port=0", "logging.level.root=WARN")
+                .run(args);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient client = HttpClient.newBuilder()
+                     .version(HttpClient.Version.HTTP_1_1)
+                     .connectTimeout(Duration.ofSeconds(5))
+                     .executor(executor)
+                     .build()) {
+            int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+            SplittableRandom random = new SplittableRandom(settings.randomSeed());
+            Workload workload = new Workload(client, new ObjectMapper(), port);
+
+            System.out.printf("Seeding %d rows...%n", settings.seedRows());
+            workload.seed(settings.seedRows(), settings.seedBatchSize(), random.split());
+
+            LatencyReport report = new LatencyReport();
+            double measuredSeconds = run(settings, workload, executor, random, report);
+
+            Path file = report.write(settings, measuredSeconds);
+            System.out.print(report.summary());
+            System.out.println("Report written to " + file.toAbsolutePath());
+        }
+    }
+
+    private static double run(LoadTestSettings settings, Workload workload, ExecutorService executor,
+                              SplittableRandom random, LatencyReport report) throws InterruptedException {
+        Operation[] schedule = weightedSchedule(settings.mix());
+        long intervalNanos = Math.round(TimeUnit.SECONDS.toNanos(1) / settings.ratePerSecond());
+        long start = System.nanoTime();
+        long measureFrom = start + settings.warmup().toNanos();
+        long end = measureFrom + settings.duration().toNanos();
+        Semaphore inFlight = new Semaphore(settings.maxInFlight());
+
+        System.out.printf("Running %.0f req/s for %s (warmup %s)...%n",
+                settings.ratePerSecond(), settings.duration(), settings.warmup());
+        for (long i = 0; ; i++) {
+            long intended = start + i * intervalNanos;
+            if (intended >= end) {
+                break;
+            }
+            parkUntil(intended);
+            Operation operation = schedule[random.nextInt(schedule.length)];
+            SplittableRandom requestRandom = random.split();
+            boolean measured = intended >= measureFrom;
+            // Oltre max-in-flight la richiesta viene scartata e contata, invece di rallentare il ritmo degli arrivi
+            if (!inFlight.tryAcquire()) {
+                if (measured) {
+                    report.dropped(operation);
+                }
+                continue;
+            }
+            executor.execute(() -> {
+                boolean error;
+                try {
+                    error = workload.execute(operation, requestRandom) >= 400;
+                } catch (Exception e) {
+                    error = true;
+                }
+                if (measured) {
+                    report.record(operation, System.nanoTime() - intended, error);
+                }
+                inFlight.release();
+            });
+        }
+        // Attende le richieste ancora in corso prima di scrivere il report
+        inFlight.acquire(settings.maxInFlight());
+        return settings.duration().toNanos() / 1_000_000_000.0;
+    }
+
+    // Tabella in cui ogni operazione compare tante volte quanto il suo peso, per l'estrazione casuale
+    private static Operation[] weightedSchedule(Map<Operation, Integer> mix) {
+        return mix.entrySet().stream()
+                .flatMap(entry -> Collections.nCopies(entry.getValue(), entry.getKey()).stream())
+                .toArray(Operation[]::new);
+    }
+
+    private static void parkUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package my.wikicasa.web.loadtest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Parametri del load test, letti dalle system property loadtest.* (passate da Gradle con -Ploadtest.<nome>=<valore>)
+public record LoadTestSettings(int seedRows,
+                               int seedBatchSize,
+                               double ratePerSecond,
+                               Duration warmup,
+                               Duration duration,
+                               int maxInFlight,
+                               Map<Operation, Integer> mix,
+                               long randomSeed,
+                               Path reportDir,
+                               String commit) {
+
+    public static LoadTestSettings fromSystemProperties() {
+        return new LoadTestSettings(
+                Integer.getInteger("loadtest.rows", 10_000),
+                Integer.getInteger("loadtest.seed-batch-size", 1_000),
+                Double.parseDouble(System.getProperty("loadtest.rate", "200")),
+                Duration.parse(System.getProperty("loadtest.warmup", "PT10S")),
+                Duration.parse(System.getProperty("loadtest.duration", "PT60S")),
+                Integer.getInteger("loadtest.max-in-flight", 1_000),
+                parseMix(System.getProperty("loadtest.mix", "GET_BY_ID:60,LIST_PAGE:15,SEARCH:10,CREATE:10,UPDATE:5")),
+                Long.getLong("loadtest.random-seed", 42L),
+                Path.of(System.getProperty("loadtest.report-dir", "build/reports/loadtest")),
+                System.getProperty("loadtest.commit", "unknown")
+        );
+    }
+
+    // Formato: OPERAZIONE:peso separati da virgole, ad esempio GET_BY_ID:80,CREATE:20
+    static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            weights.put(Operation.valueOf(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+
+}
@@ -0,0 +1,10 @@
+package my.wikicasa.web.loadtest;
+
+// Operazioni del carico misto, ognuna corrispondente a un endpoint di RealEstateController
+public enum Operation {
+    GET_BY_ID,
+    LIST_PAGE,
+    SEARCH,
+    CREATE,
+    UPDATE
+}
@@ -0,0 +1,191 @@
+package my.wikicasa.web.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.utility.MountableFile;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tempo fino alla prima richiesta servita: dall'avvio del processo alla prima risposta 200 di GET /api/realestate.
+ * Confronta l'avvio attuale (jar completo, schema eseguito all'avvio) con le ottimizzazioni aggiunte una alla volta:
+ * profilo prod (schema non eseguito, inizializzazione lazy, autoconfigurazioni inutilizzate escluse), AOT e CDS.
+ * Le varianti vengono eseguite a turno in ogni giro, così le differenze di carico della macchina si distribuiscono.
+ * <p>
+ * Avvio: ./gradlew startupBenchmark [-Pstartup.runs=10]
+ */
+public class StartupBenchmark {
+
+    private static final String FIRST_REQUEST = "/api/realestate?size=1";
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(60);
+
+    private record Variant(String name, List<String> jvmArgs, Path jar, List<String> appArgs) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = Integer.getInteger("startup.runs", 5);
+        Path reportDir = Path.of(System.getProperty("startup.report-dir", "build/reports/startup"));
+        Path bootJar = Path.of(System.getProperty("startup.boot-jar"));
+        Path extractedJar = Path.of(System.getProperty("startup.extracted-jar"));
+        Path cdsArchive = Path.of(System.getProperty("startup.cds-archive"));
+        String java = System.getProperty("startup.java", ProcessHandle.current().info().command().orElse("java"));
+
+        List<String> prod = List.of("--spring.profiles.active=prod");
+        List<Variant> variants = List.of(
+                new Variant("baseline", List.of(), bootJar,
+                        List.of("--spring.sql.init.mode=always", "--spring.sql.init.separator=^^^ END OF SCRIPT ^^^")),
+                new Variant("prod", List.of(), extractedJar, prod),
+                new Variant("prod-aot", List.of("-Dspring.aot.enabled=true"), extractedJar, prod),
+                new Variant("prod-aot-cds", List.of("-Dspring.aot.enabled=true", "-XX:SharedArchiveFile=" + cdsArchive),
+                        extractedJar, prod)
+        );
+
+        // Lo schema viene creato dal container: le varianti prod non lo eseguono all'avvio
+        try (PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine")
+                .withDatabaseName("testdb")
+                .withUsername("testuser")
+                .withPassword("testpass")
+                .withCopyFileToContainer(MountableFile.forClasspathResource("schema.sql"),
+                        "/docker-entrypoint-initdb.d/schema.sql");
+             HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build()) {
+            postgres.start();
+            List<String> database = List.of(
+                    "--spring.datasource.url=" + postgres.getJdbcUrl(),
+                    "--spring.datasource.username=" + postgres.getUsername(),
+                    "--spring.datasource.password=" + postgres.getPassword(),
+                    "--logging.level.root=WARN");
+            Files.createDirectories(reportDir);
+
+            Map<String, long[]> timings = new LinkedHashMap<>();
+            variants.forEach(variant -> timings.put(variant.name(), new long[runs]));
+            for (int run = 0; run < runs; run++) {
+                for (Variant variant : variants) {
+                    long nanos = timeToFirstRequest(java, variant, database, client, reportDir.resolve(variant.name() + ".log"));
+                    timings.get(variant.name())[run] = nanos;
+                    System.out.printf("run %d %-13s %.0f ms%n", run + 1, variant.name(), millis(nanos));
+                }
+            }
+
+            Path file = write(reportDir, runs, timings);
+            System.out.print(summary(timings));
+            System.out.println("Report written to " + file.toAbsolutePath());
+        }
+    }
+
+    private static long timeToFirstRequest(String java, Variant variant, List<String> database, HttpClient client,
+                                           Path log) throws IOException, InterruptedException {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(variant.jvmArgs());
+        command.add("-jar");
+        command.add(variant.jar().toString());
+        command.addAll(variant.appArgs());
+        command.addAll(database);
+        command.add("--server.port=" + port);
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + FIRST_REQUEST))
+                .timeout(Duration.ofSeconds(5))
+                .build();
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+        try {
+            long deadline = start + STARTUP_TIMEOUT.toNanos();
+            while (System.nanoTime() < deadline) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException(variant.name() + " exited with code " + process.exitValue() + ", see " + log);
+                }
+                try {
+                    if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return System.nanoTime() - start;
+                    }
+                } catch (ConnectException e) {
+                    // Server non ancora in ascolto
+                }
+                TimeUnit.MILLISECONDS.sleep(5);
+            }
+            throw new IllegalStateException(variant.name() + " did not serve a request within " + STARTUP_TIMEOUT + ", see " + log);
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Path write(Path reportDir, int runs, Map<String, long[]> timings) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", Instant.now().toString());
+        report.put("commit", System.getProperty("startup.commit", "unknown"));
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("runs", runs);
+        settings.put("firstRequest", FIRST_REQUEST);
+        settings.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        settings.put("javaVersion", System.getProperty("java.version"));
+        report.put("settings", settings);
+
+        double baseline = median(timings.values().iterator().next());
+        Map<String, Object> variants = new LinkedHashMap<>();
+        timings.forEach((name, nanos) -> {
+            Map<String, Object> node = new LinkedHashMap<>();
+            node.put("medianMillis", millis(median(nanos)));
+            node.put("minMillis", millis(Arrays.stream(nanos).min().orElseThrow()));
+            node.put("maxMillis", millis(Arrays.stream(nanos).max().orElseThrow()));
+            node.put("speedup", baseline / median(nanos));
+            node.put("runsMillis", Arrays.stream(nanos).mapToDouble(StartupBenchmark::millis).toArray());
+            variants.put(name, node);
+        });
+        report.put("variants", variants);
+
+        String json = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(report);
+        Path file = reportDir.resolve("startup-" + Instant.now().toEpochMilli() + ".json");
+        Files.writeString(file, json);
+        Files.copy(file, reportDir.resolve("latest.json"), StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+
+    private static String summary(Map<String, long[]> timings) {
+        double baseline = median(timings.values().iterator().next());
+        StringBuilder summary = new StringBuilder();
+        timings.forEach((name, nanos) -> summary.append(String.format("%-13s median=%.0fms min=%.0fms max=%.0fms speedup=%.2fx%n",
+                name, millis(median(nanos)), millis(Arrays.stream(nanos).min().orElseThrow()),
+                millis(Arrays.stream(nanos).max().orElseThrow()), baseline / median(nanos))));
+        return summary.toString();
+    }
+
+    private static double median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2.0;
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+}
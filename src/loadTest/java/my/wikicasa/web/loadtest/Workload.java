@@ -0,0 +1,102 @@
+package my.wikicasa.web.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import my.wikicasa.web.entity.RealEstate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.random.RandomGenerator;
+
+// Esegue le singole operazioni HTTP contro l'applicazione avviata dal runner
+class Workload {
+
+    private static final String BASE_API = "/api/realestate";
+
+    private final HttpClient client;
+    private final ObjectMapper objectMapper;
+    private final String baseUrl;
+    // Id noti (seed + creati durante il test) da cui pescare per letture e aggiornamenti
+    private final List<Long> knownIds = new CopyOnWriteArrayList<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    Workload(HttpClient client, ObjectMapper objectMapper, int port) {
+        this.client = client;
+        this.objectMapper = objectMapper;
+        this.baseUrl = "http://localhost:" + port + BASE_API;
+    }
+
+    // Popola la tabella tramite l'endpoint batch, a blocchi di batchSize righe
+    void seed(int rows, int batchSize, RandomGenerator random) throws IOException, InterruptedException {
+        List<Long> ids = new ArrayList<>(rows);
+        for (int from = 0; from < rows; from += batchSize) {
+            List<RealEstate> chunk = new ArrayList<>();
+            for (int i = from; i < Math.min(rows, from + batchSize); i++) {
+                chunk.add(newRealEstate("seed-" + i, random));
+            }
+            HttpResponse<String> response = send(HttpRequest.newBuilder(URI.create(baseUrl + "/batch"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(chunk))));
+            if (response.statusCode() >= 300) {
+                throw new IllegalStateException("Seed failed with status " + response.statusCode() + ": " + response.body());
+            }
+            for (JsonNode result : objectMapper.readTree(response.body()).path("results")) {
+                if (result.hasNonNull("id")) {
+                    ids.add(result.get("id").asLong());
+                }
+            }
+        }
+        knownIds.addAll(ids);
+    }
+
+    // Ritorna lo status HTTP della risposta; random è dedicato alla singola richiesta, così la sequenza è riproducibile
+    int execute(Operation operation, RandomGenerator random) throws IOException, InterruptedException {
+        HttpRequest.Builder request = switch (operation) {
+            case GET_BY_ID -> HttpRequest.newBuilder(URI.create(baseUrl + "/" + randomId(random))).GET();
+            case LIST_PAGE -> HttpRequest.newBuilder(URI.create(baseUrl + "?size=20")).GET();
+            case SEARCH -> {
+                int minPrice = random.nextInt(50_000, 400_000);
+                yield HttpRequest.newBuilder(URI.create(baseUrl + "/search?minPrice=" + minPrice
+                        + "&maxPrice=" + (minPrice + 100_000) + "&minRooms=" + random.nextInt(1, 4)
+                        + "&sort=price&size=20")).GET();
+            }
+            case CREATE -> HttpRequest.newBuilder(URI.create(baseUrl))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            objectMapper.writeValueAsString(newRealEstate("load-" + sequence.incrementAndGet(), random))));
+            case UPDATE -> HttpRequest.newBuilder(URI.create(baseUrl + "/" + randomId(random)))
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(
+                            Map.of("price", (double) random.nextInt(50_000, 500_000)))));
+        };
+        HttpResponse<String> response = send(request);
+        if (operation == Operation.CREATE && response.statusCode() == 201) {
+            knownIds.add(objectMapper.readTree(response.body()).get("id").asLong());
+        }
+        return response.statusCode();
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private long randomId(RandomGenerator random) {
+        return knownIds.get(random.nextInt(knownIds.size()));
+    }
+
+    private static RealEstate newRealEstate(String name, RandomGenerator random) {
+        int rooms = random.nextInt(1, 7);
+        return new RealEstate(name, "Via Roma " + random.nextInt(1, 1_000) + ", " + name,
+                (double) random.nextInt(50_000, 500_000), rooms, random.nextInt(1, rooms + 1),
+                (double) random.nextInt(30, 250));
+    }
+
+}
@@ -1,9 +1,16 @@
 package my.wikicasa.web;
 
+import my.wikicasa.web.cache.RealEstateCacheProperties;
+import my.wikicasa.web.changes.ChangeFeedProperties;
+import my.wikicasa.web.ingest.IngestQueueProperties;
+import my.wikicasa.web.service.RealEstateServiceProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 
 @SpringBootApplication
+@EnableConfigurationProperties({RealEstateServiceProperties.class, RealEstateCacheProperties.class,
+        IngestQueueProperties.class, ChangeFeedProperties.class})
 public class WebApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,196 @@
+package my.wikicasa.web.admission;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Limita le richieste contemporaneamente in corso con un limite che si adatta alla latenza osservata.
+// Oltre il limite si attende al più queueTimeout in una coda di al più maxQueueSize richieste, poi si rifiuta:
+// quando il database rallenta le richieste in eccesso falliscono subito invece di accumularsi sul pool di connessioni.
+// Le richieste BULK usano al più bulkShare del limite ed entrano solo se nessuna INTERACTIVE è in attesa
+public class AdaptiveConcurrencyLimiter implements MeterBinder {
+
+    public enum Priority {
+        INTERACTIVE,
+        BULK
+    }
+
+    private final LimitAlgorithm algorithm;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double bulkShare;
+    private final int maxQueueSize;
+    private final long queueTimeoutNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition interactiveTurn = lock.newCondition();
+    private final Condition bulkTurn = lock.newCondition();
+    private final AtomicLong interactiveRejections = new AtomicLong();
+    private final AtomicLong bulkRejections = new AtomicLong();
+
+    private double limit;
+    private int inFlight;
+    private int waitingInteractive;
+    private int waitingBulk;
+
+    public AdaptiveConcurrencyLimiter(LimitAlgorithm algorithm, int initialLimit, int minLimit, int maxLimit,
+                                      double bulkShare, int maxQueueSize, Duration queueTimeout) {
+        this.algorithm = algorithm;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.bulkShare = bulkShare;
+        this.maxQueueSize = maxQueueSize;
+        this.queueTimeoutNanos = queueTimeout.toNanos();
+    }
+
+    // Un Optional vuoto indica che la richiesta va rifiutata
+    public Optional<Permit> acquire(Priority priority) throws InterruptedException {
+        lock.lock();
+        try {
+            if (canEnter(priority)) {
+                return Optional.of(enter(priority));
+            }
+            if (waitingInteractive + waitingBulk >= maxQueueSize) {
+                return reject(priority);
+            }
+            long remaining = queueTimeoutNanos;
+            addWaiting(priority, 1);
+            try {
+                while (!canEnter(priority)) {
+                    if (remaining <= 0) {
+                        return reject(priority);
+                    }
+                    remaining = (priority == Priority.INTERACTIVE ? interactiveTurn : bulkTurn).awaitNanos(remaining);
+                }
+                return Optional.of(enter(priority));
+            } finally {
+                addWaiting(priority, -1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canEnter(Priority priority) {
+        if (priority == Priority.INTERACTIVE) {
+            return inFlight < (int) limit;
+        }
+        return waitingInteractive == 0 && inFlight < Math.max(1, (int) (limit * bulkShare));
+    }
+
+    private Permit enter(Priority priority) {
+        inFlight++;
+        return new Permit(priority, System.nanoTime());
+    }
+
+    private Optional<Permit> reject(Priority priority) {
+        (priority == Priority.INTERACTIVE ? interactiveRejections : bulkRejections).incrementAndGet();
+        return Optional.empty();
+    }
+
+    private void addWaiting(Priority priority, int delta) {
+        if (priority == Priority.INTERACTIVE) {
+            waitingInteractive += delta;
+        } else {
+            waitingBulk += delta;
+        }
+    }
+
+    // Le durate delle richieste BULK dipendono dalla quantità di dati, non dal carico: non aggiornano il limite
+    private void release(Permit permit, boolean dropped) {
+        long latencyNanos = System.nanoTime() - permit.start;
+        lock.lock();
+        try {
+            if (permit.priority == Priority.INTERACTIVE) {
+                limit = Math.max(minLimit, Math.min(maxLimit, algorithm.update(limit, latencyNanos, inFlight, dropped)));
+            }
+            inFlight--;
+            // Il limite può essere cresciuto: entrano tutte le richieste in attesa che ci stanno, prima le INTERACTIVE
+            if (waitingInteractive > 0) {
+                interactiveTurn.signalAll();
+            } else if (waitingBulk > 0) {
+                bulkTurn.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waitingInteractive + waitingBulk;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("realestate.admission.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Current adaptive limit of concurrent requests")
+                .register(registry);
+        Gauge.builder("realestate.admission.in-flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("Requests currently admitted")
+                .register(registry);
+        Gauge.builder("realestate.admission.queued", this, AdaptiveConcurrencyLimiter::getQueued)
+                .description("Requests waiting to be admitted")
+                .register(registry);
+        for (Priority priority : Priority.values()) {
+            FunctionCounter.builder("realestate.admission.rejected",
+                            priority == Priority.INTERACTIVE ? interactiveRejections : bulkRejections, AtomicLong::get)
+                    .description("Requests rejected because the limit and the queue were full")
+                    .tag("priority", priority.name().toLowerCase(Locale.ROOT))
+                    .register(registry);
+        }
+    }
+
+    // Va rilasciato una sola volta; le chiamate successive vengono ignorate
+    public final class Permit {
+
+        private final Priority priority;
+        private final long start;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Priority priority, long start) {
+            this.priority = priority;
+            this.start = start;
+        }
+
+        // dropped indica una richiesta fallita per cause del server, trattata come un segnale di sovraccarico
+        public void release(boolean dropped) {
+            if (released.compareAndSet(false, true)) {
+                AdaptiveConcurrencyLimiter.this.release(this, dropped);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,28 @@
+package my.wikicasa.web.admission;
+
+import java.time.Duration;
+
+// Aumento additivo, riduzione moltiplicativa: +1 per ogni richiesta veloce con il limite quasi pieno,
+// -10% per ogni richiesta fallita o più lenta di latencyThreshold
+public class AimdLimit implements LimitAlgorithm {
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final long latencyThresholdNanos;
+
+    public AimdLimit(Duration latencyThreshold) {
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+    }
+
+    @Override
+    public double update(double limit, long latencyNanos, int inFlight, boolean dropped) {
+        if (dropped || latencyNanos > latencyThresholdNanos) {
+            return limit * BACKOFF_RATIO;
+        }
+        if (inFlight * 2 >= limit) {
+            return limit + 1;
+        }
+        return limit;
+    }
+
+}
@@ -0,0 +1,39 @@
+package my.wikicasa.web.admission;
+
+// Confronta la latenza recente con quella di lungo periodo: finché non cresce il limite sale di circa √limit,
+// quando cresce scende in proporzione (al più della metà per volta). Non serve una soglia di latenza configurata,
+// perché il riferimento è la latenza che il database ha quando non è in coda
+public class GradientLimit implements LimitAlgorithm {
+
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double SHORT_WINDOW = 10;
+    private static final double LONG_WINDOW = 600;
+
+    private double shortLatency;
+    private double longLatency;
+
+    @Override
+    public double update(double limit, long latencyNanos, int inFlight, boolean dropped) {
+        if (longLatency == 0) {
+            shortLatency = latencyNanos;
+            longLatency = latencyNanos;
+        } else {
+            shortLatency += (latencyNanos - shortLatency) * 2 / (SHORT_WINDOW + 1);
+            longLatency += (latencyNanos - longLatency) * 2 / (LONG_WINDOW + 1);
+        }
+        // Dopo un periodo di carico la media lunga resta alta a lungo: se la latenza recente è molto più bassa
+        // la media lunga scende più in fretta, altrimenti il limite tornerebbe a crescere in ritardo
+        if (longLatency / shortLatency > 2) {
+            longLatency *= 0.95;
+        }
+        // Con meno della metà del limite in uso il limite non è il collo di bottiglia e non ha senso farlo crescere
+        if (inFlight < limit / 2) {
+            return limit;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatency / shortLatency));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        return limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+    }
+
+}
@@ -0,0 +1,9 @@
+package my.wikicasa.web.admission;
+
+// Calcola il nuovo limite di concorrenza dopo ogni richiesta misurata.
+// Chiamato da AdaptiveConcurrencyLimiter sotto il suo lock, quindi le implementazioni non devono essere thread-safe
+public interface LimitAlgorithm {
+
+    double update(double limit, long latencyNanos, int inFlight, boolean dropped);
+
+}
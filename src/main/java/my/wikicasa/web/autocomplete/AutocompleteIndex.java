@@ -0,0 +1,370 @@
+package my.wikicasa.web.autocomplete;
+
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.repository.RealEstateRepository;
+import my.wikicasa.web.response.AutocompleteSuggestion;
+import my.wikicasa.web.service.RealEstateChangeListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+// Indice in memoria per l'autocompletamento su nome e indirizzo.
+// Le parole normalizzate stanno in una mappa ordinata (ricerca per prefisso) e puntano agli ID dei RealEstate;
+// la ricerca fuzzy confronta i trigrammi della parola cercata con quelli del vocabolario, non con ogni RealEstate
+@Component
+public class AutocompleteIndex implements RealEstateChangeListener, SmartLifecycle {
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final int MAX_WORDS_PER_TOKEN = 64;
+    private static final double FUZZY_WEIGHT = 0.8;
+    private static final double NAME_PREFIX_BOOST = 0.5;
+    private static final Comparator<AutocompleteSuggestion> RANKING = Comparator.comparingDouble(AutocompleteSuggestion::getScore)
+            .thenComparing(Comparator.comparingLong(AutocompleteSuggestion::getId).reversed());
+
+    private final RealEstateRepository realEstateRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int fetchSize;
+    private final int maxCandidates;
+    private final double fuzzyThreshold;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final TreeMap<String, Postings> words = new TreeMap<>();
+    private final Map<String, Set<String>> trigrams = new HashMap<>();
+    private volatile boolean running;
+
+    public AutocompleteIndex(RealEstateRepository realEstateRepository,
+                             TransactionTemplate transactionTemplate,
+                             @Value("${realestate.autocomplete.memory-index.enabled}") boolean enabled,
+                             @Value("${realestate.export.fetch-size}") int fetchSize,
+                             @Value("${realestate.autocomplete.memory-index.max-candidates}") int maxCandidates,
+                             @Value("${realestate.autocomplete.memory-index.fuzzy-threshold}") double fuzzyThreshold) {
+        this.realEstateRepository = realEstateRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.fetchSize = fetchSize;
+        this.maxCandidates = maxCandidates;
+        this.fuzzyThreshold = fuzzyThreshold;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            entries.clear();
+            words.clear();
+            trigrams.clear();
+            transactionTemplate.executeWithoutResult(status -> realEstateRepository.streamAll(fetchSize, this::add));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onCreated(RealEstate realEstate) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            add(realEstate);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onUpdated(RealEstate previous, RealEstate current) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            remove(previous.getId());
+            add(current);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onDeleted(RealEstate realEstate) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            remove(realEstate.getId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Restituisce i migliori limit RealEstate che contengono tutte le parole cercate, per prefisso o per somiglianza
+    public List<AutocompleteSuggestion> search(String query, int limit) {
+        String[] tokens = tokenize(query);
+        if (tokens.length == 0) {
+            return List.of();
+        }
+        String normalizedQuery = String.join(" ", tokens);
+        lock.readLock().lock();
+        try {
+            List<Map<String, Double>> matches = new ArrayList<>(tokens.length);
+            for (String token : tokens) {
+                Map<String, Double> tokenMatches = matchWords(token);
+                if (tokenMatches.isEmpty()) {
+                    return List.of();
+                }
+                matches.add(tokenMatches);
+            }
+            // I candidati arrivano dal token più selettivo, gli altri token li filtrano
+            matches.sort(Comparator.comparingLong(this::postingsSize));
+            Map<Long, Double> scores = collectCandidates(matches.get(0));
+            for (int i = 1; i < matches.size() && !scores.isEmpty(); i++) {
+                filterCandidates(scores, matches.get(i));
+            }
+
+            PriorityQueue<AutocompleteSuggestion> top = new PriorityQueue<>(limit + 1, RANKING);
+            for (Map.Entry<Long, Double> candidate : scores.entrySet()) {
+                Entry entry = entries.get(candidate.getKey());
+                double score = candidate.getValue() / tokens.length;
+                if (entry.normalizedName().startsWith(normalizedQuery)) {
+                    score += NAME_PREFIX_BOOST;
+                }
+                top.add(new AutocompleteSuggestion(entry.id(), entry.name(), entry.address(), score));
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+            List<AutocompleteSuggestion> suggestions = new ArrayList<>(top);
+            suggestions.sort(RANKING.reversed());
+            return suggestions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Parole del vocabolario che completano il token o gli somigliano, con il relativo peso
+    private Map<String, Double> matchWords(String token) {
+        Map<String, Double> matches = new HashMap<>();
+        for (String word : words.subMap(token, true, token + Character.MAX_VALUE, false).keySet()) {
+            matches.put(word, word.length() == token.length() ? 1.0 : 0.5 + 0.5 * token.length() / word.length());
+            if (matches.size() >= MAX_WORDS_PER_TOKEN) {
+                return matches;
+            }
+        }
+        if (token.length() < 3) {
+            return matches;
+        }
+
+        // Somiglianza come in pg_trgm: trigrammi in comune sul totale dei trigrammi distinti
+        Set<String> tokenTrigrams = trigrams(token);
+        Map<String, Integer> shared = new HashMap<>();
+        for (String trigram : tokenTrigrams) {
+            for (String word : trigrams.getOrDefault(trigram, Set.of())) {
+                shared.merge(word, 1, Integer::sum);
+            }
+        }
+        for (Map.Entry<String, Integer> word : shared.entrySet()) {
+            int common = word.getValue();
+            double similarity = (double) common / (tokenTrigrams.size() + trigrams(word.getKey()).size() - common);
+            if (similarity >= fuzzyThreshold) {
+                matches.merge(word.getKey(), FUZZY_WEIGHT * similarity, Math::max);
+            }
+        }
+        if (matches.size() > MAX_WORDS_PER_TOKEN) {
+            List<Map.Entry<String, Double>> best = new ArrayList<>(matches.entrySet());
+            best.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+            matches = new HashMap<>();
+            for (Map.Entry<String, Double> word : best.subList(0, MAX_WORDS_PER_TOKEN)) {
+                matches.put(word.getKey(), word.getValue());
+            }
+        }
+        return matches;
+    }
+
+    private Map<Long, Double> collectCandidates(Map<String, Double> tokenMatches) {
+        List<Map.Entry<String, Double>> byWeight = new ArrayList<>(tokenMatches.entrySet());
+        byWeight.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+        Map<Long, Double> scores = new HashMap<>();
+        for (Map.Entry<String, Double> word : byWeight) {
+            Postings postings = words.get(word.getKey());
+            for (int i = 0; i < postings.size; i++) {
+                scores.merge(postings.ids[i], word.getValue(), Math::max);
+                // Le parole più pesanti vengono prima, quindi il limite taglia i candidati meno rilevanti
+                if (scores.size() >= maxCandidates) {
+                    return scores;
+                }
+            }
+        }
+        return scores;
+    }
+
+    private void filterCandidates(Map<Long, Double> scores, Map<String, Double> tokenMatches) {
+        Iterator<Map.Entry<Long, Double>> candidates = scores.entrySet().iterator();
+        while (candidates.hasNext()) {
+            Map.Entry<Long, Double> candidate = candidates.next();
+            double best = 0;
+            for (Map.Entry<String, Double> word : tokenMatches.entrySet()) {
+                if (word.getValue() > best && words.get(word.getKey()).contains(candidate.getKey())) {
+                    best = word.getValue();
+                }
+            }
+            if (best == 0) {
+                candidates.remove();
+            } else {
+                candidate.setValue(candidate.getValue() + best);
+            }
+        }
+    }
+
+    private long postingsSize(Map<String, Double> tokenMatches) {
+        long size = 0;
+        for (String word : tokenMatches.keySet()) {
+            size += words.get(word).size;
+        }
+        return size;
+    }
+
+    private void add(RealEstate realEstate) {
+        String[] tokens = tokenize(realEstate.getName() + " " + realEstate.getAddress());
+        Entry entry = new Entry(realEstate.getId(), realEstate.getName(), realEstate.getAddress(),
+                String.join(" ", tokenize(realEstate.getName())), new LinkedHashSet<>(Arrays.asList(tokens)).toArray(String[]::new));
+        entries.put(entry.id(), entry);
+        for (String word : entry.words()) {
+            words.computeIfAbsent(word, newWord -> {
+                for (String trigram : trigrams(newWord)) {
+                    trigrams.computeIfAbsent(trigram, key -> new HashSet<>()).add(newWord);
+                }
+                return new Postings();
+            }).add(entry.id());
+        }
+    }
+
+    private void remove(long id) {
+        Entry entry = entries.remove(id);
+        if (entry == null) {
+            return;
+        }
+        for (String word : entry.words()) {
+            Postings postings = words.get(word);
+            if (postings != null && postings.remove(id) && postings.size == 0) {
+                // La parola non compare più in nessun RealEstate: esce anche dal vocabolario dei trigrammi
+                words.remove(word);
+                for (String trigram : trigrams(word)) {
+                    Set<String> trigramWords = trigrams.get(trigram);
+                    trigramWords.remove(word);
+                    if (trigramWords.isEmpty()) {
+                        trigrams.remove(trigram);
+                    }
+                }
+            }
+        }
+    }
+
+    // Minuscole, senza accenti e divise sui caratteri che non sono lettere o cifre. Locale.ROOT come lower() lato SQL:
+    // con il locale di default, ad esempio tr, la I diventerebbe ı e prefissi e trigrammi non corrisponderebbero più
+    static String[] tokenize(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        String normalized = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+        return Arrays.stream(SEPARATORS.split(normalized)).filter(token -> !token.isEmpty()).toArray(String[]::new);
+    }
+
+    // Trigrammi della parola con due spazi all'inizio e uno alla fine, come in pg_trgm
+    static Set<String> trigrams(String word) {
+        String padded = "  " + word + " ";
+        Set<String> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    @Override
+    public void start() {
+        if (enabled) {
+            rebuild();
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return INITIAL_SCAN_PHASE;
+    }
+
+    private record Entry(long id, String name, String address, String normalizedName, String[] words) {
+    }
+
+    // ID ordinati in un array di long: niente boxing e contains con ricerca binaria
+    private static final class Postings {
+
+        private long[] ids = new long[4];
+        private int size;
+
+        private void add(long id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        private boolean remove(long id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        private boolean contains(long id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+
+    }
+
+}
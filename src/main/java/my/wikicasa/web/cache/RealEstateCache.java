@@ -0,0 +1,127 @@
+package my.wikicasa.web.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import my.wikicasa.web.datasource.ReadRouting;
+import my.wikicasa.web.entity.RealEstate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+@Component
+public class RealEstateCache implements MeterBinder {
+
+    private final boolean enabled;
+    private final boolean replicaReads;
+    private final Cache<Long, Optional<RealEstate>> cache;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    // realestate.routing.enabled appartiene alle impostazioni del routing, lette da ReadReplicaRoutingConfig
+    public RealEstateCache(RealEstateCacheProperties properties,
+                           @Value("${realestate.routing.enabled}") boolean replicaReads) {
+        this.enabled = properties.enabled();
+        this.replicaReads = replicaReads;
+        Duration ttl = properties.ttl();
+        Duration negativeTtl = properties.negativeTtl();
+        // Caffeine usa W-TinyLFU per l'eviction; gli ID inesistenti restano in cache come Optional.empty() con un TTL più breve
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.maximumSize())
+                .expireAfter(new Expiry<Long, Optional<RealEstate>>() {
+                    @Override
+                    public long expireAfterCreate(Long id, Optional<RealEstate> realEstate, long currentTime) {
+                        return (realEstate.isPresent() ? ttl : negativeTtl).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Long id, Optional<RealEstate> realEstate, long currentTime, long currentDuration) {
+                        return expireAfterCreate(id, realEstate, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Long id, Optional<RealEstate> realEstate, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    // Il loader gira fuori dalla cache: get(id, loader) lo eseguirebbe dentro il blocco synchronized di
+    // ConcurrentHashMap.compute, che con JDBC su un virtual thread blocca il carrier. Due miss contemporanei
+    // sulla stessa chiave caricano quindi entrambi, e put scarta il valore se nel frattempo c'è stata un'invalidazione
+    public Optional<RealEstate> get(Long id, Function<Long, Optional<RealEstate>> loader) {
+        if (!enabled) {
+            return loader.apply(id);
+        }
+        Optional<RealEstate> cached = cache.getIfPresent(id);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = invalidationStamp();
+        Optional<RealEstate> loaded = loader.apply(id);
+        // Con il routing attivo, fuori dalla finestra sticky il loader può leggere da una replica in ritardo: il valore
+        // viene restituito ma non messo in cache, dove lo troverebbe anche chi ha appena scritto. In cache finiscono
+        // solo le letture fatte sul primario, che le scritture invalidano
+        if (!replicaReads || ReadRouting.isPrimaryOnly()) {
+            put(id, loaded, stamp);
+        }
+        return loaded;
+    }
+
+    // Restituisce il RealEstate solo se già in cache, senza caricarlo e senza alterare le statistiche
+    public Optional<RealEstate> peek(Long id) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Optional<RealEstate> cached = cache.policy().getIfPresentQuietly(id);
+        return cached != null ? cached : Optional.empty();
+    }
+
+    // Per i caricamenti non bloccanti, che non possono passare da get: conta hit e miss come get,
+    // ma restituisce null se il RealEstate non è in cache
+    public Optional<RealEstate> getIfPresent(Long id) {
+        return enabled ? cache.getIfPresent(id) : null;
+    }
+
+    // Da leggere prima di caricare dal database un valore da passare a put
+    public long invalidationStamp() {
+        return invalidations.get();
+    }
+
+    // Inserisce il valore caricato solo se da stamp in poi non ci sono state invalidazioni, che potrebbero averlo
+    // reso stale. invalidate incrementa il contatore prima di rimuovere la chiave: compute sulla stessa chiave
+    // serializza il controllo con la rimozione, quindi un valore stale non resta mai in cache
+    public void put(Long id, Optional<RealEstate> realEstate, long stamp) {
+        if (enabled) {
+            cache.asMap().compute(id, (key, current) -> invalidations.get() == stamp ? realEstate : current);
+        }
+    }
+
+    public void invalidate(Long id) {
+        invalidations.incrementAndGet();
+        cache.invalidate(id);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "realEstateById");
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+}
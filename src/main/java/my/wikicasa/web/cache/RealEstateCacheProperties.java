@@ -0,0 +1,10 @@
+package my.wikicasa.web.cache;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+// Impostazioni realestate.cache.* di RealEstateCache
+@ConfigurationProperties(prefix = "realestate.cache")
+public record RealEstateCacheProperties(boolean enabled, long maximumSize, Duration ttl, Duration negativeTtl) {
+}
@@ -0,0 +1,385 @@
+package my.wikicasa.web.changes;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import my.wikicasa.web.repository.RealEstateChangeLogRepository;
+import my.wikicasa.web.response.RealEstateChangeEvent;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Feed delle modifiche servito come Server-Sent Events, con SseEmitter sullo stack servlet e come Flux su quello reattivo.
+// Un unico thread tiene una connessione in LISTEN sul canale
+// real_estate_changes, legge dal registro le righe notificate e le distribuisce a tutti gli abbonati.
+// Ogni abbonato ha un buffer limitato: chi non riesce a starci dietro viene chiuso e riprende con Last-Event-ID
+// dal registro, invece di far crescere la memoria o rallentare gli altri.
+// Le sequenze sono assegnate al commit, nell'ordine dei commit (trigger real_estate_change_sequence_trigger):
+// chi ha ricevuto la sequenza N ha già visto tutte quelle minori, quindi sequenza dell'ultimo evento
+// e Last-Event-ID bastano a scartare i duplicati e a riprendere senza perdere modifiche
+@Component
+public class ChangeFeed implements SmartLifecycle, MeterBinder {
+
+    private static final String CHANNEL = "real_estate_changes";
+    private static final int POLL_MILLIS = 500;
+    private static final int REPLAY_PAGE_SIZE = 500;
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(10);
+
+    private final DataSource dataSource;
+    private final RealEstateChangeLogRepository changeLogRepository;
+    private final boolean enabled;
+    private final int bufferSize;
+    private final Duration retention;
+    private final Duration heartbeatInterval;
+    private final Duration reconnectDelay;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch listening = new CountDownLatch(1);
+    private final Scheduler subscriberScheduler = Schedulers.fromExecutorService(
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("realestate-changes-subscriber").factory()), "realestate-changes");
+
+    private volatile boolean running;
+    private Thread listener;
+    private long lastSeq;
+    private long nextPrune;
+    private Counter overflows;
+    private Counter reconnects;
+
+    public ChangeFeed(DataSource dataSource, RealEstateChangeLogRepository changeLogRepository, ChangeFeedProperties properties) {
+        this.dataSource = dataSource;
+        this.changeLogRepository = changeLogRepository;
+        this.enabled = properties.enabled();
+        this.bufferSize = properties.bufferSize();
+        this.retention = properties.retention();
+        this.heartbeatInterval = properties.heartbeatInterval();
+        this.reconnectDelay = properties.reconnectDelay();
+    }
+
+    // Ogni abbonato ha un virtual thread che scrive sull'SseEmitter, così un client lento blocca solo sé stesso
+    public SseEmitter stream(Long lastEventId) {
+        assertEnabled();
+        SseEmitter emitter = new SseEmitter(0L);
+        Subscription subscription = subscribe(lastEventId);
+        emitter.onCompletion(subscription::close);
+        emitter.onError(e -> subscription.close());
+        Thread.ofVirtual().name("realestate-changes-subscriber").start(() -> send(subscription, emitter));
+        return emitter;
+    }
+
+    // Lo stesso feed per lo stack reattivo. Flux.generate legge un elemento per ogni richiesta del client, quindi
+    // anche qui un client lento riempie solo il proprio buffer; l'attesa sul buffer gira su un virtual thread
+    public Flux<ServerSentEvent<Object>> events(Long lastEventId) {
+        assertEnabled();
+        ServerSentEvent<Object> connected = ServerSentEvent.builder().retry(reconnectDelay).comment("connected").build();
+        return Flux.<ServerSentEvent<Object>, Subscription>generate(() -> subscribe(lastEventId), (subscription, sink) -> {
+                    try {
+                        FeedItem item = subscription.next();
+                        if (item == null) {
+                            sink.complete();
+                        } else {
+                            sink.next(toServerSentEvent(item));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        sink.complete();
+                    }
+                    return subscription;
+                }, Subscription::close)
+                .subscribeOn(subscriberScheduler)
+                .startWith(connected);
+    }
+
+    private void assertEnabled() {
+        if (!enabled) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The change feed is disabled");
+        }
+    }
+
+    // L'abbonato viene registrato prima di leggere il registro: gli eventi che arrivano durante la ripresa
+    // finiscono nel buffer e vengono scartati se già inviati con la ripresa
+    Subscription subscribe(Long lastEventId) {
+        Subscription subscription = new Subscription(bufferSize, lastEventId);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    private void send(Subscription subscription, SseEmitter emitter) {
+        try {
+            emitter.send(SseEmitter.event().reconnectTime(reconnectDelay.toMillis()).comment("connected"));
+            for (FeedItem item = subscription.next(); item != null; item = subscription.next()) {
+                emitter.send(toSseEvent(item));
+            }
+            emitter.complete();
+        } catch (IOException | RuntimeException e) {
+            // Il client ha chiuso la connessione o il registro non è leggibile: riproverà con Last-Event-ID
+            emitter.completeWithError(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            emitter.complete();
+        } finally {
+            subscription.close();
+        }
+    }
+
+    private static SseEmitter.SseEventBuilder toSseEvent(FeedItem item) {
+        return switch (item) {
+            case Change(RealEstateChangeEvent event) -> SseEmitter.event()
+                    .id(Long.toString(event.getSeq()))
+                    .name(eventName(event))
+                    .data(event, MediaType.APPLICATION_JSON);
+            case Reset(String message) -> SseEmitter.event().name("reset").data(message);
+            case Heartbeat heartbeat -> SseEmitter.event().comment("heartbeat");
+        };
+    }
+
+    private static ServerSentEvent<Object> toServerSentEvent(FeedItem item) {
+        return switch (item) {
+            case Change(RealEstateChangeEvent event) -> ServerSentEvent.builder()
+                    .id(Long.toString(event.getSeq()))
+                    .event(eventName(event))
+                    .data(event)
+                    .build();
+            case Reset(String message) -> ServerSentEvent.builder().event("reset").data(message).build();
+            case Heartbeat heartbeat -> ServerSentEvent.builder().comment("heartbeat").build();
+        };
+    }
+
+    private static String eventName(RealEstateChangeEvent event) {
+        return event.getType().name().toLowerCase(Locale.ROOT);
+    }
+
+    private boolean isResumable(long lastEventId) {
+        return changeLogRepository.findFirstSeq().map(first -> lastEventId >= first - 1).orElse(true);
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                catchUp();
+                listening.countDown();
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_MILLIS);
+                    if (notifications != null && notifications.length > 0) {
+                        List<Long> seqs = new ArrayList<>(notifications.length);
+                        for (PGNotification notification : notifications) {
+                            seqs.add(Long.valueOf(notification.getParameter()));
+                        }
+                        changeLogRepository.findBySeq(seqs).forEach(this::publish);
+                    }
+                    pruneIfDue();
+                }
+            } catch (SQLException | RuntimeException e) {
+                // Connessione persa: al prossimo giro il registro copre le modifiche notificate nel frattempo
+                if (running) {
+                    reconnects.increment();
+                    sleep(reconnectDelay);
+                }
+            }
+        }
+    }
+
+    // Alla prima connessione parte dalla fine del registro; dopo una riconnessione recupera quanto notificato nel frattempo
+    private void catchUp() {
+        if (listening.getCount() > 0) {
+            lastSeq = changeLogRepository.findLastSeq();
+            return;
+        }
+        List<RealEstateChangeEvent> page;
+        do {
+            page = changeLogRepository.findAfter(lastSeq, REPLAY_PAGE_SIZE);
+            page.forEach(this::publish);
+        } while (page.size() == REPLAY_PAGE_SIZE);
+    }
+
+    private void publish(RealEstateChangeEvent event) {
+        lastSeq = Math.max(lastSeq, event.getSeq());
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.buffer.offer(event)) {
+                subscription.overflowed = true;
+                subscriptions.remove(subscription);
+                overflows.increment();
+            }
+        }
+    }
+
+    private void pruneIfDue() {
+        long now = System.nanoTime();
+        if (now - nextPrune >= 0) {
+            nextPrune = now + retention.toNanos() / 10;
+            changeLogRepository.deleteOlderThan(retention);
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("realestate.changes.subscribers", subscriptions, Set::size)
+                .description("Clients connected to the change feed")
+                .register(registry);
+        overflows = Counter.builder("realestate.changes.overflows")
+                .description("Change feed subscribers disconnected because their buffer was full")
+                .register(registry);
+        reconnects = Counter.builder("realestate.changes.reconnects")
+                .description("Times the change feed listener lost its LISTEN connection")
+                .register(registry);
+    }
+
+    // La connessione in LISTEN resta aperta finché l'applicazione è attiva: all'avvio si attende che sia pronta,
+    // così gli abbonati che arrivano subito dopo non perdono modifiche
+    @Override
+    public void start() {
+        running = true;
+        if (enabled) {
+            nextPrune = System.nanoTime();
+            listener = Thread.ofPlatform().name("realestate-change-listener").daemon().start(this::listen);
+            try {
+                listening.await(STARTUP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        subscriptions.forEach(Subscription::close);
+        subscriberScheduler.dispose();
+        if (listener != null) {
+            try {
+                listener.join(POLL_MILLIS * 2L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Come la coda di inserimento: si ferma dopo il server web e prima che il DataSource venga chiuso
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 3072;
+    }
+
+    // Cosa inviare all'abbonato: una modifica, l'avviso che il registro non copre più Last-Event-ID o un heartbeat
+    sealed interface FeedItem permits Change, Reset, Heartbeat {
+    }
+
+    record Change(RealEstateChangeEvent event) implements FeedItem {
+    }
+
+    record Reset(String message) implements FeedItem {
+    }
+
+    record Heartbeat() implements FeedItem {
+    }
+
+    final class Subscription implements AutoCloseable {
+
+        private final BlockingQueue<RealEstateChangeEvent> buffer;
+        private final Deque<RealEstateChangeEvent> replay = new ArrayDeque<>();
+        private volatile boolean overflowed;
+        private volatile boolean closed;
+        private Long lastSent;
+        private boolean started;
+        private boolean replaying;
+
+        private Subscription(int bufferSize, Long lastEventId) {
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+            this.lastSent = lastEventId;
+        }
+
+        // Prossimo elemento per il client, letto da un solo thread alla volta: prima la ripresa dal registro a pagine,
+        // poi gli eventi in tempo reale. null quando l'abbonamento è chiuso o in overflow: dopo un overflow gli eventi
+        // successivi non arrivano più nel buffer, quindi si chiude subito e il client riprende con Last-Event-ID
+        FeedItem next() throws InterruptedException {
+            if (!started) {
+                started = true;
+                if (lastSent != null && !isResumable(lastSent)) {
+                    // Le modifiche successive a Last-Event-ID non sono più nel registro: il client deve ricaricare l'elenco
+                    Reset reset = new Reset("The change log no longer covers event " + lastSent);
+                    lastSent = null;
+                    return reset;
+                }
+                replaying = lastSent != null;
+            }
+            while (replaying && replay.isEmpty()) {
+                List<RealEstateChangeEvent> page = changeLogRepository.findAfter(lastSent, REPLAY_PAGE_SIZE);
+                replay.addAll(page);
+                replaying = page.size() == REPLAY_PAGE_SIZE;
+            }
+            RealEstateChangeEvent event = replay.poll();
+            if (event != null) {
+                lastSent = event.getSeq();
+                return new Change(event);
+            }
+            while (!closed && !overflowed) {
+                event = buffer.poll(heartbeatInterval.toMillis(), TimeUnit.MILLISECONDS);
+                if (event == null) {
+                    return new Heartbeat();
+                }
+                if (lastSent == null || event.getSeq() > lastSent) {
+                    lastSent = event.getSeq();
+                    return new Change(event);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,14 @@
+package my.wikicasa.web.changes;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+// Impostazioni realestate.changes.* di ChangeFeed
+@ConfigurationProperties(prefix = "realestate.changes")
+public record ChangeFeedProperties(boolean enabled,
+                                   int bufferSize,
+                                   Duration retention,
+                                   Duration heartbeatInterval,
+                                   Duration reconnectDelay) {
+}
@@ -0,0 +1,47 @@
+package my.wikicasa.web.config;
+
+import my.wikicasa.web.admission.AdaptiveConcurrencyLimiter;
+import my.wikicasa.web.admission.AimdLimit;
+import my.wikicasa.web.admission.GradientLimit;
+import my.wikicasa.web.admission.LimitAlgorithm;
+import my.wikicasa.web.filter.AdmissionControlFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+@Configuration
+@ConditionalOnProperty(name = "realestate.admission.enabled", havingValue = "true")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@EnableConfigurationProperties(AdmissionControlProperties.class)
+public class AdmissionControlConfig {
+
+    // Prima dei filtri dell'applicazione, così una richiesta rifiutata non fa altro lavoro. Non HIGHEST_PRECEDENCE:
+    // resta spazio davanti per i filtri che devono vedere anche le richieste rifiutate, come quello di misura dei test
+    public static final int FILTER_ORDER = Ordered.HIGHEST_PRECEDENCE + 10;
+
+    @Bean
+    public AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter(AdmissionControlProperties properties) {
+        LimitAlgorithm limitAlgorithm = switch (properties.algorithm()) {
+            case "gradient" -> new GradientLimit();
+            case "aimd" -> new AimdLimit(properties.aimd().latencyThreshold());
+            default -> throw new IllegalStateException("Unsupported admission algorithm: " + properties.algorithm());
+        };
+        return new AdaptiveConcurrencyLimiter(limitAlgorithm, properties.initialLimit(), properties.minLimit(), properties.maxLimit(),
+                properties.bulkShare(), properties.maxQueueSize(), properties.queueTimeout());
+    }
+
+    @Bean
+    public FilterRegistrationBean<AdmissionControlFilter> admissionControlFilter(AdaptiveConcurrencyLimiter limiter,
+                                                                                 AdmissionControlProperties properties) {
+        FilterRegistrationBean<AdmissionControlFilter> registration =
+                new FilterRegistrationBean<>(new AdmissionControlFilter(limiter, properties.retryAfter()));
+        registration.addUrlPatterns("/api/realestate/*");
+        registration.setOrder(FILTER_ORDER);
+        return registration;
+    }
+
+}
@@ -0,0 +1,22 @@
+package my.wikicasa.web.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+// Impostazioni realestate.admission.* del limitatore e del filtro di AdmissionControlConfig
+@ConfigurationProperties(prefix = "realestate.admission")
+public record AdmissionControlProperties(String algorithm,
+                                         Aimd aimd,
+                                         int initialLimit,
+                                         int minLimit,
+                                         int maxLimit,
+                                         double bulkShare,
+                                         int maxQueueSize,
+                                         Duration queueTimeout,
+                                         Duration retryAfter) {
+
+    public record Aimd(Duration latencyThreshold) {
+    }
+
+}
@@ -0,0 +1,33 @@
+package my.wikicasa.web.config;
+
+import my.wikicasa.web.datasource.BulkheadDataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnProperty(name = "realestate.bulkhead.enabled", havingValue = "true")
+public class ConnectionBulkheadConfig {
+
+    // Avvolge il DataSource principale, così sia JdbcTemplate sia le transazioni passano dal bulkhead
+    @Bean
+    public static BeanPostProcessor connectionBulkheadPostProcessor(Environment environment) {
+        int maxConcurrentConnections = environment.getRequiredProperty("realestate.bulkhead.max-concurrent-connections", Integer.class);
+        Duration acquireTimeout = environment.getRequiredProperty("realestate.bulkhead.acquire-timeout", Duration.class);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && "dataSource".equals(beanName)) {
+                    return new BulkheadDataSource(dataSource, maxConcurrentConnections, acquireTimeout);
+                }
+                return bean;
+            }
+        };
+    }
+
+}
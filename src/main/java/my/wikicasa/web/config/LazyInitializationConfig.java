@@ -0,0 +1,20 @@
+package my.wikicasa.web.config;
+
+import my.wikicasa.web.restcontroller.RealEstateController;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(name = "spring.main.lazy-initialization", havingValue = "true")
+public class LazyInitializationConfig {
+
+    // Con l'inizializzazione lazy il controller e le sue dipendenze (servizio, repository, DataSource) restano
+    // comunque eager: altrimenti il loro costo si sposterebbe dall'avvio alla prima richiesta
+    @Bean
+    public static LazyInitializationExcludeFilter eagerRequestPath() {
+        return LazyInitializationExcludeFilter.forBeanTypes(RealEstateController.class);
+    }
+
+}
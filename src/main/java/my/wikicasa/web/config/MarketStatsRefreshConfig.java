@@ -0,0 +1,12 @@
+package my.wikicasa.web.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+// Lo scheduling serve solo al refresh delle viste materializzate delle statistiche
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "realestate.stats.mode", havingValue = "materialized-view")
+public class MarketStatsRefreshConfig {
+}
@@ -0,0 +1,86 @@
+package my.wikicasa.web.config;
+
+import my.wikicasa.web.exception.RealEstateNotFoundException;
+import my.wikicasa.web.exception.RealEstateVersionConflictException;
+import my.wikicasa.web.handler.GlobalExceptionHandler;
+import my.wikicasa.web.restcontroller.ReactiveRealEstateHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.BindException;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.queryParam;
+
+// Stack reattivo, attivo con il profilo reactive (spring.main.web-application-type=reactive):
+// stesse rotte di RealEstateController servite da WebFlux su Netty, con accesso al database tramite R2DBC
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWebConfig {
+
+    // Tomcat è comunque nel classpath per lo stack servlet e Spring Boot lo preferirebbe: per confrontare
+    // i due stack serve l'event loop di Netty
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    // Le rotte con parametri discriminanti (async, onConflict, view, unpaged) precedono quelle generiche,
+    // come le params delle @RequestMapping. Il pattern "" limita le rotte della collezione a /api/realestate:
+    // senza pattern corrisponderebbero anche a tutti i sotto-percorsi, che vengono valutati dopo
+    @Bean
+    public RouterFunction<ServerResponse> realEstateRoutes(ReactiveRealEstateHandler handler, GlobalExceptionHandler exceptionHandler) {
+        return RouterFunctions.route()
+                .path("/api/realestate", builder -> builder
+                        .POST("", queryParam("async", "true").and(queryParam("onConflict", value -> true)), handler::ingestRealEstateOnConflict)
+                        .POST("", queryParam("async", "true"), handler::ingestRealEstate)
+                        .POST("", queryParam("onConflict", value -> true), handler::upsertRealEstate)
+                        .POST("", handler::createRealEstate)
+                        .POST("/batch", handler::createRealEstates)
+                        .GET("", queryParam("view", "summary").and(queryParam("unpaged", "true")), handler::getUnpagedRealEstateSummaries)
+                        .GET("", queryParam("view", "summary"), handler::getRealEstateSummaries)
+                        .GET("", queryParam("unpaged", "true"), handler::getAllRealEstates)
+                        .GET("", handler::getRealEstates)
+                        .GET("/ingest/{token}", handler::getIngestStatus)
+                        .GET("/search", handler::searchRealEstates)
+                        .GET("/autocomplete", handler::autocomplete)
+                        .GET("/export", handler::exportRealEstates)
+                        .GET("/changes", handler::streamChanges)
+                        .GET("/stats", handler::getMarketStats)
+                        .GET("/cache/stats", handler::getCacheStats)
+                        .GET("/{id}/similar", handler::getSimilarRealEstates)
+                        .GET("/{id}", handler::getRealEstateById)
+                        .PUT("/{id}", handler::updateRealEstate)
+                        .DELETE("/{id}", handler::deleteRealEstate))
+                .filter((request, next) -> handleErrors(request, next, exceptionHandler))
+                .build();
+    }
+
+    // Stesse risposte di errore dello stack servlet, prodotte dai metodi di GlobalExceptionHandler.
+    // Il defer raccoglie anche le eccezioni lanciate dagli handler prima di restituire il Mono
+    private static Mono<ServerResponse> handleErrors(ServerRequest request, HandlerFunction<ServerResponse> next,
+                                                     GlobalExceptionHandler exceptionHandler) {
+        return Mono.defer(() -> next.handle(request)).onErrorResume(e -> {
+            ResponseEntity<?> response = switch (e) {
+                case ResponseStatusException ex -> exceptionHandler.handleResponseStatusException(ex);
+                case RealEstateNotFoundException ex -> exceptionHandler.handleRealEstateNotFoundException(ex);
+                case RealEstateVersionConflictException ex -> exceptionHandler.handleRealEstateVersionConflictException(ex);
+                case BindException ex -> exceptionHandler.handleValidationExceptions(ex);
+                default -> null;
+            };
+            if (response == null) {
+                return Mono.error(e);
+            }
+            return ServerResponse.status(response.getStatusCode()).bodyValue(response.getBody());
+        });
+    }
+
+}
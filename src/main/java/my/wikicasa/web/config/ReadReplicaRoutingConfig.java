@@ -0,0 +1,77 @@
+package my.wikicasa.web.config;
+
+import my.wikicasa.web.datasource.ReadWriteRoutingDataSource;
+import my.wikicasa.web.filter.ReadYourWritesFilter;
+import org.springframework.beans.factory.config.DestructionAwareBeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+@Configuration
+@ConditionalOnProperty(name = "realestate.routing.enabled", havingValue = "true")
+public class ReadReplicaRoutingConfig {
+
+    // Avvolge il DataSource principale nel routing verso le repliche. Il proxy lazy rimanda l'apertura
+    // della connessione alla prima istruzione, quando il flag readOnly della transazione è già impostato
+    @Bean
+    public static DestructionAwareBeanPostProcessor readReplicaRoutingPostProcessor(Environment environment) {
+        return new DestructionAwareBeanPostProcessor() {
+
+            private ReadWriteRoutingDataSource routingDataSource;
+
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && "dataSource".equals(beanName)) {
+                    routingDataSource = new ReadWriteRoutingDataSource(dataSource, replicas(environment),
+                            environment.getRequiredProperty("realestate.routing.max-lag", Duration.class),
+                            environment.getRequiredProperty("realestate.routing.health-check-interval", Duration.class));
+                    return new LazyConnectionDataSourceProxy(routingDataSource);
+                }
+                return bean;
+            }
+
+            @Override
+            public void postProcessBeforeDestruction(Object bean, String beanName) {
+                if ("dataSource".equals(beanName) && routingDataSource != null) {
+                    try {
+                        routingDataSource.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+
+            @Override
+            public boolean requiresDestruction(Object bean) {
+                return bean instanceof LazyConnectionDataSourceProxy;
+            }
+        };
+    }
+
+    private static List<DataSource> replicas(Environment environment) {
+        String username = environment.getRequiredProperty("realestate.routing.replica-username");
+        String password = environment.getRequiredProperty("realestate.routing.replica-password");
+        return Arrays.stream(environment.getRequiredProperty("realestate.routing.replica-urls", String[].class))
+                .filter(url -> !url.isBlank())
+                .map(url -> (DataSource) DataSourceBuilder.create().url(url.trim()).username(username).password(password).build())
+                .toList();
+    }
+
+    @Bean
+    public FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilter(Environment environment) {
+        Duration stickyWindow = environment.getRequiredProperty("realestate.routing.sticky-window", Duration.class);
+        return new FilterRegistrationBean<>(new ReadYourWritesFilter(stickyWindow));
+    }
+
+}
@@ -0,0 +1,23 @@
+package my.wikicasa.web.config;
+
+import my.wikicasa.web.protobuf.RealEstatePageProtobufHttpMessageConverter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+// Formati compatti scelti tramite Accept. Smile e CBOR arrivano dai convertitori Jackson predefiniti,
+// registrati quando i rispettivi dataformat sono nel classpath; protobuf è limitato alle pagine di RealEstate
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class ResponseFormatConfig implements WebMvcConfigurer {
+
+    // In coda, dopo il convertitore JSON: senza un Accept esplicito la risposta resta JSON
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new RealEstatePageProtobufHttpMessageConverter());
+    }
+
+}
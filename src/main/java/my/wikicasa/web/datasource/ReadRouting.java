@@ -0,0 +1,57 @@
+package my.wikicasa.web.datasource;
+
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Supplier;
+
+// Indica a ReadWriteRoutingDataSource quando una connessione può andare su una replica.
+// Le letture vanno marcate esplicitamente (o svolte in una transazione readOnly), tutto il resto resta sul primario
+public final class ReadRouting {
+
+    private static final ThreadLocal<Boolean> READ_ONLY = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> PRIMARY_ONLY = new ThreadLocal<>();
+
+    private ReadRouting() {
+    }
+
+    // Esegue una lettura che può essere servita da una replica
+    public static <T> T readOnly(Supplier<T> query) {
+        if (READ_ONLY.get() != null) {
+            return query.get();
+        }
+        READ_ONLY.set(Boolean.TRUE);
+        try {
+            return query.get();
+        } finally {
+            READ_ONLY.remove();
+        }
+    }
+
+    // Forza sul primario tutte le connessioni aperte fino alla chiusura dello scope, ad esempio subito dopo una scrittura
+    public static Scope primaryOnly() {
+        if (PRIMARY_ONLY.get() != null) {
+            return () -> {
+            };
+        }
+        PRIMARY_ONLY.set(Boolean.TRUE);
+        return PRIMARY_ONLY::remove;
+    }
+
+    // Vero dentro uno scope primaryOnly, dove nessuna lettura può andare su una replica
+    public static boolean isPrimaryOnly() {
+        return PRIMARY_ONLY.get() != null;
+    }
+
+    static boolean useReplica() {
+        if (isPrimaryOnly()) {
+            return false;
+        }
+        return READ_ONLY.get() != null || TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+}
@@ -17,6 +17,9 @@ import java.util.List;
 @AllArgsConstructor
 public class RealEstate {
 
+    // Solo per toJson: le risposte HTTP usano l'ObjectMapper dell'applicazione
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     @JsonProperty(access = JsonProperty.Access.READ_ONLY)
     private Long id;
 
@@ -42,6 +45,9 @@ public class RealEstate {
     @Positive(message = "The square meters must be positive")
     private Double sqMeters;
 
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
+
     public RealEstate(String name, String address, Double price, Integer rooms, Integer bathrooms, Double sqMeters) {
         this.name = name;
         this.address = address;
@@ -52,18 +58,16 @@ public class RealEstate {
     }
 
     public String toJson() {
-        ObjectMapper mapper = new ObjectMapper();
         try {
-            return mapper.writeValueAsString(this);
+            return MAPPER.writeValueAsString(this);
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         }
     }
 
     public static String toJson(List<RealEstate> realEstates) {
-        ObjectMapper mapper = new ObjectMapper();
         try {
-            return mapper.writeValueAsString(realEstates);
+            return MAPPER.writeValueAsString(realEstates);
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         }
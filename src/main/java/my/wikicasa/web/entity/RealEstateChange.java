@@ -0,0 +1,12 @@
+package my.wikicasa.web.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// Stato di un RealEstate prima e dopo un aggiornamento
+@Data
+@AllArgsConstructor
+public class RealEstateChange {
+    private RealEstate previous;
+    private RealEstate current;
+}
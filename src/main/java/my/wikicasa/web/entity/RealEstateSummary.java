@@ -0,0 +1,19 @@
+package my.wikicasa.web.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RealEstateSummary {
+
+    // Campi primitivi: il mapper li copia da getLong e getDouble del ResultSet senza boxing
+    private long id;
+
+    private String name;
+
+    private double price;
+
+}
@@ -0,0 +1,13 @@
+package my.wikicasa.web.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// Esito di un upsert: previous è valorizzato solo per gli aggiornamenti
+@Data
+@AllArgsConstructor
+public class RealEstateUpsert {
+    private UpsertStatus status;
+    private RealEstate previous;
+    private RealEstate current;
+}
@@ -0,0 +1,7 @@
+package my.wikicasa.web.entity;
+
+public enum UpsertStatus {
+    CREATED,
+    UPDATED,
+    UNCHANGED
+}
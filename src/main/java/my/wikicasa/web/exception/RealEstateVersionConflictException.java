@@ -0,0 +1,7 @@
+package my.wikicasa.web.exception;
+
+public class RealEstateVersionConflictException extends RuntimeException {
+    public RealEstateVersionConflictException(Long id, Long expectedVersion) {
+        super("RealEstate with ID: " + id + " was modified concurrently, expected version " + expectedVersion + " is stale");
+    }
+}
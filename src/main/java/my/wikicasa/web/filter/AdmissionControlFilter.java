@@ -0,0 +1,92 @@
+package my.wikicasa.web.filter;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import my.wikicasa.web.admission.AdaptiveConcurrencyLimiter;
+import my.wikicasa.web.admission.AdaptiveConcurrencyLimiter.Permit;
+import my.wikicasa.web.admission.AdaptiveConcurrencyLimiter.Priority;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+
+// Fa passare le richieste all'API da AdaptiveConcurrencyLimiter; quelle rifiutate ricevono 503 con Retry-After.
+// Inserimenti in blocco, export ed elenco completo sono BULK, tutto il resto INTERACTIVE.
+// Il feed delle modifiche resta escluso: una connessione SSE occuperebbe un posto per tutta la sua durata
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final String retryAfterSeconds;
+
+    public AdmissionControlFilter(AdaptiveConcurrencyLimiter limiter, Duration retryAfter) {
+        this.limiter = limiter;
+        this.retryAfterSeconds = Long.toString(Math.max(1, (retryAfter.toMillis() + 999) / 1000));
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getRequestURI().endsWith("/changes");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Optional<Permit> acquired;
+        try {
+            acquired = limiter.acquire(priority(request));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = Optional.empty();
+        }
+        if (acquired.isEmpty()) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, retryAfterSeconds);
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many concurrent requests, retry later");
+            return;
+        }
+        Permit permit = acquired.get();
+        try {
+            filterChain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException e) {
+            permit.release(true);
+            throw e;
+        }
+        // Export e risposte in streaming proseguono su un altro thread: il posto si libera quando finiscono
+        if (request.isAsyncStarted()) {
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    permit.release(response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                    permit.release(true);
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                    permit.release(true);
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        } else {
+            permit.release(response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private static Priority priority(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        boolean bulk = uri.endsWith("/batch") || uri.endsWith("/export") || "true".equals(request.getParameter("unpaged"));
+        return bulk ? Priority.BULK : Priority.INTERACTIVE;
+    }
+
+}
@@ -0,0 +1,55 @@
+package my.wikicasa.web.filter;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import my.wikicasa.web.datasource.ReadRouting;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+
+// Dopo una scrittura, le richieste dello stesso client restano sul primario per stickyWindow:
+// così il client rilegge ciò che ha appena scritto anche se le repliche non l'hanno ancora ricevuto.
+// Il client è identificato dall'header X-Client-Id, oppure dall'indirizzo remoto
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    public static final String CLIENT_ID_HEADER = "X-Client-Id";
+    private static final Set<String> READ_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+
+    private final Cache<String, Boolean> recentWriters;
+
+    public ReadYourWritesFilter(Duration stickyWindow) {
+        this.recentWriters = Caffeine.newBuilder()
+                .expireAfterWrite(stickyWindow)
+                .build();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String clientId = clientId(request);
+        boolean write = !READ_METHODS.contains(request.getMethod());
+        if (!write && recentWriters.getIfPresent(clientId) == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        // Anche le letture fatte durante una scrittura (ad esempio i controlli di versione) vanno sul primario
+        try (ReadRouting.Scope scope = ReadRouting.primaryOnly()) {
+            filterChain.doFilter(request, response);
+        }
+        if (write && response.getStatus() < HttpServletResponse.SC_BAD_REQUEST) {
+            recentWriters.put(clientId, Boolean.TRUE);
+        }
+    }
+
+    private static String clientId(HttpServletRequest request) {
+        String clientId = request.getHeader(CLIENT_ID_HEADER);
+        return clientId != null ? clientId : request.getRemoteAddr();
+    }
+
+}
@@ -0,0 +1,216 @@
+package my.wikicasa.web.ingest;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.response.BatchItemResult;
+import my.wikicasa.web.response.BatchResponse;
+import my.wikicasa.web.response.IngestState;
+import my.wikicasa.web.response.IngestStatusResponse;
+import my.wikicasa.web.service.RealEstateService;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Coda di inserimento asincrono (write-behind): la richiesta HTTP accoda il RealEstate già validato e riceve un token,
+// un unico thread scrittore lo inserisce insieme agli altri con un INSERT multi-riga ogni batchSize elementi o maxDelay.
+// Con la coda piena le richieste vengono respinte (429) invece di accumulare memoria e connessioni
+@Component
+public class IngestQueue implements SmartLifecycle, MeterBinder {
+
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final RealEstateService realEstateService;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final Duration shutdownTimeout;
+    private final BlockingQueue<Pending> queue;
+    private final Cache<String, IngestStatusResponse> statuses;
+    // Controllo di accepting e accodamento sono atomici rispetto a stop(): un elemento accettato è sempre in coda
+    // prima che lo scrittore possa vedere accepting = false e terminare
+    private final Object submitLock = new Object();
+
+    private volatile boolean accepting;
+    private volatile boolean running;
+    private Thread writer;
+
+    public IngestQueue(RealEstateService realEstateService, IngestQueueProperties properties) {
+        this.realEstateService = realEstateService;
+        this.enabled = properties.enabled();
+        this.batchSize = properties.batchSize();
+        this.maxDelayNanos = properties.maxDelay().toNanos();
+        this.shutdownTimeout = properties.shutdownTimeout();
+        this.queue = new ArrayBlockingQueue<>(properties.queueCapacity());
+        this.statuses = Caffeine.newBuilder()
+                .expireAfterWrite(properties.statusRetention())
+                .build();
+    }
+
+    public IngestStatusResponse submit(RealEstate realEstate) {
+        if (!enabled) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Asynchronous ingestion is disabled");
+        }
+        String token = UUID.randomUUID().toString();
+        IngestStatusResponse pending = IngestStatusResponse.pending(token);
+        synchronized (submitLock) {
+            if (!accepting) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The ingestion queue is shutting down");
+            }
+            statuses.put(token, pending);
+            if (!queue.offer(new Pending(token, realEstate))) {
+                statuses.invalidate(token);
+                throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "The ingestion queue is full, retry later");
+            }
+        }
+        return pending;
+    }
+
+    public IngestStatusResponse getStatus(String token) {
+        IngestStatusResponse status = statuses.getIfPresent(token);
+        if (status == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown or expired ingestion token: " + token);
+        }
+        return status;
+    }
+
+    // Alla chiusura smette di accettare richieste ma svuota la coda prima di terminare.
+    // Se viene interrotto prima, gli elementi rimasti vengono segnati FAILED invece di restare PENDING
+    private void drain() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        try {
+            while (accepting || !queue.isEmpty()) {
+                collect(batch);
+                if (!batch.isEmpty()) {
+                    write(batch);
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queue.drainTo(batch);
+            fail(batch, "The ingestion queue was stopped before the real estate could be stored");
+        }
+    }
+
+    // Attende il primo elemento, poi raccoglie gli altri fino a batchSize o finché non scade maxDelay
+    private void collect(List<Pending> batch) throws InterruptedException {
+        Pending first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    // Passa dall'upsert in modalità "ignore" del service: un solo INSERT multi-riga per batch,
+    // con cache, statistiche e indici aggiornati come per gli inserimenti sincroni.
+    // Qualunque errore, anche un Error, chiude il solo batch corrente: i token rimasti in attesa vengono
+    // segnati FAILED e il thread scrittore continua con la coda invece di terminare lasciandoli PENDING
+    private void write(List<Pending> batch) {
+        List<RealEstate> realEstates = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            realEstates.add(pending.realEstate());
+        }
+        try {
+            BatchResponse response = realEstateService.createRealEstates(realEstates, "ignore");
+            for (BatchItemResult result : response.getResults()) {
+                String token = batch.get(result.getIndex()).token();
+                statuses.put(token, switch (result.getStatus()) {
+                    case CREATED -> IngestStatusResponse.created(token, result.getId());
+                    case INVALID -> IngestStatusResponse.failed(token, result.getErrors());
+                    default -> IngestStatusResponse.failed(token, Map.of("message", "RealEstate already exists"));
+                });
+            }
+        } catch (Throwable e) {
+            fail(batch, "The real estate could not be stored: " + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
+        }
+    }
+
+    // Solo i token ancora PENDING: quelli già risolti dal batch mantengono il loro stato
+    private void fail(List<Pending> batch, String message) {
+        for (Pending pending : batch) {
+            statuses.asMap().computeIfPresent(pending.token(), (token, status) -> status.getState() == IngestState.PENDING
+                    ? IngestStatusResponse.failed(token, Map.of("message", message))
+                    : status);
+        }
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("realestate.ingest.queue.size", queue, BlockingQueue::size)
+                .description("Real estates waiting to be written by the ingestion queue")
+                .register(registry);
+    }
+
+    @Override
+    public void start() {
+        if (enabled) {
+            accepting = true;
+            writer = Thread.ofPlatform().name("realestate-ingest-writer").start(this::drain);
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        synchronized (submitLock) {
+            accepting = false;
+        }
+        if (writer != null) {
+            try {
+                // Oltre il timeout lo scrittore viene interrotto e segna FAILED quanto è rimasto in coda
+                if (!writer.join(shutdownTimeout)) {
+                    writer.interrupt();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Si ferma dopo il server web, quando non arrivano più richieste, e prima che il DataSource venga chiuso
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 3072;
+    }
+
+    private record Pending(String token, RealEstate realEstate) {
+    }
+
+}
@@ -0,0 +1,15 @@
+package my.wikicasa.web.ingest;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+// Impostazioni realestate.ingest.* di IngestQueue
+@ConfigurationProperties(prefix = "realestate.ingest")
+public record IngestQueueProperties(boolean enabled,
+                                    int queueCapacity,
+                                    int batchSize,
+                                    Duration maxDelay,
+                                    Duration statusRetention,
+                                    Duration shutdownTimeout) {
+}
@@ -0,0 +1,86 @@
+package my.wikicasa.web.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import my.wikicasa.web.entity.RealEstate;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+// Serializzazione JSON in streaming dei RealEstate con l'ObjectMapper dell'applicazione, così le risposte scritte qui
+// seguono la stessa configurazione di quelle del converter di Spring MVC. L'ObjectWriter è thread-safe e condiviso:
+// le cache dei serializer vengono costruite una sola volta invece che a ogni risposta
+@Component
+public class RealEstateJson {
+
+    private final ObjectMapper mapper;
+    // Per gli stream: niente flush dopo ogni valore e nessun separatore automatico tra i valori radice
+    private final ObjectWriter streamWriter;
+
+    public RealEstateJson(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.streamWriter = mapper.writerFor(RealEstate.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("");
+    }
+
+    // Scrive un array JSON direttamente sullo stream, un elemento alla volta
+    public StreamWriter array(OutputStream outputStream) throws IOException {
+        return new StreamWriter(mapper.getFactory().createGenerator(outputStream), streamWriter, true);
+    }
+
+    // Scrive un documento JSON per riga (NDJSON) direttamente sullo stream
+    public StreamWriter ndjson(OutputStream outputStream) throws IOException {
+        return new StreamWriter(mapper.getFactory().createGenerator(outputStream), streamWriter, false);
+    }
+
+    public static final class StreamWriter implements Consumer<RealEstate>, Closeable {
+
+        private final JsonGenerator generator;
+        private final ObjectWriter writer;
+        private final boolean array;
+        private boolean flushed;
+
+        private StreamWriter(JsonGenerator generator, ObjectWriter writer, boolean array) throws IOException {
+            this.generator = generator;
+            this.writer = writer;
+            this.array = array;
+            if (array) {
+                generator.writeStartArray();
+            }
+        }
+
+        @Override
+        public void accept(RealEstate realEstate) {
+            try {
+                writer.writeValue(generator, realEstate);
+                if (!array) {
+                    generator.writeRaw('\n');
+                }
+                // Il primo elemento parte subito, i successivi seguono il riempimento dei buffer
+                if (!flushed) {
+                    generator.flush();
+                    flushed = true;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (array) {
+                generator.writeEndArray();
+            }
+            generator.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,102 @@
+package my.wikicasa.web.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Timer e distribuzioni delle righe per ogni metodo di RealEstateRepository.
+// I meter vengono creati una sola volta per operazione, così il costo per chiamata resta un lookup in mappa;
+// si disattivano con management.metrics.enable.realestate.repository=false
+@Component
+public class RepositoryMetrics {
+
+    public static final String TIMER_NAME = "realestate.repository";
+    public static final String ROWS_NAME = "realestate.repository.rows";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> successTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> errorTimers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> rowSummaries = new ConcurrentHashMap<>();
+
+    public RepositoryMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> T time(String operation, Supplier<T> call) {
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            timer(successTimers, operation, "success").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (RuntimeException e) {
+            timer(errorTimers, operation, "error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+    }
+
+    public <T> List<T> timeQuery(String operation, Supplier<List<T>> query) {
+        List<T> rows = time(operation, query);
+        recordRows(operation, rows.size());
+        return rows;
+    }
+
+    public void time(String operation, Runnable call) {
+        time(operation, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    // Varianti per ReactiveRealEstateRepository: il tempo va dalla sottoscrizione al completamento della query
+    public <T> Flux<T> timeFlux(String operation, Flux<T> query) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicLong rows = new AtomicLong();
+            return query
+                    .doOnNext(row -> rows.incrementAndGet())
+                    .doOnComplete(() -> {
+                        timer(successTimers, operation, "success").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        recordRows(operation, rows.get());
+                    })
+                    .doOnError(e -> timer(errorTimers, operation, "error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    public <T> Mono<T> timeMono(String operation, Mono<T> query) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return query
+                    .doOnSuccess(row -> {
+                        timer(successTimers, operation, "success").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        recordRows(operation, row != null ? 1 : 0);
+                    })
+                    .doOnError(e -> timer(errorTimers, operation, "error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    public void recordRows(String operation, long rows) {
+        rowSummaries.computeIfAbsent(operation, key -> DistributionSummary.builder(ROWS_NAME)
+                .description("Rows returned by RealEstateRepository queries")
+                .tag("operation", key)
+                .register(meterRegistry)).record(rows);
+    }
+
+    private Timer timer(Map<String, Timer> timers, String operation, String outcome) {
+        return timers.computeIfAbsent(operation, key -> Timer.builder(TIMER_NAME)
+                .description("Latency of RealEstateRepository methods")
+                .tag("operation", key)
+                .tag("outcome", outcome)
+                .register(meterRegistry));
+    }
+
+}
@@ -0,0 +1,65 @@
+package my.wikicasa.web.protobuf;
+
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.response.CursorPage;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+// Scrive le pagine di RealEstate come RealEstatePage protobuf; le altre risposte restano negli altri formati
+public class RealEstatePageProtobufHttpMessageConverter extends AbstractGenericHttpMessageConverter<CursorPage<RealEstate>> {
+
+    public RealEstatePageProtobufHttpMessageConverter() {
+        super(RealEstateProtobuf.MEDIA_TYPE);
+    }
+
+    @Override
+    public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    // CursorPage è generica: vanno escluse le pagine di altri tipi, come quelle di RealEstateSummary
+    @Override
+    public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+        if (type == null || !canWrite(mediaType)) {
+            return false;
+        }
+        ResolvableType resolved = ResolvableType.forType(type);
+        return CursorPage.class.isAssignableFrom(resolved.toClass())
+                && resolved.as(CursorPage.class).getGeneric(0).toClass() == RealEstate.class;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return CursorPage.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected void writeInternal(CursorPage<RealEstate> page, Type type, HttpOutputMessage outputMessage) throws IOException {
+        byte[] bytes = RealEstateProtobuf.toBytes(page);
+        outputMessage.getHeaders().setContentLength(bytes.length);
+        outputMessage.getBody().write(bytes);
+    }
+
+    @Override
+    public CursorPage<RealEstate> read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Protobuf request bodies are not supported", inputMessage);
+    }
+
+    @Override
+    protected CursorPage<RealEstate> readInternal(Class<? extends CursorPage<RealEstate>> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Protobuf request bodies are not supported", inputMessage);
+    }
+
+}
@@ -0,0 +1,199 @@
+package my.wikicasa.web.protobuf;
+
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.response.CursorPage;
+import org.springframework.http.MediaType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// Codifica protobuf dei RealEstate secondo src/main/resources/proto/realestate.proto, scritta a mano:
+// i messaggi sono pochi e piatti, e così non servono né protoc né le classi generate.
+// I campi null vengono omessi, come i campi non impostati di proto3
+public final class RealEstateProtobuf {
+
+    public static final String MEDIA_TYPE_VALUE = "application/x-protobuf";
+    public static final MediaType MEDIA_TYPE = MediaType.valueOf(MEDIA_TYPE_VALUE);
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+
+    // message RealEstate
+    private static final int FIELD_ID = 1;
+    private static final int FIELD_NAME = 2;
+    private static final int FIELD_ADDRESS = 3;
+    private static final int FIELD_PRICE = 4;
+    private static final int FIELD_ROOMS = 5;
+    private static final int FIELD_BATHROOMS = 6;
+    private static final int FIELD_SQ_METERS = 7;
+    private static final int FIELD_VERSION = 8;
+
+    // message RealEstatePage
+    private static final int FIELD_CONTENT = 1;
+    private static final int FIELD_NEXT_CURSOR = 2;
+
+    private RealEstateProtobuf() {
+    }
+
+    // Una pagina come singolo messaggio RealEstatePage
+    public static byte[] toBytes(CursorPage<RealEstate> page) {
+        Buffer buffer = new Buffer(256 * Math.max(1, page.getContent().size()));
+        Buffer item = new Buffer(256);
+        for (RealEstate realEstate : page.getContent()) {
+            item.reset();
+            writeRealEstate(item, realEstate);
+            buffer.writeTag(FIELD_CONTENT, WIRE_LENGTH_DELIMITED);
+            buffer.writeVarint(item.size);
+            buffer.write(item);
+        }
+        if (page.getNextCursor() != null) {
+            buffer.writeString(FIELD_NEXT_CURSOR, page.getNextCursor());
+        }
+        return buffer.toByteArray();
+    }
+
+    // Scrive sullo stream una sequenza di messaggi RealEstate delimitati (ognuno preceduto dalla sua lunghezza in varint,
+    // come writeDelimitedTo delle classi generate), un elemento alla volta
+    public static DelimitedWriter delimited(OutputStream outputStream) {
+        return new DelimitedWriter(outputStream);
+    }
+
+    private static void writeRealEstate(Buffer buffer, RealEstate realEstate) {
+        if (realEstate.getId() != null) {
+            buffer.writeTag(FIELD_ID, WIRE_VARINT);
+            buffer.writeVarint(realEstate.getId());
+        }
+        if (realEstate.getName() != null) {
+            buffer.writeString(FIELD_NAME, realEstate.getName());
+        }
+        if (realEstate.getAddress() != null) {
+            buffer.writeString(FIELD_ADDRESS, realEstate.getAddress());
+        }
+        if (realEstate.getPrice() != null) {
+            buffer.writeDouble(FIELD_PRICE, realEstate.getPrice());
+        }
+        if (realEstate.getRooms() != null) {
+            buffer.writeTag(FIELD_ROOMS, WIRE_VARINT);
+            buffer.writeVarint(realEstate.getRooms());
+        }
+        if (realEstate.getBathrooms() != null) {
+            buffer.writeTag(FIELD_BATHROOMS, WIRE_VARINT);
+            buffer.writeVarint(realEstate.getBathrooms());
+        }
+        if (realEstate.getSqMeters() != null) {
+            buffer.writeDouble(FIELD_SQ_METERS, realEstate.getSqMeters());
+        }
+        if (realEstate.getVersion() != null) {
+            buffer.writeTag(FIELD_VERSION, WIRE_VARINT);
+            buffer.writeVarint(realEstate.getVersion());
+        }
+    }
+
+    public static final class DelimitedWriter implements Consumer<RealEstate>, Closeable {
+
+        private final OutputStream outputStream;
+        private final Buffer buffer = new Buffer(512);
+        private final Buffer item = new Buffer(256);
+        private boolean flushed;
+
+        private DelimitedWriter(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void accept(RealEstate realEstate) {
+            item.reset();
+            writeRealEstate(item, realEstate);
+            buffer.reset();
+            buffer.writeVarint(item.size);
+            buffer.write(item);
+            try {
+                outputStream.write(buffer.bytes, 0, buffer.size);
+                // Come per il JSON: il primo elemento parte subito, i successivi seguono il riempimento dei buffer
+                if (!flushed) {
+                    outputStream.flush();
+                    flushed = true;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            outputStream.flush();
+        }
+
+    }
+
+    // Array di byte che cresce secondo necessità, riusabile tra un messaggio e l'altro
+    private static final class Buffer {
+
+        private byte[] bytes;
+        private int size;
+
+        private Buffer(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        private void reset() {
+            size = 0;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+            }
+        }
+
+        private void writeTag(int field, int wireType) {
+            writeVarint((field << 3) | wireType);
+        }
+
+        // Gli int32 negativi vengono estesi a 64 bit, come prevede il formato
+        private void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeDouble(int field, double value) {
+            writeTag(field, WIRE_FIXED64);
+            ensureCapacity(8);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int i = 0; i < 8; i++) {
+                bytes[size++] = (byte) (bits >>> (8 * i));
+            }
+        }
+
+        private void writeString(int field, String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeTag(field, WIRE_LENGTH_DELIMITED);
+            writeVarint(utf8.length);
+            ensureCapacity(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        private void write(Buffer other) {
+            ensureCapacity(other.size);
+            System.arraycopy(other.bytes, 0, bytes, size, other.size);
+            size += other.size;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+    }
+
+}
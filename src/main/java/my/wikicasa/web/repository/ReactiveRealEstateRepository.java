@@ -0,0 +1,248 @@
+package my.wikicasa.web.repository;
+
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Readable;
+import io.r2dbc.spi.Statement;
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.entity.RealEstateChange;
+import my.wikicasa.web.entity.RealEstateSummary;
+import my.wikicasa.web.entity.RealEstateUpsert;
+import my.wikicasa.web.entity.UpsertStatus;
+import my.wikicasa.web.metrics.RepositoryMetrics;
+import my.wikicasa.web.request.RealEstateSearchCriteria;
+import my.wikicasa.web.response.AutocompleteSuggestion;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static my.wikicasa.web.repository.RealEstateRepository.COLUMNS;
+import static my.wikicasa.web.repository.RealEstateRepository.SUMMARY_COLUMNS;
+
+// Le stesse query di RealEstateRepository eseguite con R2DBC, per lo stack reattivo (profilo reactive).
+// Le istruzioni costruite dinamicamente sono condivise: qui i ? diventano i segnaposto $1, $2, ... del driver.
+// Le letture vanno sempre al primario: ReadRouting si basa su ThreadLocal e non si applica a R2DBC
+@Repository
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveRealEstateRepository {
+
+    private final DatabaseClient databaseClient;
+    private final RepositoryMetrics metrics;
+
+    public ReactiveRealEstateRepository(ConnectionFactory connectionFactory, RepositoryMetrics metrics) {
+        this.databaseClient = DatabaseClient.create(connectionFactory);
+        this.metrics = metrics;
+    }
+
+    // Legge un RealEstate a partire dalla colonna offset (gli indici di R2DBC partono da 0)
+    private static RealEstate mapRealEstate(Readable row, int offset) {
+        return new RealEstate(
+                row.get(offset, Long.class),
+                row.get(offset + 1, String.class),
+                row.get(offset + 2, String.class),
+                row.get(offset + 3, Double.class),
+                row.get(offset + 4, Integer.class),
+                row.get(offset + 5, Integer.class),
+                row.get(offset + 6, Double.class),
+                row.get(offset + 7, Long.class)
+        );
+    }
+
+    public Mono<RealEstate> save(RealEstate realEstate) {
+        String sql = "INSERT INTO real_estate (name, address, price, rooms, bathrooms, sq_meters) VALUES (?, ?, ?, ?, ?, ?) "
+                + "ON CONFLICT ON CONSTRAINT unique_real_estate DO NOTHING RETURNING id, version";
+        return metrics.timeMono("save", sql(sql, realEstate.getName(), realEstate.getAddress(), realEstate.getPrice(),
+                        realEstate.getRooms(), realEstate.getBathrooms(), realEstate.getSqMeters())
+                        .map(row -> {
+                            realEstate.setId(row.get(0, Long.class));
+                            realEstate.setVersion(row.get(1, Long.class));
+                            return realEstate;
+                        }).first())
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.CONFLICT, "RealEstate already exists")));
+    }
+
+    // Come RealEstateRepository.saveAll: un'unica istruzione con un insieme di parametri per elemento.
+    // Il driver restituisce un Result per insieme, nello stesso ordine, vuoto se la riga era un duplicato
+    public Mono<List<Long>> saveAll(List<RealEstate> realEstates) {
+        if (realEstates.isEmpty()) {
+            return Mono.just(List.of());
+        }
+        String sql = toBindMarkers("INSERT INTO real_estate (name, address, price, rooms, bathrooms, sq_meters) VALUES (?, ?, ?, ?, ?, ?) "
+                + "ON CONFLICT ON CONSTRAINT unique_real_estate DO NOTHING RETURNING id");
+        Flux<Optional<Long>> ids = databaseClient.inConnectionMany(connection -> {
+            Statement statement = connection.createStatement(sql);
+            for (int i = 0; i < realEstates.size(); i++) {
+                if (i > 0) {
+                    statement.add();
+                }
+                RealEstate realEstate = realEstates.get(i);
+                statement.bind(0, realEstate.getName())
+                        .bind(1, realEstate.getAddress())
+                        .bind(2, realEstate.getPrice())
+                        .bind(3, realEstate.getRooms())
+                        .bind(4, realEstate.getBathrooms())
+                        .bind(5, realEstate.getSqMeters());
+            }
+            return Flux.from(statement.execute())
+                    .concatMap(result -> Flux.from(result.map(row -> row.get(0, Long.class))).next()
+                            .map(Optional::of)
+                            .defaultIfEmpty(Optional.empty()));
+        });
+        return metrics.timeMono("saveAll", ids.collectList())
+                .map(optionalIds -> {
+                    List<Long> generated = new ArrayList<>(optionalIds.size());
+                    optionalIds.forEach(id -> generated.add(id.orElse(null)));
+                    return generated;
+                });
+    }
+
+    // Vedi RealEstateRepository.upsertAll: stessa istruzione e stessa rilettura delle righe non visibili nello snapshot
+    public Mono<List<RealEstateUpsert>> upsertAll(List<RealEstate> realEstates, boolean update) {
+        if (realEstates.isEmpty()) {
+            return Mono.just(List.of());
+        }
+        Flux<RealEstateUpsert> upserts = sql(RealEstateRepository.upsertSql(realEstates.size(), update),
+                RealEstateRepository.upsertParams(realEstates)).map(row -> {
+            RealEstate current = row.get(1) != null ? mapRealEstate(row, 1) : null;
+            RealEstate existing = row.get(10) != null ? mapRealEstate(row, 10) : null;
+            if (current == null) {
+                return new RealEstateUpsert(UpsertStatus.UNCHANGED, null, existing);
+            }
+            if (Boolean.TRUE.equals(row.get(9, Boolean.class))) {
+                return new RealEstateUpsert(UpsertStatus.CREATED, null, current);
+            }
+            return new RealEstateUpsert(UpsertStatus.UPDATED, existing != null ? existing : current, current);
+        }).all();
+
+        return metrics.timeFlux("upsertAll", upserts).collectList()
+                .flatMap(results -> Flux.range(0, results.size())
+                        .concatMap(i -> {
+                            RealEstateUpsert upsert = results.get(i);
+                            if (upsert.getCurrent() != null) {
+                                return Mono.just(upsert);
+                            }
+                            return findByKey(realEstates.get(i)).doOnNext(upsert::setCurrent).thenReturn(upsert);
+                        })
+                        .collectList());
+    }
+
+    private Mono<RealEstate> findByKey(RealEstate realEstate) {
+        String sql = "SELECT " + COLUMNS + " FROM real_estate WHERE name = ? AND address = ? AND price = CAST(? AS NUMERIC(10, 2))";
+        return metrics.timeMono("findByKey", sql(sql, realEstate.getName(), realEstate.getAddress(), realEstate.getPrice())
+                .map(row -> mapRealEstate(row, 0)).first());
+    }
+
+    public Flux<RealEstate> findPage(long afterId, int limit) {
+        String sql = "SELECT " + COLUMNS + " FROM real_estate WHERE id > ? ORDER BY id LIMIT ?";
+        return metrics.timeFlux("findPage", sql(sql, afterId, limit).map(row -> mapRealEstate(row, 0)).all());
+    }
+
+    public Flux<RealEstateSummary> findSummaryPage(long afterId, int limit) {
+        String sql = "SELECT " + SUMMARY_COLUMNS + " FROM real_estate WHERE id > ? ORDER BY id LIMIT ?";
+        return metrics.timeFlux("findSummaryPage", sql(sql, afterId, limit).map(row -> new RealEstateSummary(
+                row.get(0, Long.class),
+                row.get(1, String.class),
+                row.get(2, Double.class)
+        )).all());
+    }
+
+    public Flux<RealEstate> findPageVersions(long afterId, int limit) {
+        String sql = "SELECT id, version FROM real_estate WHERE id > ? ORDER BY id LIMIT ?";
+        return metrics.timeFlux("findPageVersions", sql(sql, afterId, limit).map(row -> {
+            RealEstate realEstate = new RealEstate();
+            realEstate.setId(row.get(0, Long.class));
+            realEstate.setVersion(row.get(1, Long.class));
+            return realEstate;
+        }).all());
+    }
+
+    // Scorrere tutti i RealEstate a blocchi di fetchSize righe: il blocco successivo viene chiesto al server
+    // solo quando il subscriber ne richiede altri, così un client lento rallenta la lettura invece di riempire la memoria
+    public Flux<RealEstate> streamAll(int fetchSize) {
+        String sql = "SELECT " + COLUMNS + " FROM real_estate ORDER BY id";
+        return metrics.timeFlux("streamAll", databaseClient.sql(sql)
+                .filter(statement -> statement.fetchSize(fetchSize))
+                .map(row -> mapRealEstate(row, 0))
+                .all());
+    }
+
+    public Flux<RealEstate> search(RealEstateSearchCriteria criteria, int offset, int limit) {
+        List<Object> params = new ArrayList<>();
+        String sql = RealEstateRepository.searchSql(criteria, offset, limit, params);
+        return metrics.timeFlux("search", sql(sql, params).map(row -> mapRealEstate(row, 0)).all());
+    }
+
+    public Flux<AutocompleteSuggestion> autocomplete(String query, int limit) {
+        return metrics.timeFlux("autocomplete", sql(RealEstateRepository.AUTOCOMPLETE_SQL, RealEstateRepository.autocompleteParams(query, limit))
+                .map(row -> new AutocompleteSuggestion(
+                        row.get(0, Long.class),
+                        row.get(1, String.class),
+                        row.get(2, String.class),
+                        row.get(3, Double.class)
+                )).all());
+    }
+
+    public Mono<RealEstate> findById(Long id) {
+        String sql = "SELECT " + COLUMNS + " FROM real_estate WHERE id = ?";
+        return metrics.timeMono("findById", sql(sql, id).map(row -> mapRealEstate(row, 0)).first());
+    }
+
+    public Mono<Long> findVersion(Long id) {
+        String sql = "SELECT version FROM real_estate WHERE id = ?";
+        return metrics.timeMono("findVersion", sql(sql, id).map(row -> row.get(0, Long.class)).first());
+    }
+
+    public Mono<RealEstateChange> update(Long id, Map<String, Object> changes, Long expectedVersion) {
+        List<Object> params = new ArrayList<>(changes.size() + 2);
+        String sql = RealEstateRepository.updateSql(id, changes, expectedVersion, params);
+        return metrics.timeMono("update", sql(sql, params)
+                .map(row -> new RealEstateChange(mapRealEstate(row, 8), mapRealEstate(row, 0))).first());
+    }
+
+    public Mono<RealEstate> deleteById(Long id) {
+        String sql = "DELETE FROM real_estate WHERE id = ? RETURNING " + COLUMNS;
+        return metrics.timeMono("deleteById", sql(sql, id).map(row -> mapRealEstate(row, 0)).first());
+    }
+
+    public Mono<RealEstate> deleteById(Long id, long expectedVersion) {
+        String sql = "DELETE FROM real_estate WHERE id = ? AND version = ? RETURNING " + COLUMNS;
+        return metrics.timeMono("deleteById", sql(sql, id, expectedVersion).map(row -> mapRealEstate(row, 0)).first());
+    }
+
+    private DatabaseClient.GenericExecuteSpec sql(String sql, Object... params) {
+        return sql(sql, Arrays.asList(params));
+    }
+
+    private DatabaseClient.GenericExecuteSpec sql(String sql, List<Object> params) {
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(toBindMarkers(sql));
+        for (int i = 0; i < params.size(); i++) {
+            spec = spec.bind(i, params.get(i));
+        }
+        return spec;
+    }
+
+    // Converte i segnaposto JDBC (?) in quelli nativi di PostgreSQL ($1, $2, ...); le query non contengono ? letterali
+    static String toBindMarkers(String sql) {
+        StringBuilder converted = new StringBuilder(sql.length() + 16);
+        int index = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '?') {
+                converted.append('$').append(++index);
+            } else {
+                converted.append(c);
+            }
+        }
+        return converted.toString();
+    }
+
+}
@@ -0,0 +1,68 @@
+package my.wikicasa.web.repository;
+
+import my.wikicasa.web.entity.ChangeType;
+import my.wikicasa.web.metrics.RepositoryMetrics;
+import my.wikicasa.web.response.RealEstateChangeEvent;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+// Letture sul registro delle modifiche scritto dal trigger real_estate_change_trigger. Vanno sempre al primario:
+// il feed deve vedere le righe appena notificate, che una replica potrebbe non avere ancora
+@Repository
+public class RealEstateChangeLogRepository {
+
+    private static final String COLUMNS = "seq, type, changed_at, " + RealEstateRepository.COLUMNS;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final RepositoryMetrics metrics;
+
+    public RealEstateChangeLogRepository(JdbcTemplate jdbcTemplate, RepositoryMetrics metrics) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.metrics = metrics;
+    }
+
+    private final RowMapper<RealEstateChangeEvent> changeEventRowMapper = (rs, rowNum) -> new RealEstateChangeEvent(
+            rs.getLong(1),
+            ChangeType.valueOf(rs.getString(2)),
+            rs.getTimestamp(3).toInstant(),
+            RealEstateRepository.mapRealEstate(rs, 3)
+    );
+
+    // Le righe con i numeri di sequenza notificati, nell'ordine richiesto
+    public List<RealEstateChangeEvent> findBySeq(Collection<Long> seqs) {
+        String sql = "SELECT " + COLUMNS + " FROM real_estate_change_log l "
+                + "JOIN unnest(?::BIGINT[]) WITH ORDINALITY AS n(seq, ord) USING (seq) ORDER BY n.ord";
+        return metrics.timeQuery("changeLogFindBySeq", () -> jdbcTemplate.query(sql, changeEventRowMapper, (Object) seqs.toArray(Long[]::new)));
+    }
+
+    public List<RealEstateChangeEvent> findAfter(long seq, int limit) {
+        String sql = "SELECT " + COLUMNS + " FROM real_estate_change_log WHERE seq > ? ORDER BY seq LIMIT ?";
+        return metrics.timeQuery("changeLogFindAfter", () -> jdbcTemplate.query(sql, changeEventRowMapper, seq, limit));
+    }
+
+    public long findLastSeq() {
+        return metrics.time("changeLogLastSeq", () ->
+                jdbcTemplate.queryForObject("SELECT coalesce(max(seq), 0) FROM real_estate_change_log", Long.class));
+    }
+
+    public Optional<Long> findFirstSeq() {
+        return metrics.time("changeLogFirstSeq", () ->
+                Optional.ofNullable(jdbcTemplate.queryForObject("SELECT min(seq) FROM real_estate_change_log", Long.class)));
+    }
+
+    // L'ultima riga resta sempre: serve a capire se chi riprende da un Last-Event-ID ha perso delle modifiche
+    public int deleteOlderThan(Duration retention) {
+        String sql = "DELETE FROM real_estate_change_log WHERE changed_at < now() - make_interval(secs => ?) "
+                + "AND seq < (SELECT max(seq) FROM real_estate_change_log)";
+        int deleted = metrics.time("changeLogPrune", () -> jdbcTemplate.update(sql, retention.toMillis() / 1000.0));
+        metrics.recordRows("changeLogPrune", deleted);
+        return deleted;
+    }
+
+}
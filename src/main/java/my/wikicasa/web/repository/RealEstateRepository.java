@@ -1,75 +1,437 @@
 package my.wikicasa.web.repository;
 
+import my.wikicasa.web.datasource.ReadRouting;
 import my.wikicasa.web.entity.RealEstate;
-import org.springframework.dao.DataIntegrityViolationException;
+import my.wikicasa.web.entity.RealEstateChange;
+import my.wikicasa.web.entity.RealEstateSummary;
+import my.wikicasa.web.entity.RealEstateUpsert;
+import my.wikicasa.web.entity.UpsertStatus;
+import my.wikicasa.web.metrics.RepositoryMetrics;
+import my.wikicasa.web.request.RealEstateSearchCriteria;
+import my.wikicasa.web.response.AutocompleteSuggestion;
+import my.wikicasa.web.response.MarketStatsResponse;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowCountCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Repository
 public class RealEstateRepository {
 
+    // Colonne ordinabili nella ricerca, indicizzate con il nome della proprietà esposta dall'API
+    public static final Map<String, String> SORTABLE_COLUMNS = Map.of(
+            "id", "id",
+            "price", "price",
+            "rooms", "rooms",
+            "bathrooms", "bathrooms",
+            "sqMeters", "sq_meters"
+    );
+
+    // Colonne aggiornabili parzialmente, indicizzate con il nome della proprietà esposta dall'API
+    public static final Map<String, String> UPDATABLE_COLUMNS = Map.of(
+            "name", "name",
+            "address", "address",
+            "price", "price",
+            "rooms", "rooms",
+            "bathrooms", "bathrooms",
+            "sqMeters", "sq_meters"
+    );
+
     private final JdbcTemplate jdbcTemplate;
+    private final RepositoryMetrics metrics;
 
-    public RealEstateRepository(JdbcTemplate jdbcTemplate) {
+    public RealEstateRepository(JdbcTemplate jdbcTemplate, RepositoryMetrics metrics) {
         this.jdbcTemplate = jdbcTemplate;
+        this.metrics = metrics;
     }
 
-    // Mapper per convertire le righe del risultato in oggetti RealEstate
-    private final RowMapper<RealEstate> realEstateRowMapper = (rs, rowNum) -> {
-        RealEstate realEstate = new RealEstate();
-        realEstate.setId(rs.getLong("id"));
-        realEstate.setName(rs.getString("name"));
-        realEstate.setAddress(rs.getString("address"));
-        realEstate.setPrice(rs.getDouble("price"));
-        realEstate.setRooms(rs.getInt("rooms"));
-        realEstate.setBathrooms(rs.getInt("bathrooms"));
-        realEstate.setSqMeters(rs.getDouble("sq_meters"));
-        return realEstate;
-    };
-
-    // Creare un nuovo RealEstate
+    // Colonne lette esplicitamente al posto di SELECT *; l'ordine corrisponde agli indici usati dai mapper
+    static final String COLUMNS = "id, name, address, price, rooms, bathrooms, sq_meters, version";
+    static final String SUMMARY_COLUMNS = "id, name, price";
+
+    // Mapper per convertire le righe del risultato in oggetti RealEstate (visibile nel package per i benchmark).
+    // Le colonne si leggono per posizione, evitando la ricerca per nome su ogni colonna di ogni riga
+    final RowMapper<RealEstate> realEstateRowMapper = (rs, rowNum) -> mapRealEstate(rs, 0);
+
+    // Legge un RealEstate a partire dalla colonna offset + 1, per i risultati che ne contengono più di uno
+    static RealEstate mapRealEstate(ResultSet rs, int offset) throws SQLException {
+        return new RealEstate(
+                rs.getLong(offset + 1),
+                rs.getString(offset + 2),
+                rs.getString(offset + 3),
+                rs.getDouble(offset + 4),
+                rs.getInt(offset + 5),
+                rs.getInt(offset + 6),
+                rs.getDouble(offset + 7),
+                rs.getLong(offset + 8)
+        );
+    }
+
+    static String qualifiedColumns(String alias) {
+        return Arrays.stream(COLUMNS.split(", ")).map(column -> alias + "." + column).collect(Collectors.joining(", "));
+    }
+
+    final RowMapper<RealEstateSummary> realEstateSummaryRowMapper = (rs, rowNum) -> new RealEstateSummary(
+            rs.getLong(1),
+            rs.getString(2),
+            rs.getDouble(3)
+    );
+
+    // Creare un nuovo RealEstate. Un duplicato sul vincolo unique_real_estate non fa fallire l'istruzione:
+    // semplicemente non restituisce righe, senza transazione abortita né eccezione del driver
     public RealEstate save(RealEstate realEstate) {
-        String sql = "INSERT INTO real_estate (name, address, price, rooms, bathrooms, sq_meters) VALUES (?, ?, ?, ?, ?, ?) RETURNING id";
-        try {
-            Long id = jdbcTemplate.queryForObject(sql, Long.class, realEstate.getName(), realEstate.getAddress(),
-                    realEstate.getPrice(), realEstate.getRooms(), realEstate.getBathrooms(), realEstate.getSqMeters());
-            realEstate.setId(id);
+        String sql = "INSERT INTO real_estate (name, address, price, rooms, bathrooms, sq_meters) VALUES (?, ?, ?, ?, ?, ?) "
+                + "ON CONFLICT ON CONSTRAINT unique_real_estate DO NOTHING RETURNING id, version";
+        return metrics.<RealEstate>timeQuery("save", () -> jdbcTemplate.query(sql, (rs, rowNum) -> {
+            realEstate.setId(rs.getLong(1));
+            realEstate.setVersion(rs.getLong(2));
             return realEstate;
-        } catch (DataIntegrityViolationException e) {
-            throw new ResponseStatusException(HttpStatus.CONFLICT, "RealEstate already exists", e);
+        }, realEstate.getName(), realEstate.getAddress(), realEstate.getPrice(), realEstate.getRooms(),
+                realEstate.getBathrooms(), realEstate.getSqMeters())).stream().findFirst()
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.CONFLICT, "RealEstate already exists"));
+    }
+
+    // Inserire più RealEstate con un'unica istruzione INSERT ... ON CONFLICT, indicando per ognuno se è stato creato,
+    // aggiornato o lasciato invariato. Con update = false i duplicati restano come sono (DO NOTHING), altrimenti
+    // vengono aggiornati locali, bagni e metri quadri, ma solo se cambiano davvero.
+    // La CTE existing legge (e con update blocca) le righe già presenti, per restituire i valori precedenti.
+    // La chiave (name, address, price) deve essere univoca all'interno della lista
+    public List<RealEstateUpsert> upsertAll(List<RealEstate> realEstates, boolean update) {
+        if (realEstates.isEmpty()) {
+            return List.of();
+        }
+        String sql = upsertSql(realEstates.size(), update);
+        List<Object> params = upsertParams(realEstates);
+
+        List<RealEstateUpsert> upserts = metrics.<RealEstateUpsert>timeQuery("upsertAll", () -> jdbcTemplate.query(sql, (rs, rowNum) -> {
+            RealEstate current = rs.getObject(2) != null ? mapRealEstate(rs, 1) : null;
+            RealEstate existing = rs.getObject(11) != null ? mapRealEstate(rs, 10) : null;
+            if (current == null) {
+                return new RealEstateUpsert(UpsertStatus.UNCHANGED, null, existing);
+            }
+            if (rs.getBoolean(10)) {
+                return new RealEstateUpsert(UpsertStatus.CREATED, null, current);
+            }
+            // Se la riga è stata inserita da un'altra transazione dopo lo snapshot, existing non la vede:
+            // i valori precedenti non sono noti e si considera invariato lo stato di partenza
+            return new RealEstateUpsert(UpsertStatus.UPDATED, existing != null ? existing : current, current);
+        }, params.toArray()));
+
+        // Stesso caso con DO NOTHING: la riga in conflitto non è visibile nello snapshot e va riletta
+        for (int i = 0; i < upserts.size(); i++) {
+            if (upserts.get(i).getCurrent() == null) {
+                upserts.get(i).setCurrent(findByKey(realEstates.get(i)).orElse(null));
+            }
         }
+        return upserts;
+    }
+
+    // Istruzione di upsertAll per il numero di righe indicato; i parametri arrivano da upsertParams
+    static String upsertSql(int rows, boolean update) {
+        String values = String.join(", ", Collections.nCopies(rows,
+                "(?::int, ?::varchar, ?::varchar, CAST(? AS NUMERIC(10, 2)), ?::int, ?::int, ?::double precision)"));
+        String conflictAction = update
+                ? "DO UPDATE SET rooms = EXCLUDED.rooms, bathrooms = EXCLUDED.bathrooms, sq_meters = EXCLUDED.sq_meters, "
+                + "version = real_estate.version + 1 "
+                + "WHERE (real_estate.rooms, real_estate.bathrooms, real_estate.sq_meters) "
+                + "IS DISTINCT FROM (EXCLUDED.rooms, EXCLUDED.bathrooms, EXCLUDED.sq_meters)"
+                : "DO NOTHING";
+        return "WITH incoming (ord, name, address, price, rooms, bathrooms, sq_meters) AS (VALUES " + values + "), "
+                + "existing AS (SELECT " + qualifiedColumns("r") + " FROM real_estate r "
+                + "JOIN incoming i ON r.name = i.name AND r.address = i.address AND r.price = i.price"
+                + (update ? " FOR UPDATE OF r" : "") + "), "
+                + "upserted AS (INSERT INTO real_estate (name, address, price, rooms, bathrooms, sq_meters) "
+                + "SELECT name, address, price, rooms, bathrooms, sq_meters FROM incoming ORDER BY ord "
+                + "ON CONFLICT ON CONSTRAINT unique_real_estate " + conflictAction
+                + " RETURNING " + COLUMNS + ", xmax = 0 AS created) "
+                + "SELECT i.ord, " + qualifiedColumns("u") + ", u.created, " + qualifiedColumns("e") + " FROM incoming i "
+                + "LEFT JOIN upserted u ON u.name = i.name AND u.address = i.address AND u.price = i.price "
+                + "LEFT JOIN existing e ON e.name = i.name AND e.address = i.address AND e.price = i.price "
+                + "ORDER BY i.ord";
+    }
+
+    static List<Object> upsertParams(List<RealEstate> realEstates) {
+        List<Object> params = new ArrayList<>(realEstates.size() * 7);
+        for (int i = 0; i < realEstates.size(); i++) {
+            RealEstate realEstate = realEstates.get(i);
+            Collections.addAll(params, i, realEstate.getName(), realEstate.getAddress(), realEstate.getPrice(),
+                    realEstate.getRooms(), realEstate.getBathrooms(), realEstate.getSqMeters());
+        }
+        return params;
+    }
+
+    private Optional<RealEstate> findByKey(RealEstate realEstate) {
+        String sql = "SELECT " + COLUMNS + " FROM real_estate WHERE name = ? AND address = ? AND price = CAST(? AS NUMERIC(10, 2))";
+        return metrics.timeQuery("findByKey", () -> jdbcTemplate.query(sql, realEstateRowMapper,
+                realEstate.getName(), realEstate.getAddress(), realEstate.getPrice())).stream().findFirst();
+    }
+
+    // Creare più RealEstate con un unico batch JDBC. I duplicati sul vincolo unique_real_estate
+    // vengono saltati senza interrompere il batch: per ogni elemento si restituisce l'ID generato, o null se già presente
+    public List<Long> saveAll(List<RealEstate> realEstates) {
+        String sql = "INSERT INTO real_estate (name, address, price, rooms, bathrooms, sq_meters) VALUES (?, ?, ?, ?, ?, ?) "
+                + "ON CONFLICT ON CONSTRAINT unique_real_estate DO NOTHING";
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        int[] updateCounts = metrics.time("saveAll", () -> jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(sql, new String[]{"id"}),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        RealEstate realEstate = realEstates.get(i);
+                        ps.setString(1, realEstate.getName());
+                        ps.setString(2, realEstate.getAddress());
+                        ps.setDouble(3, realEstate.getPrice());
+                        ps.setInt(4, realEstate.getRooms());
+                        ps.setInt(5, realEstate.getBathrooms());
+                        ps.setDouble(6, realEstate.getSqMeters());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return realEstates.size();
+                    }
+                }, keyHolder));
+
+        // Le chiavi generate arrivano nell'ordine del batch, solo per le righe effettivamente inserite
+        Iterator<Map<String, Object>> keys = keyHolder.getKeyList().iterator();
+        List<Long> ids = new ArrayList<>(updateCounts.length);
+        for (int updateCount : updateCounts) {
+            ids.add(updateCount > 0 ? ((Number) keys.next().get("id")).longValue() : null);
+        }
+        return ids;
     }
 
     // Ottenere una lista di tutti i RealEstate
     public List<RealEstate> findAll() {
-        String sql = "SELECT * FROM real_estate";
-        return jdbcTemplate.query(sql, realEstateRowMapper);
+        String sql = "SELECT " + COLUMNS + " FROM real_estate";
+        return readQuery("findAll", () -> jdbcTemplate.query(sql, realEstateRowMapper));
+    }
+
+    // Ottenere una pagina di RealEstate con ID successivo a quello indicato (keyset pagination)
+    public List<RealEstate> findPage(long afterId, int limit) {
+        String sql = "SELECT " + COLUMNS + " FROM real_estate WHERE id > ? ORDER BY id LIMIT ?";
+        return readQuery("findPage", () -> jdbcTemplate.query(sql, realEstateRowMapper, afterId, limit));
+    }
+
+    // Come findPage, ma legge solo le colonne necessarie alle viste elenco (niente indirizzo)
+    public List<RealEstateSummary> findSummaryPage(long afterId, int limit) {
+        String sql = "SELECT " + SUMMARY_COLUMNS + " FROM real_estate WHERE id > ? ORDER BY id LIMIT ?";
+        return readQuery("findSummaryPage", () -> jdbcTemplate.query(sql, realEstateSummaryRowMapper, afterId, limit));
+    }
+
+    // Ottenere solo ID e versione della stessa pagina restituita da findPage, per calcolare l'ETag
+    public List<RealEstate> findPageVersions(long afterId, int limit) {
+        String sql = "SELECT id, version FROM real_estate WHERE id > ? ORDER BY id LIMIT ?";
+        return this.<RealEstate>readQuery("findPageVersions", () -> jdbcTemplate.query(sql, (rs, rowNum) -> {
+            RealEstate realEstate = new RealEstate();
+            realEstate.setId(rs.getLong(1));
+            realEstate.setVersion(rs.getLong(2));
+            return realEstate;
+        }, afterId, limit));
+    }
+
+    // Scorrere tutti i RealEstate tramite un cursore lato server, senza caricarli in memoria.
+    // Il cursore di PostgreSQL richiede una transazione attiva, altrimenti il driver legge tutto il risultato.
+    public void streamAll(int fetchSize, Consumer<RealEstate> consumer) {
+        String sql = "SELECT " + COLUMNS + " FROM real_estate ORDER BY id";
+        RowCountCallbackHandler rowCounter = new RowCountCallbackHandler() {
+            @Override
+            protected void processRow(ResultSet rs, int rowNum) throws SQLException {
+                consumer.accept(realEstateRowMapper.mapRow(rs, rowNum));
+            }
+        };
+        metrics.time("streamAll", () -> jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            return statement;
+        }, rowCounter));
+        metrics.recordRows("streamAll", rowCounter.getRowCount());
+    }
+
+    // Cercare i RealEstate per intervalli di prezzo, locali, bagni e metri quadri.
+    // Il prezzo è NUMERIC: il parametro va convertito esplicitamente, altrimenti PostgreSQL non usa l'indice
+    public List<RealEstate> search(RealEstateSearchCriteria criteria, int offset, int limit) {
+        List<Object> params = new ArrayList<>();
+        String sql = searchSql(criteria, offset, limit, params);
+        return readQuery("search", () -> jdbcTemplate.query(sql, realEstateRowMapper, params.toArray()));
+    }
+
+    // Costruisce la query di search aggiungendo a params i valori dei segnaposto, nell'ordine
+    static String searchSql(RealEstateSearchCriteria criteria, int offset, int limit, List<Object> params) {
+        StringBuilder sql = new StringBuilder("SELECT " + COLUMNS + " FROM real_estate WHERE TRUE");
+        appendRange(sql, params, "price", "?::numeric", criteria.getMinPrice(), criteria.getMaxPrice());
+        appendRange(sql, params, "rooms", "?", criteria.getMinRooms(), criteria.getMaxRooms());
+        appendRange(sql, params, "bathrooms", "?", criteria.getMinBathrooms(), criteria.getMaxBathrooms());
+        appendRange(sql, params, "sq_meters", "?", criteria.getMinSqMeters(), criteria.getMaxSqMeters());
+
+        String direction = "desc".equalsIgnoreCase(criteria.getDirection()) ? " DESC" : " ASC";
+        sql.append(" ORDER BY ").append(SORTABLE_COLUMNS.get(criteria.getSort())).append(direction)
+                .append(", id").append(direction)
+                .append(" LIMIT ? OFFSET ?");
+        params.add(limit);
+        params.add(offset);
+        return sql.toString();
+    }
+
+    // Le letture passano da ReadRouting: con il routing attivo possono essere servite da una replica
+    private <T> List<T> readQuery(String operation, Supplier<List<T>> query) {
+        return metrics.timeQuery(operation, () -> ReadRouting.readOnly(query));
+    }
+
+    private static void appendRange(StringBuilder sql, List<Object> params, String column, String placeholder, Object min, Object max) {
+        if (min != null) {
+            sql.append(" AND ").append(column).append(" >= ").append(placeholder);
+            params.add(min);
+        }
+        if (max != null) {
+            sql.append(" AND ").append(column).append(" <= ").append(placeholder);
+            params.add(max);
+        }
+    }
+
+    // Suggerire i RealEstate il cui nome o indirizzo inizia con il testo cercato o gli somiglia.
+    // Sia <% (word_similarity) sia ILIKE sul prefisso usano gli indici GIN di pg_trgm; i prefissi vengono prima
+    static final String AUTOCOMPLETE_SQL = "SELECT id, name, address, "
+            + "GREATEST(word_similarity(?, name), word_similarity(?, address)) "
+            + "+ CASE WHEN name ILIKE ? OR address ILIKE ? THEN 1 ELSE 0 END AS score "
+            + "FROM real_estate "
+            + "WHERE ? <% name OR ? <% address OR name ILIKE ? OR address ILIKE ? "
+            + "ORDER BY score DESC, id LIMIT ?";
+
+    public List<AutocompleteSuggestion> autocomplete(String query, int limit) {
+        return readQuery("autocomplete", () -> jdbcTemplate.query(AUTOCOMPLETE_SQL, (rs, rowNum) -> new AutocompleteSuggestion(
+                rs.getLong(1),
+                rs.getString(2),
+                rs.getString(3),
+                rs.getDouble(4)
+        ), autocompleteParams(query, limit).toArray()));
+    }
+
+    static List<Object> autocompleteParams(String query, int limit) {
+        String prefix = escapeLike(query) + "%";
+        return List.of(query, query, prefix, prefix, query, query, prefix, prefix, limit);
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
     }
 
     // Ottenere un RealEstate per ID
     public Optional<RealEstate> findById(Long id) {
-        String sql = "SELECT * FROM real_estate WHERE id = ?";
-        return jdbcTemplate.query(sql, realEstateRowMapper, id).stream().findFirst();
+        String sql = "SELECT " + COLUMNS + " FROM real_estate WHERE id = ?";
+        return readQuery("findById", () -> jdbcTemplate.query(sql, realEstateRowMapper, id)).stream().findFirst();
+    }
+
+    // Ottenere più RealEstate per ID con un'unica query, nell'ordine degli ID indicati; quelli inesistenti vengono saltati
+    public List<RealEstate> findAllById(Collection<Long> ids) {
+        String sql = "SELECT " + COLUMNS + " FROM real_estate "
+                + "JOIN unnest(?::BIGINT[]) WITH ORDINALITY AS n(id, ord) USING (id) ORDER BY n.ord";
+        return readQuery("findAllById", () -> jdbcTemplate.query(sql, realEstateRowMapper, (Object) ids.toArray(Long[]::new)));
+    }
+
+    // Ottenere solo la versione di un RealEstate, senza leggere l'intera riga
+    public Optional<Long> findVersion(Long id) {
+        String sql = "SELECT version FROM real_estate WHERE id = ?";
+        return this.<Long>readQuery("findVersion", () -> jdbcTemplate.query(sql, (rs, rowNum) -> rs.getLong(1), id)).stream().findFirst();
     }
 
-    // Aggiornare un RealEstate esistente
-    public RealEstate update(RealEstate realEstate) {
-        String sql = "UPDATE real_estate SET name = ?, address = ?, price = ?, rooms = ?, bathrooms = ?, sq_meters = ? WHERE id = ?";
-        jdbcTemplate.update(sql, realEstate.getName(), realEstate.getAddress(), realEstate.getPrice(),
-                realEstate.getRooms(), realEstate.getBathrooms(), realEstate.getSqMeters(), realEstate.getId());
-        return realEstate;
+    // Aggiornare solo le proprietà indicate con un'unica istruzione, incrementando la versione.
+    // Se expectedVersion è valorizzato l'aggiornamento avviene solo se la versione corrisponde;
+    // un risultato vuoto indica quindi un RealEstate inesistente oppure una versione non più attuale.
+    // La sottoquery blocca la riga e ne restituisce i valori precedenti insieme a quelli aggiornati
+    public Optional<RealEstateChange> update(Long id, Map<String, Object> changes, Long expectedVersion) {
+        List<Object> params = new ArrayList<>(changes.size() + 2);
+        String sql = updateSql(id, changes, expectedVersion, params);
+        return metrics.<RealEstateChange>timeQuery("update", () -> jdbcTemplate.query(sql,
+                (rs, rowNum) -> new RealEstateChange(mapRealEstate(rs, 8), mapRealEstate(rs, 0)), params.toArray())).stream().findFirst();
     }
 
-    // Cancellare un RealEstate per ID
-    public void deleteById(Long id) {
-        String sql = "DELETE FROM real_estate WHERE id = ?";
-        jdbcTemplate.update(sql, id);
+    // Costruisce l'istruzione di update: le colonne di t (valori aggiornati) precedono quelle di old
+    static String updateSql(Long id, Map<String, Object> changes, Long expectedVersion, List<Object> params) {
+        StringBuilder sql = new StringBuilder("UPDATE real_estate t SET ");
+        changes.forEach((property, value) -> {
+            sql.append(UPDATABLE_COLUMNS.get(property)).append(" = ?, ");
+            params.add(value);
+        });
+        sql.append("version = t.version + 1 FROM (SELECT ").append(COLUMNS).append(" FROM real_estate WHERE id = ? FOR UPDATE) old")
+                .append(" WHERE t.id = old.id");
+        params.add(id);
+        if (expectedVersion != null) {
+            sql.append(" AND t.version = ?");
+            params.add(expectedVersion);
+        }
+        sql.append(" RETURNING ").append(qualifiedColumns("t")).append(", ").append(qualifiedColumns("old"));
+        return sql.toString();
+    }
+
+    // Cancellare un RealEstate per ID, restituendo la riga cancellata se esisteva
+    public Optional<RealEstate> deleteById(Long id) {
+        String sql = "DELETE FROM real_estate WHERE id = ? RETURNING " + COLUMNS;
+        return metrics.timeQuery("deleteById", () -> jdbcTemplate.query(sql, realEstateRowMapper, id)).stream().findFirst();
+    }
+
+    // Cancellare un RealEstate solo se la versione corrisponde ancora a quella attesa
+    public Optional<RealEstate> deleteById(Long id, long expectedVersion) {
+        String sql = "DELETE FROM real_estate WHERE id = ? AND version = ? RETURNING " + COLUMNS;
+        return metrics.timeQuery("deleteById", () -> jdbcTemplate.query(sql, realEstateRowMapper, id, expectedVersion)).stream().findFirst();
+    }
+
+    // Aggiornare le viste materializzate delle statistiche di mercato senza bloccare le letture
+    public void refreshMarketStats() {
+        metrics.time("refreshMarketStats", () -> {
+            jdbcTemplate.execute("REFRESH MATERIALIZED VIEW CONCURRENTLY real_estate_market_stats");
+            jdbcTemplate.execute("REFRESH MATERIALIZED VIEW CONCURRENTLY real_estate_rooms_histogram");
+        });
+    }
+
+    // Leggere le statistiche di mercato dalle viste materializzate
+    public MarketStatsResponse findMarketStats() {
+        String sql = "SELECT listings, average_price, average_price_per_sq_meter, price_percentiles, price_per_sq_meter_percentiles "
+                + "FROM real_estate_market_stats";
+        String roomsSql = "SELECT rooms, listings FROM real_estate_rooms_histogram ORDER BY rooms";
+        return metrics.time("findMarketStats", () -> {
+            Map<Integer, Long> roomsHistogram = new LinkedHashMap<>();
+            jdbcTemplate.query(roomsSql, (RowCallbackHandler) rs -> roomsHistogram.put(rs.getInt(1), rs.getLong(2)));
+            return jdbcTemplate.queryForObject(sql, (rs, rowNum) -> new MarketStatsResponse(
+                    rs.getLong(1),
+                    rs.getObject(2, Double.class),
+                    rs.getObject(3, Double.class),
+                    percentiles(rs.getArray(4)),
+                    percentiles(rs.getArray(5)),
+                    roomsHistogram
+            ));
+        });
+    }
+
+    private static Map<String, Double> percentiles(Array array) throws SQLException {
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        Object[] values = array != null ? (Object[]) array.getArray() : new Object[MarketStatsResponse.PERCENTILES.length];
+        for (int i = 0; i < MarketStatsResponse.PERCENTILES.length; i++) {
+            percentiles.put(MarketStatsResponse.percentileKey(MarketStatsResponse.PERCENTILES[i]), (Double) values[i]);
+        }
+        return percentiles;
     }
 
 }
@@ -0,0 +1,19 @@
+package my.wikicasa.web.request;
+
+import lombok.Data;
+
+@Data
+public class RealEstateSearchCriteria {
+    private Double minPrice;
+    private Double maxPrice;
+    private Integer minRooms;
+    private Integer maxRooms;
+    private Integer minBathrooms;
+    private Integer maxBathrooms;
+    private Double minSqMeters;
+    private Double maxSqMeters;
+    private String sort = "id";
+    private String direction = "asc";
+    private int page = 0;
+    private Integer size;
+}
@@ -0,0 +1,14 @@
+package my.wikicasa.web.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class AutocompleteResponse {
+    private String backend;
+    private double tookMillis;
+    private List<AutocompleteSuggestion> suggestions;
+}
@@ -0,0 +1,13 @@
+package my.wikicasa.web.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class AutocompleteSuggestion {
+    private long id;
+    private String name;
+    private String address;
+    private double score;
+}
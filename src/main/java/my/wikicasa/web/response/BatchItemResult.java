@@ -0,0 +1,37 @@
+package my.wikicasa.web.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResult {
+    private int index;
+    private BatchItemStatus status;
+    private Long id;
+    private Map<String, String> errors;
+
+    public static BatchItemResult created(int index, Long id) {
+        return new BatchItemResult(index, BatchItemStatus.CREATED, id, null);
+    }
+
+    public static BatchItemResult updated(int index, Long id) {
+        return new BatchItemResult(index, BatchItemStatus.UPDATED, id, null);
+    }
+
+    public static BatchItemResult unchanged(int index, Long id) {
+        return new BatchItemResult(index, BatchItemStatus.UNCHANGED, id, null);
+    }
+
+    public static BatchItemResult conflict(int index) {
+        return new BatchItemResult(index, BatchItemStatus.CONFLICT, null, Map.of("message", "RealEstate already exists"));
+    }
+
+    public static BatchItemResult invalid(int index, Map<String, String> errors) {
+        return new BatchItemResult(index, BatchItemStatus.INVALID, null, errors);
+    }
+}
@@ -0,0 +1,9 @@
+package my.wikicasa.web.response;
+
+public enum BatchItemStatus {
+    CREATED,
+    UPDATED,
+    UNCHANGED,
+    CONFLICT,
+    INVALID
+}
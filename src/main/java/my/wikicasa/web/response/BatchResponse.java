@@ -0,0 +1,23 @@
+package my.wikicasa.web.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+public class BatchResponse {
+    private Map<BatchItemStatus, Integer> counts;
+    private List<BatchItemResult> results;
+
+    public static BatchResponse of(List<BatchItemResult> results) {
+        Map<BatchItemStatus, Integer> counts = new EnumMap<>(BatchItemStatus.class);
+        for (BatchItemResult result : results) {
+            counts.merge(result.getStatus(), 1, Integer::sum);
+        }
+        return new BatchResponse(counts, results);
+    }
+}
@@ -0,0 +1,7 @@
+package my.wikicasa.web.response;
+
+public enum IngestState {
+    PENDING,
+    CREATED,
+    FAILED
+}
@@ -0,0 +1,29 @@
+package my.wikicasa.web.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class IngestStatusResponse {
+    private String token;
+    private IngestState state;
+    private Long id;
+    private Map<String, String> errors;
+
+    public static IngestStatusResponse pending(String token) {
+        return new IngestStatusResponse(token, IngestState.PENDING, null, null);
+    }
+
+    public static IngestStatusResponse created(String token, Long id) {
+        return new IngestStatusResponse(token, IngestState.CREATED, id, null);
+    }
+
+    public static IngestStatusResponse failed(String token, Map<String, String> errors) {
+        return new IngestStatusResponse(token, IngestState.FAILED, null, errors);
+    }
+}
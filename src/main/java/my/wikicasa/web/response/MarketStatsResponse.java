@@ -0,0 +1,25 @@
+package my.wikicasa.web.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+public class MarketStatsResponse {
+
+    // Percentili restituiti per il prezzo e per il prezzo al metro quadro
+    public static final double[] PERCENTILES = {0.25, 0.5, 0.75, 0.9, 0.99};
+
+    private long count;
+    private Double averagePrice;
+    private Double averagePricePerSqMeter;
+    private Map<String, Double> pricePercentiles;
+    private Map<String, Double> pricePerSqMeterPercentiles;
+    private Map<Integer, Long> roomsHistogram;
+
+    public static String percentileKey(double percentile) {
+        return "p" + Math.round(percentile * 100);
+    }
+}
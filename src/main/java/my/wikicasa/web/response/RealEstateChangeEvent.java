@@ -0,0 +1,18 @@
+package my.wikicasa.web.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import my.wikicasa.web.entity.ChangeType;
+import my.wikicasa.web.entity.RealEstate;
+
+import java.time.Instant;
+
+// Una riga di real_estate_change_log; per DELETED realEstate è l'ultimo stato prima della cancellazione
+@Data
+@AllArgsConstructor
+public class RealEstateChangeEvent {
+    private long seq;
+    private ChangeType type;
+    private Instant changedAt;
+    private RealEstate realEstate;
+}
@@ -0,0 +1,16 @@
+package my.wikicasa.web.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class SearchPage<T> {
+    private List<T> content;
+    private int page;
+    private int size;
+    private boolean hasNext;
+    private double tookMillis;
+}
@@ -0,0 +1,12 @@
+package my.wikicasa.web.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import my.wikicasa.web.entity.RealEstate;
+
+@Data
+@AllArgsConstructor
+public class SimilarRealEstate {
+    private RealEstate realEstate;
+    private double distance;
+}
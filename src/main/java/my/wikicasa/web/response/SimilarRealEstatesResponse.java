@@ -0,0 +1,14 @@
+package my.wikicasa.web.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class SimilarRealEstatesResponse {
+    private Long id;
+    private double tookMillis;
+    private List<SimilarRealEstate> content;
+}
@@ -0,0 +1,13 @@
+package my.wikicasa.web.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.entity.UpsertStatus;
+
+@Data
+@AllArgsConstructor
+public class UpsertResponse {
+    private UpsertStatus status;
+    private RealEstate realEstate;
+}
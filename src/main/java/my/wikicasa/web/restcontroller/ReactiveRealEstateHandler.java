@@ -0,0 +1,285 @@
+package my.wikicasa.web.restcontroller;
+
+import my.wikicasa.web.changes.ChangeFeed;
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.entity.UpsertStatus;
+import my.wikicasa.web.exception.RealEstateNotFoundException;
+import my.wikicasa.web.exception.RealEstateVersionConflictException;
+import my.wikicasa.web.ingest.IngestQueue;
+import my.wikicasa.web.protobuf.RealEstateProtobuf;
+import my.wikicasa.web.request.RealEstateSearchCriteria;
+import my.wikicasa.web.response.IngestStatusResponse;
+import my.wikicasa.web.service.ReactiveRealEstateService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static my.wikicasa.web.restcontroller.RealEstateController.eTag;
+import static my.wikicasa.web.restcontroller.RealEstateController.isConditional;
+import static my.wikicasa.web.restcontroller.RealEstateController.parseIfMatch;
+import static my.wikicasa.web.restcontroller.RealEstateController.preconditionFailedIfConditional;
+
+// Handler WebFlux con lo stesso contratto di RealEstateController; le rotte sono in ReactiveWebConfig,
+// che converte anche le eccezioni lanciate qui (pure in modo sincrono) nelle risposte di GlobalExceptionHandler
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveRealEstateHandler {
+
+    private static final ParameterizedTypeReference<List<RealEstate>> REAL_ESTATE_LIST = new ParameterizedTypeReference<>() {
+    };
+    private static final ParameterizedTypeReference<Map<String, Object>> UPDATES = new ParameterizedTypeReference<>() {
+    };
+
+    private final ReactiveRealEstateService realEstateService;
+    private final IngestQueue ingestQueue;
+    private final ChangeFeed changeFeed;
+
+    public ReactiveRealEstateHandler(ReactiveRealEstateService realEstateService, IngestQueue ingestQueue, ChangeFeed changeFeed) {
+        this.realEstateService = realEstateService;
+        this.ingestQueue = ingestQueue;
+        this.changeFeed = changeFeed;
+    }
+
+    public Mono<ServerResponse> createRealEstate(ServerRequest request) {
+        return withValidBody(request, realEstate -> realEstateService.createRealEstate(realEstate)
+                .flatMap(created -> ServerResponse.status(HttpStatus.CREATED).bodyValue(created)));
+    }
+
+    // La coda è in memoria: submit non blocca, al più rifiuta la richiesta se è piena
+    public Mono<ServerResponse> ingestRealEstate(ServerRequest request) {
+        return withValidBody(request, realEstate -> {
+            IngestStatusResponse status = ingestQueue.submit(realEstate);
+            URI location = UriComponentsBuilder.fromUri(request.uri()).replaceQuery(null)
+                    .replacePath("/api/realestate/ingest/{token}").buildAndExpand(status.getToken()).toUri();
+            return ServerResponse.accepted().location(location).bodyValue(status);
+        });
+    }
+
+    public Mono<ServerResponse> ingestRealEstateOnConflict(ServerRequest request) {
+        throw RealEstateController.incompatibleParams("async=true", "onConflict");
+    }
+
+    public Mono<ServerResponse> getIngestStatus(ServerRequest request) {
+        return ServerResponse.ok().bodyValue(ingestQueue.getStatus(request.pathVariable("token")));
+    }
+
+    public Mono<ServerResponse> upsertRealEstate(ServerRequest request) {
+        String onConflict = request.queryParam("onConflict").orElseThrow();
+        return withValidBody(request, realEstate -> realEstateService.upsertRealEstate(realEstate, onConflict)
+                .flatMap(upsert -> ServerResponse.status(upsert.getStatus() == UpsertStatus.CREATED ? HttpStatus.CREATED : HttpStatus.OK)
+                        .bodyValue(upsert)));
+    }
+
+    public Mono<ServerResponse> createRealEstates(ServerRequest request) {
+        String onConflict = request.queryParam("onConflict").orElse(null);
+        return request.bodyToMono(REAL_ESTATE_LIST)
+                .flatMap(realEstates -> realEstateService.createRealEstates(realEstates, onConflict))
+                .flatMap(response -> ServerResponse.ok().bodyValue(response));
+    }
+
+    public Mono<ServerResponse> getRealEstates(ServerRequest request) {
+        String cursor = request.queryParam("cursor").orElse(null);
+        Integer size = intParam(request, "size");
+        return conditional(request, realEstateService.getRealEstatePageTag(cursor, size).map(RealEstateController::eTag),
+                () -> realEstateService.getRealEstatePage(cursor, size)
+                        .flatMap(page -> ServerResponse.ok().eTag(eTag(realEstateService.getPageTag(page))).bodyValue(page)));
+    }
+
+    public Mono<ServerResponse> getRealEstateSummaries(ServerRequest request) {
+        return realEstateService.getRealEstateSummaryPage(request.queryParam("cursor").orElse(null), intParam(request, "size"))
+                .flatMap(page -> ServerResponse.ok().bodyValue(page));
+    }
+
+    public Mono<ServerResponse> getUnpagedRealEstateSummaries(ServerRequest request) {
+        throw RealEstateController.incompatibleParams("view=summary", "unpaged=true");
+    }
+
+    // L'elenco completo non viene mai raccolto in memoria: l'encoder scrive l'array JSON man mano che arrivano
+    // le righe e ne chiede altre solo quando il client ha consumato le precedenti
+    public Mono<ServerResponse> getAllRealEstates(ServerRequest request) {
+        realEstateService.assertUnpagedAllowed();
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON)
+                .body(realEstateService.streamRealEstates(), RealEstate.class);
+    }
+
+    public Mono<ServerResponse> searchRealEstates(ServerRequest request) {
+        return request.bind(RealEstateSearchCriteria.class)
+                .flatMap(realEstateService::searchRealEstates)
+                .flatMap(page -> ServerResponse.ok().bodyValue(page));
+    }
+
+    public Mono<ServerResponse> autocomplete(ServerRequest request) {
+        return realEstateService.autocomplete(request.queryParam("q").orElse(null), intParam(request, "limit"),
+                        request.queryParam("backend").orElse(null))
+                .flatMap(response -> ServerResponse.ok().bodyValue(response));
+    }
+
+    public Mono<ServerResponse> getSimilarRealEstates(ServerRequest request) {
+        Long id = pathId(request);
+        Integer k = intParam(request, "k");
+        return request.bind(RealEstateSearchCriteria.class)
+                .flatMap(criteria -> realEstateService.getSimilarRealEstates(id, k, criteria))
+                .flatMap(response -> ServerResponse.ok().bodyValue(response));
+    }
+
+    // Stessa negoziazione di RealEstateController: NDJSON predefinito, protobuf delimitato solo se richiesto
+    // esplicitamente, 406 come per le produces della @GetMapping quando Accept non ammette nessuno dei due
+    public Mono<ServerResponse> exportRealEstates(ServerRequest request) {
+        List<MediaType> accept = request.headers().accept();
+        if (accept.stream().anyMatch(RealEstateProtobuf.MEDIA_TYPE::equalsTypeAndSubtype)) {
+            return ServerResponse.ok().contentType(RealEstateProtobuf.MEDIA_TYPE)
+                    .body(BodyInserters.fromDataBuffers(delimited(realEstateService.streamRealEstates())));
+        }
+        if (!accept.isEmpty() && accept.stream().noneMatch(MediaType.APPLICATION_NDJSON::isCompatibleWith)) {
+            throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE, "The export is available as "
+                    + MediaType.APPLICATION_NDJSON_VALUE + " or " + RealEstateProtobuf.MEDIA_TYPE_VALUE);
+        }
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_NDJSON)
+                .body(realEstateService.streamRealEstates(), RealEstate.class);
+    }
+
+    // Un buffer per messaggio, codificato con lo stesso DelimitedWriter dell'export servlet
+    private static Flux<DataBuffer> delimited(Flux<RealEstate> realEstates) {
+        return Flux.defer(() -> {
+            ByteArrayOutputStream message = new ByteArrayOutputStream(256);
+            RealEstateProtobuf.DelimitedWriter writer = RealEstateProtobuf.delimited(message);
+            return realEstates.map(realEstate -> {
+                message.reset();
+                writer.accept(realEstate);
+                return DefaultDataBufferFactory.sharedInstance.wrap(message.toByteArray());
+            });
+        });
+    }
+
+    public Mono<ServerResponse> streamChanges(ServerRequest request) {
+        String lastEventId = request.headers().firstHeader("Last-Event-ID");
+        Long resumeAfter;
+        try {
+            resumeAfter = lastEventId == null ? null : Long.valueOf(lastEventId);
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid Last-Event-ID: " + lastEventId);
+        }
+        return ServerResponse.ok().contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(BodyInserters.fromServerSentEvents(changeFeed.events(resumeAfter)));
+    }
+
+    public Mono<ServerResponse> getMarketStats(ServerRequest request) {
+        return realEstateService.getMarketStats().flatMap(stats -> ServerResponse.ok().bodyValue(stats));
+    }
+
+    public Mono<ServerResponse> getCacheStats(ServerRequest request) {
+        return ServerResponse.ok().bodyValue(realEstateService.getCacheStats());
+    }
+
+    public Mono<ServerResponse> getRealEstateById(ServerRequest request) {
+        Long id = pathId(request);
+        return conditional(request, realEstateService.getRealEstateVersion(id).map(RealEstateController::eTag),
+                () -> realEstateService.getRealEstateById(id)
+                        .flatMap(realEstate -> ServerResponse.ok().eTag(eTag(realEstate.getVersion())).bodyValue(realEstate)));
+    }
+
+    public Mono<ServerResponse> updateRealEstate(ServerRequest request) {
+        Long id = pathId(request);
+        String ifMatch = ifMatch(request);
+        Long ifMatchVersion = parseIfMatch(ifMatch);
+        return request.bodyToMono(UPDATES)
+                .flatMap(updates -> realEstateService.updateRealEstate(id, updates, ifMatchVersion))
+                .onErrorMap(RealEstateVersionConflictException.class, e -> preconditionFailedIfConditional(ifMatch, e))
+                .onErrorMap(RealEstateNotFoundException.class, e -> preconditionFailedIfConditional(ifMatch, e))
+                .flatMap(realEstate -> ServerResponse.ok().eTag(eTag(realEstate.getVersion())).bodyValue(realEstate));
+    }
+
+    public Mono<ServerResponse> deleteRealEstate(ServerRequest request) {
+        Long id = pathId(request);
+        String ifMatch = ifMatch(request);
+        Long expectedVersion = parseIfMatch(ifMatch);
+        Mono<Void> delete;
+        if (expectedVersion != null) {
+            delete = realEstateService.deleteRealEstate(id, expectedVersion);
+        } else if (isConditional(ifMatch)) {
+            delete = realEstateService.deleteExistingRealEstate(id);
+        } else {
+            delete = realEstateService.deleteRealEstate(id);
+        }
+        return delete
+                .onErrorMap(RealEstateVersionConflictException.class, e -> preconditionFailedIfConditional(ifMatch, e))
+                .onErrorMap(RealEstateNotFoundException.class, e -> preconditionFailedIfConditional(ifMatch, e))
+                .then(ServerResponse.noContent().build());
+    }
+
+    // Come @RequestHeader in RealEstateController: più righe If-Match valgono come un'unica lista
+    private static String ifMatch(ServerRequest request) {
+        List<String> values = request.headers().header(HttpHeaders.IF_MATCH);
+        return values.isEmpty() ? null : String.join(",", values);
+    }
+
+    // Stessa risposta di @Valid in RealEstateController: 400 con un messaggio per ogni proprietà non valida
+    private Mono<ServerResponse> withValidBody(ServerRequest request, Function<RealEstate, Mono<ServerResponse>> handler) {
+        return request.bodyToMono(RealEstate.class).flatMap(realEstate -> {
+            Map<String, String> errors = realEstateService.validate(realEstate);
+            return errors.isEmpty() ? handler.apply(realEstate) : ServerResponse.badRequest().bodyValue(errors);
+        });
+    }
+
+    // Come WebRequest.checkNotModified: il tag corrente si calcola solo se la richiesta è condizionale
+    private static Mono<ServerResponse> conditional(ServerRequest request, Mono<String> currentTag, Supplier<Mono<ServerResponse>> response) {
+        if (request.headers().firstHeader(HttpHeaders.IF_NONE_MATCH) == null) {
+            return response.get();
+        }
+        return currentTag.flatMap(tag -> matchesIfNoneMatch(request, tag)
+                ? ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(tag).build()
+                : response.get());
+    }
+
+    // If-None-Match usa il confronto debole e può contenere più tag separati da virgole
+    private static boolean matchesIfNoneMatch(ServerRequest request, String tag) {
+        for (String header : request.headers().header(HttpHeaders.IF_NONE_MATCH)) {
+            for (String candidate : header.split(",")) {
+                String trimmed = candidate.trim();
+                if (trimmed.equals("*") || (trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed).equals(tag)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Long pathId(ServerRequest request) {
+        String id = request.pathVariable("id");
+        try {
+            return Long.valueOf(id);
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid ID: " + id);
+        }
+    }
+
+    private static Integer intParam(ServerRequest request, String name) {
+        return request.queryParam(name).map(value -> {
+            try {
+                return Integer.valueOf(value);
+            } catch (NumberFormatException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid value for " + name + ": " + value);
+            }
+        }).orElse(null);
+    }
+
+}
@@ -1,23 +1,60 @@
 package my.wikicasa.web.restcontroller;
 
 import jakarta.validation.Valid;
+import my.wikicasa.web.changes.ChangeFeed;
 import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.entity.RealEstateSummary;
+import my.wikicasa.web.entity.UpsertStatus;
+import my.wikicasa.web.exception.RealEstateNotFoundException;
+import my.wikicasa.web.exception.RealEstateVersionConflictException;
+import my.wikicasa.web.ingest.IngestQueue;
+import my.wikicasa.web.json.RealEstateJson;
+import my.wikicasa.web.protobuf.RealEstateProtobuf;
+import my.wikicasa.web.request.RealEstateSearchCriteria;
+import my.wikicasa.web.response.AutocompleteResponse;
+import my.wikicasa.web.response.BatchResponse;
+import my.wikicasa.web.response.CacheStatsResponse;
+import my.wikicasa.web.response.CursorPage;
+import my.wikicasa.web.response.IngestStatusResponse;
+import my.wikicasa.web.response.MarketStatsResponse;
+import my.wikicasa.web.response.SearchPage;
+import my.wikicasa.web.response.SimilarRealEstatesResponse;
+import my.wikicasa.web.response.UpsertResponse;
 import my.wikicasa.web.service.RealEstateService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.net.URI;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
+// Con il profilo reactive lo stesso contratto è servito da ReactiveRealEstateHandler
 @RestController
 @RequestMapping("/api/realestate")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class RealEstateController {
 
     private final RealEstateService realEstateService;
+    private final IngestQueue ingestQueue;
+    private final ChangeFeed changeFeed;
+    private final RealEstateJson realEstateJson;
 
-    public RealEstateController(RealEstateService realEstateService) {
+    public RealEstateController(RealEstateService realEstateService, IngestQueue ingestQueue, ChangeFeed changeFeed,
+                                RealEstateJson realEstateJson) {
         this.realEstateService = realEstateService;
+        this.ingestQueue = ingestQueue;
+        this.changeFeed = changeFeed;
+        this.realEstateJson = realEstateJson;
     }
 
     @PostMapping
@@ -26,27 +63,215 @@ public class RealEstateController {
         return new ResponseEntity<>(createdRealEstate, HttpStatus.CREATED);
     }
 
+    // Il RealEstate validato viene accodato e scritto in batch: il token permette di seguirne l'esito
+    @PostMapping(params = "async=true")
+    public ResponseEntity<IngestStatusResponse> ingestRealEstate(@Valid @RequestBody RealEstate realEstate) {
+        IngestStatusResponse status = ingestQueue.submit(realEstate);
+        URI location = ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/api/realestate/ingest/{token}").buildAndExpand(status.getToken()).toUri();
+        return ResponseEntity.accepted().location(location).body(status);
+    }
+
+    // L'ingestione asincrona scarta sempre i duplicati: onConflict non si applica, e i due mapping sarebbero ambigui
+    @PostMapping(params = {"async=true", "onConflict"})
+    public void ingestRealEstateOnConflict() {
+        throw incompatibleParams("async=true", "onConflict");
+    }
+
+    @GetMapping("/ingest/{token}")
+    public IngestStatusResponse getIngestStatus(@PathVariable String token) {
+        return ingestQueue.getStatus(token);
+    }
+
+    @PostMapping(params = "onConflict")
+    public ResponseEntity<UpsertResponse> upsertRealEstate(@Valid @RequestBody RealEstate realEstate, @RequestParam String onConflict) {
+        UpsertResponse upsert = realEstateService.upsertRealEstate(realEstate, onConflict);
+        return new ResponseEntity<>(upsert, upsert.getStatus() == UpsertStatus.CREATED ? HttpStatus.CREATED : HttpStatus.OK);
+    }
+
+    @PostMapping("/batch")
+    public BatchResponse createRealEstates(@RequestBody List<RealEstate> realEstates,
+                                           @RequestParam(required = false) String onConflict) {
+        return realEstateService.createRealEstates(realEstates, onConflict);
+    }
+
     @GetMapping
-    public List<RealEstate> getAllRealEstates() {
-        return realEstateService.getAllRealEstates();
+    public ResponseEntity<CursorPage<RealEstate>> getRealEstates(@RequestParam(required = false) String cursor,
+                                                                 @RequestParam(required = false) Integer size,
+                                                                 WebRequest request) {
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null
+                && request.checkNotModified(eTag(realEstateService.getRealEstatePageTag(cursor, size)))) {
+            return null;
+        }
+        CursorPage<RealEstate> page = realEstateService.getRealEstatePage(cursor, size);
+        return ResponseEntity.ok().eTag(eTag(realEstateService.getPageTag(page))).body(page);
+    }
+
+    @GetMapping(params = "view=summary")
+    public CursorPage<RealEstateSummary> getRealEstateSummaries(@RequestParam(required = false) String cursor,
+                                                                @RequestParam(required = false) Integer size) {
+        return realEstateService.getRealEstateSummaryPage(cursor, size);
+    }
+
+    // Più specifico dei due mapping precedenti, che altrimenti corrisponderebbero entrambi (500 per ambiguità)
+    @GetMapping(params = {"view=summary", "unpaged=true"})
+    public void getUnpagedRealEstateSummaries() {
+        throw incompatibleParams("view=summary", "unpaged=true");
+    }
+
+    // L'elenco completo viene letto con un cursore e scritto sullo stream un elemento alla volta
+    @GetMapping(params = "unpaged=true")
+    public ResponseEntity<StreamingResponseBody> getAllRealEstates() {
+        realEstateService.assertUnpagedAllowed();
+        StreamingResponseBody body = outputStream -> {
+            try (RealEstateJson.StreamWriter writer = realEstateJson.array(outputStream)) {
+                realEstateService.exportRealEstates(writer);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    @GetMapping("/search")
+    public SearchPage<RealEstate> searchRealEstates(RealEstateSearchCriteria criteria) {
+        return realEstateService.searchRealEstates(criteria);
+    }
+
+    @GetMapping("/autocomplete")
+    public AutocompleteResponse autocomplete(@RequestParam(required = false) String q,
+                                             @RequestParam(required = false) Integer limit,
+                                             @RequestParam(required = false) String backend) {
+        return realEstateService.autocomplete(q, limit, backend);
+    }
+
+    @GetMapping("/{id}/similar")
+    public SimilarRealEstatesResponse getSimilarRealEstates(@PathVariable Long id,
+                                                            @RequestParam(required = false) Integer k,
+                                                            RealEstateSearchCriteria criteria) {
+        return realEstateService.getSimilarRealEstates(id, k, criteria);
+    }
+
+    // NDJSON resta il formato predefinito: con due mapping distinti un Accept generico sarebbe ambiguo,
+    // quindi i messaggi protobuf delimitati vengono scelti qui solo se richiesti esplicitamente
+    @GetMapping(value = "/export", produces = {MediaType.APPLICATION_NDJSON_VALUE, RealEstateProtobuf.MEDIA_TYPE_VALUE})
+    public ResponseEntity<StreamingResponseBody> exportRealEstates(@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        if (accept != null && MediaType.parseMediaTypes(accept).stream().anyMatch(RealEstateProtobuf.MEDIA_TYPE::equalsTypeAndSubtype)) {
+            StreamingResponseBody body = outputStream -> {
+                try (RealEstateProtobuf.DelimitedWriter writer = RealEstateProtobuf.delimited(outputStream)) {
+                    realEstateService.exportRealEstates(writer);
+                }
+            };
+            return ResponseEntity.ok().contentType(RealEstateProtobuf.MEDIA_TYPE).body(body);
+        }
+        StreamingResponseBody body = outputStream -> {
+            try (RealEstateJson.StreamWriter writer = realEstateJson.ndjson(outputStream)) {
+                realEstateService.exportRealEstates(writer);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    // Eventi created/updated/deleted con id pari al numero di sequenza del registro, da ripassare in Last-Event-ID
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return changeFeed.stream(lastEventId);
+    }
+
+    @GetMapping("/stats")
+    public MarketStatsResponse getMarketStats() {
+        return realEstateService.getMarketStats();
+    }
+
+    @GetMapping("/cache/stats")
+    public CacheStatsResponse getCacheStats() {
+        return realEstateService.getCacheStats();
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<RealEstate> getRealEstateById(@PathVariable Long id) {
+    public ResponseEntity<RealEstate> getRealEstateById(@PathVariable Long id, WebRequest request) {
+        // Per validare un 304 basta la versione: il RealEstate non viene né caricato né serializzato
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null
+                && request.checkNotModified(eTag(realEstateService.getRealEstateVersion(id)))) {
+            return null;
+        }
         RealEstate realEstate = realEstateService.getRealEstateById(id);
-        return ResponseEntity.ok(realEstate);
+        return ResponseEntity.ok().eTag(eTag(realEstate.getVersion())).body(realEstate);
     }
 
     @PutMapping("/{id}")
-    public ResponseEntity<RealEstate> updateRealEstate(@PathVariable Long id, @RequestBody Map<String, Object> updates) {
-        RealEstate realEstate = realEstateService.updateRealEstate(id, updates);
-        return ResponseEntity.ok(realEstate);
+    public ResponseEntity<RealEstate> updateRealEstate(@PathVariable Long id, @RequestBody Map<String, Object> updates,
+                                                       @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        try {
+            RealEstate realEstate = realEstateService.updateRealEstate(id, updates, parseIfMatch(ifMatch));
+            return ResponseEntity.ok().eTag(eTag(realEstate.getVersion())).body(realEstate);
+        } catch (RealEstateVersionConflictException | RealEstateNotFoundException e) {
+            throw preconditionFailedIfConditional(ifMatch, e);
+        }
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteRealEstate(@PathVariable Long id) {
-        realEstateService.deleteRealEstate(id);
+    public ResponseEntity<Void> deleteRealEstate(@PathVariable Long id,
+                                                 @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Long expectedVersion = parseIfMatch(ifMatch);
+        try {
+            if (expectedVersion != null) {
+                realEstateService.deleteRealEstate(id, expectedVersion);
+            } else if (isConditional(ifMatch)) {
+                realEstateService.deleteExistingRealEstate(id);
+            } else {
+                realEstateService.deleteRealEstate(id);
+            }
+        } catch (RealEstateVersionConflictException | RealEstateNotFoundException e) {
+            throw preconditionFailedIfConditional(ifMatch, e);
+        }
         return ResponseEntity.noContent().build();
     }
 
+    static ResponseStatusException incompatibleParams(String first, String second) {
+        return new ResponseStatusException(HttpStatus.BAD_REQUEST, first + " cannot be combined with " + second);
+    }
+
+    static String eTag(Object version) {
+        return "\"" + version + "\"";
+    }
+
+    static boolean isConditional(String ifMatch) {
+        return ifMatch != null && !ifMatch.isBlank();
+    }
+
+    // Converte l'header If-Match (RFC 9110, 13.1.1) nella versione attesa. Senza header o con "*" non c'è una versione:
+    // "*" chiede solo che il RealEstate esista. Una lista di più entity tag non si riduce a un'unica versione attesa
+    static Long parseIfMatch(String ifMatch) {
+        if (!isConditional(ifMatch)) {
+            return null;
+        }
+        List<String> tags = Arrays.stream(ifMatch.split(",")).map(String::trim).filter(tag -> !tag.isEmpty()).toList();
+        if (tags.size() != 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "If-Match must contain a single entity tag or *");
+        }
+        String tag = tags.get(0);
+        if (tag.equals("*")) {
+            return null;
+        }
+        // Il confronto è forte: un entity tag debole non corrisponde mai
+        if (tag.startsWith("W/")) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "Weak entity tags cannot be used with If-Match");
+        }
+        if (tag.length() < 2 || !tag.startsWith("\"") || !tag.endsWith("\"")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed entity tag: " + tag);
+        }
+        try {
+            return Long.valueOf(tag.substring(1, tag.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "Unknown entity tag: " + tag);
+        }
+    }
+
+    // Con If-Match anche il RealEstate mancante è una precondizione fallita, non un 404
+    static RuntimeException preconditionFailedIfConditional(String ifMatch, RuntimeException e) {
+        if (!isConditional(ifMatch)) {
+            return e;
+        }
+        return new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, e.getMessage());
+    }
+
 }
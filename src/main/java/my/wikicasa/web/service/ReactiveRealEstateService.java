@@ -0,0 +1,236 @@
+package my.wikicasa.web.service;
+
+import my.wikicasa.web.autocomplete.AutocompleteIndex;
+import my.wikicasa.web.cache.RealEstateCache;
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.entity.RealEstateSummary;
+import my.wikicasa.web.exception.RealEstateNotFoundException;
+import my.wikicasa.web.exception.RealEstateVersionConflictException;
+import my.wikicasa.web.repository.ReactiveRealEstateRepository;
+import my.wikicasa.web.request.RealEstateSearchCriteria;
+import my.wikicasa.web.response.AutocompleteResponse;
+import my.wikicasa.web.response.AutocompleteSuggestion;
+import my.wikicasa.web.response.BatchItemResult;
+import my.wikicasa.web.response.BatchResponse;
+import my.wikicasa.web.response.CacheStatsResponse;
+import my.wikicasa.web.response.CursorPage;
+import my.wikicasa.web.response.MarketStatsResponse;
+import my.wikicasa.web.response.SearchPage;
+import my.wikicasa.web.response.SimilarRealEstatesResponse;
+import my.wikicasa.web.response.UpsertResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Controparte non bloccante di RealEstateService per il profilo reactive: accede al database tramite
+// ReactiveRealEstateRepository e riusa da RealEstateService validazioni, paginazione, cache e notifiche ai listener,
+// così le due implementazioni restano allineate sul contratto dell'API
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveRealEstateService {
+
+    private final ReactiveRealEstateRepository realEstateRepository;
+    private final RealEstateService realEstateService;
+    private final RealEstateCache realEstateCache;
+    private final AutocompleteIndex autocompleteIndex;
+    private final int exportFetchSize;
+
+    public ReactiveRealEstateService(ReactiveRealEstateRepository realEstateRepository,
+                                     RealEstateService realEstateService,
+                                     RealEstateCache realEstateCache,
+                                     AutocompleteIndex autocompleteIndex,
+                                     @Value("${realestate.export.fetch-size}") int exportFetchSize) {
+        this.realEstateRepository = realEstateRepository;
+        this.realEstateService = realEstateService;
+        this.realEstateCache = realEstateCache;
+        this.autocompleteIndex = autocompleteIndex;
+        this.exportFetchSize = exportFetchSize;
+    }
+
+    public Map<String, String> validate(RealEstate realEstate) {
+        return realEstateService.validate(realEstate);
+    }
+
+    public Mono<RealEstate> createRealEstate(RealEstate realEstate) {
+        return realEstateRepository.save(realEstate).doOnNext(realEstateService::notifyCreated);
+    }
+
+    public Mono<BatchResponse> createRealEstates(List<RealEstate> realEstates, String onConflict) {
+        return Mono.defer(() -> {
+            realEstateService.assertBatchSize(realEstates);
+            Boolean updateOnConflict = onConflict == null ? null : RealEstateService.updateOnConflict(onConflict);
+            BatchItemResult[] results = new BatchItemResult[realEstates.size()];
+            // I blocchi vengono scritti uno dopo l'altro, come nella versione bloccante
+            return Flux.fromIterable(realEstateService.prepareBatch(realEstates, updateOnConflict, results))
+                    .concatMap(chunkIndexes -> {
+                        List<RealEstate> chunk = chunkIndexes.stream().map(realEstates::get).toList();
+                        if (updateOnConflict == null) {
+                            return realEstateRepository.saveAll(chunk)
+                                    .doOnNext(ids -> realEstateService.applyInserted(chunk, chunkIndexes, ids, results));
+                        }
+                        return realEstateRepository.upsertAll(chunk, updateOnConflict)
+                                .doOnNext(upserts -> realEstateService.applyUpserted(chunkIndexes, upserts, results));
+                    })
+                    .then(Mono.fromSupplier(() -> BatchResponse.of(Arrays.asList(results))));
+        });
+    }
+
+    public Mono<UpsertResponse> upsertRealEstate(RealEstate realEstate, String onConflict) {
+        return Mono.defer(() -> realEstateRepository.upsertAll(List.of(realEstate), RealEstateService.updateOnConflict(onConflict)))
+                .map(upserts -> realEstateService.toUpsertResponse(upserts.get(0)));
+    }
+
+    public Mono<CursorPage<RealEstate>> getRealEstatePage(String cursor, Integer size) {
+        return Mono.defer(() -> {
+            int pageSize = realEstateService.resolvePageSize(size);
+            return realEstateRepository.findPage(RealEstateService.afterId(cursor), pageSize + 1).collectList()
+                    .map(rows -> RealEstateService.toPage(rows, pageSize, RealEstate::getId));
+        });
+    }
+
+    public Mono<CursorPage<RealEstateSummary>> getRealEstateSummaryPage(String cursor, Integer size) {
+        return Mono.defer(() -> {
+            int pageSize = realEstateService.resolvePageSize(size);
+            return realEstateRepository.findSummaryPage(RealEstateService.afterId(cursor), pageSize + 1).collectList()
+                    .map(rows -> RealEstateService.toPage(rows, pageSize, RealEstateSummary::getId));
+        });
+    }
+
+    public Mono<String> getRealEstatePageTag(String cursor, Integer size) {
+        return Mono.defer(() -> {
+            int pageSize = realEstateService.resolvePageSize(size);
+            return realEstateRepository.findPageVersions(RealEstateService.afterId(cursor), pageSize + 1).collectList()
+                    .map(rows -> realEstateService.getPageTag(RealEstateService.toPage(rows, pageSize, RealEstate::getId)));
+        });
+    }
+
+    public String getPageTag(CursorPage<RealEstate> page) {
+        return realEstateService.getPageTag(page);
+    }
+
+    public void assertUnpagedAllowed() {
+        realEstateService.assertUnpagedAllowed();
+    }
+
+    // Elenco completo in streaming: la domanda del client risale fino al cursore sul database
+    public Flux<RealEstate> streamRealEstates() {
+        return realEstateRepository.streamAll(exportFetchSize);
+    }
+
+    public Mono<SearchPage<RealEstate>> searchRealEstates(RealEstateSearchCriteria criteria) {
+        return Mono.defer(() -> {
+            int pageSize = realEstateService.resolveSearchPageSize(criteria);
+            long start = System.nanoTime();
+            return realEstateRepository.search(criteria, criteria.getPage() * pageSize, pageSize + 1).collectList()
+                    .map(rows -> RealEstateService.toSearchPage(rows, criteria, pageSize, (System.nanoTime() - start) / 1_000_000.0));
+        });
+    }
+
+    public Mono<AutocompleteResponse> autocomplete(String query, Integer limit, String backend) {
+        return Mono.defer(() -> {
+            String normalizedQuery = realEstateService.normalizeAutocompleteQuery(query);
+            int resolvedLimit = realEstateService.resolveAutocompleteLimit(limit);
+            String resolvedBackend = realEstateService.resolveAutocompleteBackend(backend);
+
+            long start = System.nanoTime();
+            Mono<List<AutocompleteSuggestion>> suggestions = resolvedBackend.equals("trigram")
+                    ? realEstateRepository.autocomplete(normalizedQuery, resolvedLimit).collectList()
+                    : Mono.fromSupplier(() -> autocompleteIndex.search(normalizedQuery, resolvedLimit));
+            return suggestions.map(list -> new AutocompleteResponse(resolvedBackend, (System.nanoTime() - start) / 1_000_000.0, list));
+        });
+    }
+
+    // Come RealEstateService.getRealEstateById, ma il caricamento non blocca: il valore letto entra in cache
+    // solo se nel frattempo nessuna scrittura lo ha invalidato
+    public Mono<RealEstate> getRealEstateById(Long id) {
+        return Mono.defer(() -> {
+            Optional<RealEstate> cached = realEstateCache.getIfPresent(id);
+            if (cached != null) {
+                return Mono.justOrEmpty(cached);
+            }
+            long stamp = realEstateCache.invalidationStamp();
+            return realEstateRepository.findById(id)
+                    .map(Optional::of)
+                    .defaultIfEmpty(Optional.empty())
+                    .doOnNext(loaded -> realEstateCache.put(id, loaded, stamp))
+                    .flatMap(Mono::justOrEmpty);
+        }).switchIfEmpty(Mono.error(() -> new RealEstateNotFoundException(id)));
+    }
+
+    public Mono<Long> getRealEstateVersion(Long id) {
+        return Mono.defer(() -> Mono.justOrEmpty(realEstateCache.peek(id).map(RealEstate::getVersion)))
+                .switchIfEmpty(realEstateRepository.findVersion(id))
+                .switchIfEmpty(Mono.error(() -> new RealEstateNotFoundException(id)));
+    }
+
+    public Mono<RealEstate> updateRealEstate(Long id, Map<String, Object> updates, Long ifMatchVersion) {
+        return Mono.defer(() -> {
+            Map<String, Object> changes = RealEstateService.parseChanges(updates);
+            Long expectedVersion = RealEstateService.expectedVersion(updates, ifMatchVersion);
+            if (changes.isEmpty()) {
+                return getRealEstateById(id).map(realEstate -> RealEstateService.checkVersion(realEstate, expectedVersion));
+            }
+            return realEstateRepository.update(id, changes, expectedVersion)
+                    .switchIfEmpty(missingOrStale(id, expectedVersion))
+                    .map(change -> {
+                        realEstateService.notifyUpdated(change.getPrevious(), change.getCurrent());
+                        return change.getCurrent();
+                    });
+        });
+    }
+
+    public Mono<Void> deleteRealEstate(Long id) {
+        return realEstateRepository.deleteById(id)
+                .doOnNext(realEstateService::notifyDeleted)
+                .doFinally(signal -> realEstateCache.invalidate(id))
+                .then();
+    }
+
+    public Mono<Void> deleteExistingRealEstate(Long id) {
+        return realEstateRepository.deleteById(id)
+                .switchIfEmpty(Mono.error(() -> new RealEstateNotFoundException(id)))
+                .doOnNext(realEstateService::notifyDeleted)
+                .then();
+    }
+
+    public Mono<Void> deleteRealEstate(Long id, long expectedVersion) {
+        return realEstateRepository.deleteById(id, expectedVersion)
+                .switchIfEmpty(missingOrStale(id, expectedVersion))
+                .doOnNext(realEstateService::notifyDeleted)
+                .then();
+    }
+
+    // Le statistiche in memoria non bloccano; con realestate.stats.mode=materialized-view la prima lettura passa da JDBC
+    public Mono<MarketStatsResponse> getMarketStats() {
+        return Mono.fromCallable(realEstateService::getMarketStats).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // La ricerca nell'indice è in memoria, ma le righe dei vicini si leggono con JDBC
+    public Mono<SimilarRealEstatesResponse> getSimilarRealEstates(Long id, Integer k, RealEstateSearchCriteria criteria) {
+        return Mono.fromCallable(() -> realEstateService.getSimilarRealEstates(id, k, criteria)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    public CacheStatsResponse getCacheStats() {
+        return realEstateService.getCacheStats();
+    }
+
+    // Chiamato solo quando la scrittura non ha toccato righe, per distinguere il 404 dal 409
+    private <T> Mono<T> missingOrStale(Long id, Long expectedVersion) {
+        if (expectedVersion == null) {
+            return Mono.error(() -> new RealEstateNotFoundException(id));
+        }
+        return realEstateRepository.findVersion(id).hasElement()
+                .flatMap(exists -> Mono.<T>error(exists
+                        ? new RealEstateVersionConflictException(id, expectedVersion)
+                        : new RealEstateNotFoundException(id)));
+    }
+
+}
@@ -0,0 +1,20 @@
+package my.wikicasa.web.service;
+
+import my.wikicasa.web.entity.RealEstate;
+import org.springframework.context.SmartLifecycle;
+
+// Notificato da RealEstateService dopo ogni scrittura andata a buon fine,
+// per tenere allineate le strutture in memoria derivate dalla tabella
+public interface RealEstateChangeListener {
+
+    // Fase di avvio dei listener che si riempiono con una scansione iniziale della tabella: prima del server web,
+    // così nessuna scrittura arriva durante la scansione
+    int INITIAL_SCAN_PHASE = SmartLifecycle.DEFAULT_PHASE - 4096;
+
+    void onCreated(RealEstate realEstate);
+
+    void onUpdated(RealEstate previous, RealEstate current);
+
+    void onDeleted(RealEstate realEstate);
+
+}
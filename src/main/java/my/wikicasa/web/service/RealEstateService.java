@@ -1,52 +1,560 @@
 package my.wikicasa.web.service;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import my.wikicasa.web.autocomplete.AutocompleteIndex;
+import my.wikicasa.web.cache.RealEstateCache;
 import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.entity.RealEstateChange;
+import my.wikicasa.web.entity.RealEstateSummary;
+import my.wikicasa.web.entity.RealEstateUpsert;
 import my.wikicasa.web.exception.RealEstateNotFoundException;
+import my.wikicasa.web.exception.RealEstateVersionConflictException;
 import my.wikicasa.web.repository.RealEstateRepository;
-import org.springframework.beans.factory.annotation.Autowired;
+import my.wikicasa.web.request.RealEstateSearchCriteria;
+import my.wikicasa.web.response.AutocompleteResponse;
+import my.wikicasa.web.response.AutocompleteSuggestion;
+import my.wikicasa.web.response.BatchItemResult;
+import my.wikicasa.web.response.BatchResponse;
+import my.wikicasa.web.response.CacheStatsResponse;
+import my.wikicasa.web.response.CursorPage;
+import my.wikicasa.web.response.MarketStatsResponse;
+import my.wikicasa.web.response.SearchPage;
+import my.wikicasa.web.response.SimilarRealEstate;
+import my.wikicasa.web.response.SimilarRealEstatesResponse;
+import my.wikicasa.web.response.UpsertResponse;
+import my.wikicasa.web.similarity.SimilarityIndex;
+import my.wikicasa.web.stats.RealEstateStats;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Service
 public class RealEstateService {
 
     private final RealEstateRepository realEstateRepository;
+    private final RealEstateCache realEstateCache;
+    private final Validator validator;
+    private final RealEstateStats realEstateStats;
+    private final List<RealEstateChangeListener> changeListeners;
+    private final AutocompleteIndex autocompleteIndex;
+    private final SimilarityIndex similarityIndex;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+    private final boolean unpagedAllowed;
+    private final int exportFetchSize;
+    private final int batchChunkSize;
+    private final int batchMaxSize;
+    private final int searchMaxOffset;
+    private final String autocompleteBackend;
+    private final int autocompleteMinLength;
+    private final int autocompleteDefaultLimit;
+    private final int autocompleteMaxLimit;
+    private final int similarDefaultK;
+    private final int similarMaxK;
 
-    @Autowired
-    public RealEstateService(RealEstateRepository realEstateRepository) {
+    public RealEstateService(RealEstateRepository realEstateRepository,
+                             RealEstateCache realEstateCache,
+                             Validator validator,
+                             RealEstateStats realEstateStats,
+                             List<RealEstateChangeListener> changeListeners,
+                             AutocompleteIndex autocompleteIndex,
+                             SimilarityIndex similarityIndex,
+                             RealEstateServiceProperties properties) {
         this.realEstateRepository = realEstateRepository;
+        this.realEstateCache = realEstateCache;
+        this.validator = validator;
+        this.realEstateStats = realEstateStats;
+        this.changeListeners = changeListeners;
+        this.autocompleteIndex = autocompleteIndex;
+        this.similarityIndex = similarityIndex;
+        this.defaultPageSize = properties.pagination().defaultSize();
+        this.maxPageSize = properties.pagination().maxSize();
+        this.unpagedAllowed = properties.pagination().allowUnpaged();
+        this.exportFetchSize = properties.export().fetchSize();
+        this.batchChunkSize = properties.batch().chunkSize();
+        this.batchMaxSize = properties.batch().maxSize();
+        this.searchMaxOffset = properties.search().maxOffset();
+        this.autocompleteBackend = properties.autocomplete().backend();
+        this.autocompleteMinLength = properties.autocomplete().minLength();
+        this.autocompleteDefaultLimit = properties.autocomplete().defaultLimit();
+        this.autocompleteMaxLimit = properties.autocomplete().maxLimit();
+        this.similarDefaultK = properties.similarity().defaultK();
+        this.similarMaxK = properties.similarity().maxK();
     }
 
     public RealEstate createRealEstate(RealEstate realEstate) {
-        return realEstateRepository.save(realEstate);
+        RealEstate createdRealEstate = realEstateRepository.save(realEstate);
+        notifyCreated(createdRealEstate);
+        return createdRealEstate;
     }
 
-    public List<RealEstate> getAllRealEstates() {
-        return realEstateRepository.findAll();
+    public BatchResponse createRealEstates(List<RealEstate> realEstates) {
+        return createRealEstates(realEstates, null);
+    }
+
+    // Senza onConflict i duplicati vengono segnalati come CONFLICT; con "ignore" o "update" si passa dall'upsert,
+    // che restituisce anche l'ID dei RealEstate già presenti
+    public BatchResponse createRealEstates(List<RealEstate> realEstates, String onConflict) {
+        assertBatchSize(realEstates);
+        Boolean updateOnConflict = onConflict == null ? null : updateOnConflict(onConflict);
+        BatchItemResult[] results = new BatchItemResult[realEstates.size()];
+        for (List<Integer> chunkIndexes : prepareBatch(realEstates, updateOnConflict, results)) {
+            List<RealEstate> chunk = chunkIndexes.stream().map(realEstates::get).toList();
+            if (updateOnConflict == null) {
+                applyInserted(chunk, chunkIndexes, realEstateRepository.saveAll(chunk), results);
+            } else {
+                applyUpserted(chunkIndexes, realEstateRepository.upsertAll(chunk, updateOnConflict), results);
+            }
+        }
+        return BatchResponse.of(Arrays.asList(results));
+    }
+
+    void assertBatchSize(List<RealEstate> realEstates) {
+        if (realEstates.size() > batchMaxSize) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "A batch can contain at most " + batchMaxSize + " real estates");
+        }
+    }
+
+    // Segna in results gli elementi non validi o duplicati e divide gli indici degli altri in blocchi di batchChunkSize
+    List<List<Integer>> prepareBatch(List<RealEstate> realEstates, Boolean updateOnConflict, BatchItemResult[] results) {
+        List<Integer> validIndexes = new ArrayList<>(realEstates.size());
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < realEstates.size(); i++) {
+            Map<String, String> errors = validate(realEstates.get(i));
+            if (!errors.isEmpty()) {
+                results[i] = BatchItemResult.invalid(i, errors);
+            } else if (updateOnConflict != null && !keys.add(naturalKey(realEstates.get(i)))) {
+                // Un upsert non può toccare due volte la stessa riga: vale il primo, come per l'inserimento
+                results[i] = BatchItemResult.conflict(i);
+            } else {
+                validIndexes.add(i);
+            }
+        }
+
+        List<List<Integer>> chunks = new ArrayList<>();
+        for (int from = 0; from < validIndexes.size(); from += batchChunkSize) {
+            chunks.add(validIndexes.subList(from, Math.min(from + batchChunkSize, validIndexes.size())));
+        }
+        return chunks;
+    }
+
+    // ids contiene, per ogni elemento del blocco, l'ID generato oppure null se era un duplicato
+    void applyInserted(List<RealEstate> chunk, List<Integer> indexes, List<Long> ids, BatchItemResult[] results) {
+        for (int i = 0; i < chunk.size(); i++) {
+            int index = indexes.get(i);
+            Long id = ids.get(i);
+            chunk.get(i).setId(id);
+            if (id != null) {
+                chunk.get(i).setVersion(0L);
+                notifyCreated(chunk.get(i));
+            }
+            results[index] = id != null ? BatchItemResult.created(index, id) : BatchItemResult.conflict(index);
+        }
+    }
+
+    void applyUpserted(List<Integer> indexes, List<RealEstateUpsert> upserts, BatchItemResult[] results) {
+        for (int i = 0; i < upserts.size(); i++) {
+            int index = indexes.get(i);
+            RealEstateUpsert upsert = upserts.get(i);
+            if (upsert.getCurrent() == null) {
+                // Cancellato da un'altra transazione tra l'upsert e la rilettura
+                results[index] = BatchItemResult.conflict(index);
+                continue;
+            }
+            applyUpsert(upsert);
+            Long id = upsert.getCurrent().getId();
+            results[index] = switch (upsert.getStatus()) {
+                case CREATED -> BatchItemResult.created(index, id);
+                case UPDATED -> BatchItemResult.updated(index, id);
+                case UNCHANGED -> BatchItemResult.unchanged(index, id);
+            };
+        }
+    }
+
+    // Crea il RealEstate oppure, se esiste già con lo stesso nome, indirizzo e prezzo, lo aggiorna ("update")
+    // o lo lascia com'è ("ignore"): in nessun caso il duplicato passa da un'eccezione
+    public UpsertResponse upsertRealEstate(RealEstate realEstate, String onConflict) {
+        return toUpsertResponse(realEstateRepository.upsertAll(List.of(realEstate), updateOnConflict(onConflict)).get(0));
+    }
+
+    UpsertResponse toUpsertResponse(RealEstateUpsert upsert) {
+        if (upsert.getCurrent() == null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "RealEstate was deleted concurrently, retry the request");
+        }
+        applyUpsert(upsert);
+        return new UpsertResponse(upsert.getStatus(), upsert.getCurrent());
+    }
+
+    private void applyUpsert(RealEstateUpsert upsert) {
+        switch (upsert.getStatus()) {
+            case CREATED -> notifyCreated(upsert.getCurrent());
+            case UPDATED -> notifyUpdated(upsert.getPrevious(), upsert.getCurrent());
+            case UNCHANGED -> {
+            }
+        }
+    }
+
+    // Ogni scrittura invalida la cache e notifica i listener, qualunque sia lo stack (servlet o reattivo) che l'ha eseguita
+    void notifyCreated(RealEstate createdRealEstate) {
+        realEstateCache.invalidate(createdRealEstate.getId());
+        changeListeners.forEach(listener -> listener.onCreated(createdRealEstate));
+    }
+
+    void notifyUpdated(RealEstate previous, RealEstate current) {
+        realEstateCache.invalidate(current.getId());
+        changeListeners.forEach(listener -> listener.onUpdated(previous, current));
+    }
+
+    void notifyDeleted(RealEstate deletedRealEstate) {
+        realEstateCache.invalidate(deletedRealEstate.getId());
+        changeListeners.forEach(listener -> listener.onDeleted(deletedRealEstate));
+    }
+
+    static boolean updateOnConflict(String onConflict) {
+        return switch (onConflict) {
+            case "update" -> true;
+            case "ignore" -> false;
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported onConflict mode: " + onConflict);
+        };
+    }
+
+    // Chiave del vincolo unique_real_estate, con il prezzo arrotondato come nella colonna NUMERIC(10, 2)
+    static String naturalKey(RealEstate realEstate) {
+        return realEstate.getName() + '\u0000' + realEstate.getAddress() + '\u0000'
+                + BigDecimal.valueOf(realEstate.getPrice()).setScale(2, RoundingMode.HALF_UP);
+    }
+
+    public void assertUnpagedAllowed() {
+        if (!unpagedAllowed) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unpaged listing is disabled, use the cursor instead");
+        }
+    }
+
+    public CursorPage<RealEstate> getRealEstatePage(String cursor, Integer size) {
+        int pageSize = resolvePageSize(size);
+        // Si legge una riga in più per sapere se esiste una pagina successiva
+        return toPage(realEstateRepository.findPage(afterId(cursor), pageSize + 1), pageSize, RealEstate::getId);
+    }
+
+    public CursorPage<RealEstateSummary> getRealEstateSummaryPage(String cursor, Integer size) {
+        int pageSize = resolvePageSize(size);
+        return toPage(realEstateRepository.findSummaryPage(afterId(cursor), pageSize + 1), pageSize, RealEstateSummary::getId);
+    }
+
+    // Calcola l'ETag della pagina leggendo solo ID e versioni, senza costruire i RealEstate completi
+    public String getRealEstatePageTag(String cursor, Integer size) {
+        int pageSize = resolvePageSize(size);
+        return getPageTag(toPage(realEstateRepository.findPageVersions(afterId(cursor), pageSize + 1), pageSize, RealEstate::getId));
+    }
+
+    public String getPageTag(CursorPage<RealEstate> page) {
+        ByteBuffer buffer = ByteBuffer.allocate(page.getContent().size() * 2 * Long.BYTES + 1);
+        for (RealEstate realEstate : page.getContent()) {
+            buffer.putLong(realEstate.getId()).putLong(realEstate.getVersion());
+        }
+        buffer.put((byte) (page.getNextCursor() != null ? 1 : 0));
+        return DigestUtils.md5DigestAsHex(buffer.array());
+    }
+
+    public SearchPage<RealEstate> searchRealEstates(RealEstateSearchCriteria criteria) {
+        int pageSize = resolveSearchPageSize(criteria);
+        long start = System.nanoTime();
+        List<RealEstate> realEstates = realEstateRepository.search(criteria, criteria.getPage() * pageSize, pageSize + 1);
+        return toSearchPage(realEstates, criteria, pageSize, (System.nanoTime() - start) / 1_000_000.0);
+    }
+
+    // Valida ordinamento e pagina della ricerca e restituisce la dimensione della pagina
+    int resolveSearchPageSize(RealEstateSearchCriteria criteria) {
+        if (!RealEstateRepository.SORTABLE_COLUMNS.containsKey(criteria.getSort())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported sort property: " + criteria.getSort());
+        }
+        if (!"asc".equalsIgnoreCase(criteria.getDirection()) && !"desc".equalsIgnoreCase(criteria.getDirection())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported sort direction: " + criteria.getDirection());
+        }
+        if (criteria.getPage() < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The page number cannot be negative");
+        }
+        int pageSize = resolvePageSize(criteria.getSize());
+        long offset = (long) criteria.getPage() * pageSize;
+        if (offset > searchMaxOffset) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The search cannot go beyond " + searchMaxOffset + " results, narrow the filters instead");
+        }
+        return pageSize;
+    }
+
+    // realEstates contiene una riga in più della pagina, se esiste una pagina successiva
+    static SearchPage<RealEstate> toSearchPage(List<RealEstate> realEstates, RealEstateSearchCriteria criteria, int pageSize, double tookMillis) {
+        boolean hasNext = realEstates.size() > pageSize;
+        List<RealEstate> content = hasNext ? realEstates.subList(0, pageSize) : realEstates;
+        return new SearchPage<>(content, criteria.getPage(), pageSize, hasNext, tookMillis);
+    }
+
+    // Il backend si sceglie con realestate.autocomplete.backend oppure per singola richiesta, per confrontarne la latenza
+    public AutocompleteResponse autocomplete(String query, Integer limit, String backend) {
+        String normalizedQuery = normalizeAutocompleteQuery(query);
+        int resolvedLimit = resolveAutocompleteLimit(limit);
+        String resolvedBackend = resolveAutocompleteBackend(backend);
+
+        long start = System.nanoTime();
+        List<AutocompleteSuggestion> suggestions = resolvedBackend.equals("trigram")
+                ? realEstateRepository.autocomplete(normalizedQuery, resolvedLimit)
+                : autocompleteIndex.search(normalizedQuery, resolvedLimit);
+        double tookMillis = (System.nanoTime() - start) / 1_000_000.0;
+        return new AutocompleteResponse(resolvedBackend, tookMillis, suggestions);
+    }
+
+    String normalizeAutocompleteQuery(String query) {
+        String normalizedQuery = query == null ? "" : query.strip();
+        if (normalizedQuery.length() < autocompleteMinLength) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The query must contain at least " + autocompleteMinLength + " characters");
+        }
+        return normalizedQuery;
+    }
+
+    int resolveAutocompleteLimit(Integer limit) {
+        if (limit != null && limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The limit must be positive");
+        }
+        return limit == null ? autocompleteDefaultLimit : Math.min(limit, autocompleteMaxLimit);
+    }
+
+    // Restituisce "trigram" o "memory", verificando che il backend richiesto sia disponibile
+    String resolveAutocompleteBackend(String backend) {
+        String resolvedBackend = backend == null ? autocompleteBackend : backend;
+        switch (resolvedBackend) {
+            case "trigram" -> {
+            }
+            case "memory" -> {
+                if (!autocompleteIndex.isEnabled()) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The in-memory autocomplete index is disabled");
+                }
+            }
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported autocomplete backend: " + resolvedBackend);
+        }
+        return resolvedBackend;
+    }
+
+    // I k RealEstate più simili a quello indicato per prezzo, locali, bagni e metri quadri, dal più vicino.
+    // I filtri di intervallo della ricerca restringono i candidati; le righe complete si leggono con un'unica query
+    public SimilarRealEstatesResponse getSimilarRealEstates(Long id, Integer k, RealEstateSearchCriteria criteria) {
+        if (!similarityIndex.isEnabled()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The similarity index is disabled");
+        }
+        int resolvedK = resolveSimilarK(k);
+        RealEstate reference = getRealEstateById(id);
+
+        long start = System.nanoTime();
+        List<SimilarityIndex.Neighbour> neighbours = similarityIndex.nearest(reference, resolvedK, criteria);
+        double tookMillis = (System.nanoTime() - start) / 1_000_000.0;
+
+        // Un vicino cancellato tra la ricerca e la lettura viene semplicemente saltato
+        Map<Long, RealEstate> realEstates = new HashMap<>();
+        realEstateRepository.findAllById(neighbours.stream().map(SimilarityIndex.Neighbour::id).toList())
+                .forEach(realEstate -> realEstates.put(realEstate.getId(), realEstate));
+        List<SimilarRealEstate> content = new ArrayList<>(neighbours.size());
+        for (SimilarityIndex.Neighbour neighbour : neighbours) {
+            RealEstate realEstate = realEstates.get(neighbour.id());
+            if (realEstate != null) {
+                content.add(new SimilarRealEstate(realEstate, neighbour.distance()));
+            }
+        }
+        return new SimilarRealEstatesResponse(id, tookMillis, content);
+    }
+
+    int resolveSimilarK(Integer k) {
+        if (k != null && k < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "k must be positive");
+        }
+        return k == null ? similarDefaultK : Math.min(k, similarMaxK);
+    }
+
+    @Transactional(readOnly = true)
+    public void exportRealEstates(Consumer<RealEstate> consumer) {
+        realEstateRepository.streamAll(exportFetchSize, consumer);
     }
 
     public RealEstate getRealEstateById(Long id) {
-        return realEstateRepository.findById(id).orElseThrow(() -> new RealEstateNotFoundException(id));
+        return realEstateCache.get(id, realEstateRepository::findById).orElseThrow(() -> new RealEstateNotFoundException(id));
+    }
+
+    // Versione corrente del RealEstate, presa dalla cache quando disponibile
+    public Long getRealEstateVersion(Long id) {
+        return realEstateCache.peek(id).map(RealEstate::getVersion)
+                .or(() -> realEstateRepository.findVersion(id))
+                .orElseThrow(() -> new RealEstateNotFoundException(id));
     }
 
     public RealEstate updateRealEstate(Long id, Map<String, Object> updates) {
-        RealEstate realEstate = realEstateRepository.findById(id).orElseThrow(() -> new RealEstateNotFoundException(id));
-        updates.forEach((key, value) -> {
-            switch (key) {
-                case "name" -> realEstate.setName((String) value);
-                case "address" -> realEstate.setAddress((String) value);
-                case "price" -> realEstate.setPrice(Double.valueOf(value.toString()));
-                case "rooms" -> realEstate.setRooms(Integer.valueOf(value.toString()));
-                case "bathrooms" -> realEstate.setBathrooms(Integer.valueOf(value.toString()));
-                case "sqMeters" -> realEstate.setSqMeters(Double.valueOf(value.toString()));
+        return updateRealEstate(id, updates, null);
+    }
+
+    // La versione attesa può arrivare dall'header If-Match oppure dalla proprietà "version" del corpo
+    public RealEstate updateRealEstate(Long id, Map<String, Object> updates, Long ifMatchVersion) {
+        Map<String, Object> changes = parseChanges(updates);
+        Long expectedVersion = expectedVersion(updates, ifMatchVersion);
+        if (changes.isEmpty()) {
+            return checkVersion(getRealEstateById(id), expectedVersion);
+        }
+
+        RealEstateChange change = realEstateRepository.update(id, changes, expectedVersion)
+                .orElseThrow(() -> missingOrStale(id, expectedVersion));
+        notifyUpdated(change.getPrevious(), change.getCurrent());
+        return change.getCurrent();
+    }
+
+    // Proprietà aggiornabili presenti nel corpo della PUT, convertite nel tipo della colonna.
+    // I numeri possono arrivare anche come stringhe; ogni altro valore, null compreso, è un 400
+    static Map<String, Object> parseChanges(Map<String, Object> updates) {
+        Map<String, Object> changes = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> update : updates.entrySet()) {
+            String property = update.getKey();
+            Object value = update.getValue();
+            switch (property) {
+                case "name", "address" -> {
+                    if (!(value instanceof String text) || text.isBlank()) throw invalidValue(property, value);
+                    changes.put(property, text);
+                }
+                case "price", "sqMeters" -> {
+                    Double number = parseNumber(property, value, Double::valueOf);
+                    if (!Double.isFinite(number)) throw invalidValue(property, value);
+                    changes.put(property, number);
+                }
+                case "rooms", "bathrooms" -> changes.put(property, parseNumber(property, value, Integer::valueOf));
+            }
+        }
+        return changes;
+    }
+
+    static Long expectedVersion(Map<String, Object> updates, Long ifMatchVersion) {
+        if (ifMatchVersion != null || !updates.containsKey("version")) {
+            return ifMatchVersion;
+        }
+        return parseNumber("version", updates.get("version"), Long::valueOf);
+    }
+
+    private static <T> T parseNumber(String property, Object value, Function<String, T> parser) {
+        if (value instanceof Number || value instanceof String) {
+            try {
+                return parser.apply(value.toString());
+            } catch (NumberFormatException e) {
+                throw invalidValue(property, value);
             }
-        });
-        return realEstateRepository.update(realEstate);
+        }
+        throw invalidValue(property, value);
+    }
+
+    private static ResponseStatusException invalidValue(String property, Object value) {
+        return new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid value for " + property + ": " + value);
+    }
+
+    // Una PUT senza proprietà da aggiornare restituisce il RealEstate, purché la versione attesa sia ancora quella
+    static RealEstate checkVersion(RealEstate realEstate, Long expectedVersion) {
+        if (expectedVersion != null && !expectedVersion.equals(realEstate.getVersion())) {
+            throw new RealEstateVersionConflictException(realEstate.getId(), expectedVersion);
+        }
+        return realEstate;
     }
 
     public void deleteRealEstate(Long id) {
-        realEstateRepository.deleteById(id);
+        realEstateRepository.deleteById(id).ifPresent(this::notifyDeleted);
+        realEstateCache.invalidate(id);
+    }
+
+    public void deleteRealEstate(Long id, long expectedVersion) {
+        RealEstate deletedRealEstate = realEstateRepository.deleteById(id, expectedVersion)
+                .orElseThrow(() -> missingOrStale(id, expectedVersion));
+        notifyDeleted(deletedRealEstate);
+    }
+
+    // Per If-Match: *, che non fissa una versione ma richiede che il RealEstate esista
+    public void deleteExistingRealEstate(Long id) {
+        RealEstate deletedRealEstate = realEstateRepository.deleteById(id)
+                .orElseThrow(() -> new RealEstateNotFoundException(id));
+        notifyDeleted(deletedRealEstate);
+    }
+
+    public MarketStatsResponse getMarketStats() {
+        return realEstateStats.getStats();
+    }
+
+    public CacheStatsResponse getCacheStats() {
+        CacheStats stats = realEstateCache.stats();
+        return new CacheStatsResponse(realEstateCache.size(), stats.hitCount(), stats.missCount(),
+                stats.evictionCount(), stats.hitRate());
+    }
+
+    // Chiamato solo quando l'aggiornamento non ha toccato righe, per distinguere il 404 dal 409
+    private RuntimeException missingOrStale(Long id, Long expectedVersion) {
+        if (expectedVersion != null && realEstateRepository.findVersion(id).isPresent()) {
+            return new RealEstateVersionConflictException(id, expectedVersion);
+        }
+        return new RealEstateNotFoundException(id);
+    }
+
+    Map<String, String> validate(RealEstate realEstate) {
+        Map<String, String> errors = new HashMap<>();
+        if (realEstate == null) {
+            errors.put("realEstate", "The real estate cannot be null");
+            return errors;
+        }
+        for (ConstraintViolation<RealEstate> violation : validator.validate(realEstate)) {
+            errors.put(violation.getPropertyPath().toString(), violation.getMessage());
+        }
+        return errors;
+    }
+
+    static <T> CursorPage<T> toPage(List<T> rows, int pageSize, Function<T, Long> idOf) {
+        if (rows.size() <= pageSize) {
+            return new CursorPage<>(rows, null);
+        }
+        List<T> content = rows.subList(0, pageSize);
+        return new CursorPage<>(content, encodeCursor(idOf.apply(content.get(pageSize - 1))));
+    }
+
+    static long afterId(String cursor) {
+        return cursor == null ? 0 : decodeCursor(cursor);
+    }
+
+    int resolvePageSize(Integer size) {
+        if (size == null) {
+            return defaultPageSize;
+        }
+        if (size < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The page size must be positive");
+        }
+        return Math.min(size, maxPageSize);
+    }
+
+    private static String encodeCursor(long lastId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(Long.toString(lastId).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static long decodeCursor(String cursor) {
+        try {
+            return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor", e);
+        }
     }
 }
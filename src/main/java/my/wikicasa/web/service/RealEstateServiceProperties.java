@@ -0,0 +1,32 @@
+package my.wikicasa.web.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Impostazioni realestate.* usate da RealEstateService, raggruppate come nel file di configurazione
+@ConfigurationProperties(prefix = "realestate")
+public record RealEstateServiceProperties(Pagination pagination,
+                                          Export export,
+                                          Batch batch,
+                                          Search search,
+                                          Autocomplete autocomplete,
+                                          Similarity similarity) {
+
+    public record Pagination(int defaultSize, int maxSize, boolean allowUnpaged) {
+    }
+
+    public record Export(int fetchSize) {
+    }
+
+    public record Batch(int chunkSize, int maxSize) {
+    }
+
+    public record Search(int maxOffset) {
+    }
+
+    public record Autocomplete(String backend, int minLength, int defaultLimit, int maxLimit) {
+    }
+
+    public record Similarity(int defaultK, int maxK) {
+    }
+
+}
@@ -0,0 +1,718 @@
+package my.wikicasa.web.similarity;
+
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.repository.RealEstateRepository;
+import my.wikicasa.web.request.RealEstateSearchCriteria;
+import my.wikicasa.web.service.RealEstateChangeListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Indice in memoria per i RealEstate simili: un KD-tree sulle caratteristiche (price, rooms, bathrooms, sqMeters).
+// La distanza è euclidea con ogni caratteristica divisa per la sua deviazione standard, così che il prezzo non domini;
+// le coordinate restano quelle originali, così i filtri di intervallo sono esatti.
+// Tutto sta in array di primitivi indicizzati per slot: le coordinate in un unico double[], quattro per slot.
+// Le scritture non toccano l'albero: i nuovi punti finiscono in coda (delta, scandito per intero a ogni ricerca)
+// e quelli modificati o cancellati vengono marcati come rimossi. Quando il delta supera deltaMaxSize
+// l'albero viene ricostruito su un thread separato, compattando gli slot e ricalcolando le scale, e poi sostituito
+@Component
+public class SimilarityIndex implements RealEstateChangeListener, SmartLifecycle {
+
+    static final int DIMENSIONS = 4;
+    private static final int LEAF_SIZE = 8;
+
+    private final RealEstateRepository realEstateRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int fetchSize;
+    private final int deltaMaxSize;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private SlotMap slotsById = new SlotMap();
+    // Peso di ogni caratteristica nella distanza: 1 / varianza, ricalcolato a ogni ricostruzione dell'albero
+    private double[] weights = {1, 1, 1, 1};
+    private double[] points = new double[1024 * DIMENSIONS];
+    private long[] ids = new long[1024];
+    private boolean[] removed = new boolean[1024];
+    private int size;
+    private int live;
+    // Gli slot [0, treeSize) sono nell'albero, permutati in tree; ogni mediana ha la sua dimensione di taglio
+    private int[] tree = new int[0];
+    private byte[] splitDimensions = new byte[0];
+    private int treeSize;
+    // Cambia a ogni compattazione degli slot: una ricostruzione in background partita da un'altra numerazione viene scartata
+    private long generation;
+    private volatile boolean reindexing;
+    private volatile boolean running;
+
+    public SimilarityIndex(RealEstateRepository realEstateRepository,
+                           TransactionTemplate transactionTemplate,
+                           @Value("${realestate.similarity.enabled}") boolean enabled,
+                           @Value("${realestate.export.fetch-size}") int fetchSize,
+                           @Value("${realestate.similarity.delta-max-size}") int deltaMaxSize) {
+        this.realEstateRepository = realEstateRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.fetchSize = fetchSize;
+        this.deltaMaxSize = deltaMaxSize;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            slotsById.clear();
+            size = 0;
+            live = 0;
+            treeSize = 0;
+            transactionTemplate.executeWithoutResult(status -> realEstateRepository.streamAll(fetchSize, this::add));
+            reindex();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onCreated(RealEstate realEstate) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            add(realEstate);
+            reindexIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onUpdated(RealEstate previous, RealEstate current) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            remove(previous.getId());
+            add(current);
+            reindexIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onDeleted(RealEstate realEstate) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            remove(realEstate.getId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // I k RealEstate più vicini a reference, escluso reference stesso, che rispettano i filtri di intervallo di criteria
+    public List<Neighbour> nearest(RealEstate reference, int k, RealEstateSearchCriteria criteria) {
+        double[] query = features(reference);
+        if (query == null || k < 1) {
+            return List.of();
+        }
+        long excludedId = reference.getId() == null ? Long.MIN_VALUE : reference.getId();
+        lock.readLock().lock();
+        try {
+            double[] lower = new double[DIMENSIONS];
+            double[] upper = new double[DIMENSIONS];
+            bounds(criteria, lower, upper);
+            Search search = new Search(query, lower, upper, excludedId, k);
+            search.tree(0, treeSize);
+            for (int slot = treeSize; slot < size; slot++) {
+                search.offer(slot);
+            }
+            return search.neighbours();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // I RealEstate con caratteristiche mancanti non hanno una posizione nello spazio e non vengono indicizzati
+    private static double[] features(RealEstate realEstate) {
+        if (realEstate.getPrice() == null || realEstate.getRooms() == null
+                || realEstate.getBathrooms() == null || realEstate.getSqMeters() == null) {
+            return null;
+        }
+        return new double[]{realEstate.getPrice(), realEstate.getRooms(), realEstate.getBathrooms(), realEstate.getSqMeters()};
+    }
+
+    private static void bounds(RealEstateSearchCriteria criteria, double[] lower, double[] upper) {
+        Arrays.fill(lower, Double.NEGATIVE_INFINITY);
+        Arrays.fill(upper, Double.POSITIVE_INFINITY);
+        if (criteria == null) {
+            return;
+        }
+        bound(lower, upper, 0, criteria.getMinPrice(), criteria.getMaxPrice());
+        bound(lower, upper, 1, criteria.getMinRooms(), criteria.getMaxRooms());
+        bound(lower, upper, 2, criteria.getMinBathrooms(), criteria.getMaxBathrooms());
+        bound(lower, upper, 3, criteria.getMinSqMeters(), criteria.getMaxSqMeters());
+    }
+
+    private static void bound(double[] lower, double[] upper, int dimension, Number min, Number max) {
+        if (min != null) {
+            lower[dimension] = min.doubleValue();
+        }
+        if (max != null) {
+            upper[dimension] = max.doubleValue();
+        }
+    }
+
+    private void add(RealEstate realEstate) {
+        double[] features = features(realEstate);
+        if (features == null || realEstate.getId() == null) {
+            return;
+        }
+        remove(realEstate.getId());
+        if (size == ids.length) {
+            int capacity = ids.length * 2;
+            points = Arrays.copyOf(points, capacity * DIMENSIONS);
+            ids = Arrays.copyOf(ids, capacity);
+            removed = Arrays.copyOf(removed, capacity);
+        }
+        for (int d = 0; d < DIMENSIONS; d++) {
+            points[size * DIMENSIONS + d] = features[d];
+        }
+        ids[size] = realEstate.getId();
+        removed[size] = false;
+        slotsById.put(realEstate.getId(), size);
+        size++;
+        live++;
+    }
+
+    private void remove(long id) {
+        int slot = slotsById.remove(id);
+        if (slot >= 0) {
+            removed[slot] = true;
+            live--;
+        }
+    }
+
+    // Chiamato con il write lock: avvia la ricostruzione e torna subito, intanto le ricerche continuano su albero e delta
+    private void reindexIfNeeded() {
+        if (!reindexing && size - treeSize > deltaMaxSize) {
+            reindexing = true;
+            long startGeneration = generation;
+            Thread.ofPlatform().name("similarity-index-reindex").daemon().start(() -> reindexInBackground(startGeneration));
+        }
+    }
+
+    // Compatta gli slot eliminando quelli rimossi, ricalcola le scale e ricostruisce l'albero su tutti i punti
+    void reindex() {
+        int compacted = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (!removed[slot]) {
+                System.arraycopy(points, slot * DIMENSIONS, points, compacted * DIMENSIONS, DIMENSIONS);
+                ids[compacted] = ids[slot];
+                removed[compacted] = false;
+                compacted++;
+            }
+        }
+        size = compacted;
+        live = compacted;
+        slotsById.clear();
+        for (int slot = 0; slot < size; slot++) {
+            slotsById.put(ids[slot], slot);
+        }
+        install(new TreeBuilder(points, size), size);
+    }
+
+    // I punti vivi si copiano con il read lock e l'albero si costruisce sulla copia senza lock. Con il write lock
+    // restano solo le scritture arrivate nel frattempo: le rimozioni si riportano sugli slot copiati, le aggiunte
+    // diventano il nuovo delta
+    private void reindexInBackground(long startGeneration) {
+        try {
+            int copiedSize;
+            int count = 0;
+            double[] copiedPoints;
+            long[] copiedIds;
+            int[] origins;
+            lock.readLock().lock();
+            try {
+                if (generation != startGeneration) {
+                    return;
+                }
+                copiedSize = size;
+                int capacity = Math.max(Integer.highestOneBit(Math.max(live, 1)) * 2, 1024);
+                copiedPoints = new double[capacity * DIMENSIONS];
+                copiedIds = new long[capacity];
+                origins = new int[live];
+                for (int slot = 0; slot < size; slot++) {
+                    if (!removed[slot]) {
+                        System.arraycopy(points, slot * DIMENSIONS, copiedPoints, count * DIMENSIONS, DIMENSIONS);
+                        copiedIds[count] = ids[slot];
+                        origins[count++] = slot;
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            TreeBuilder built = new TreeBuilder(copiedPoints, count);
+            SlotMap copiedSlots = new SlotMap();
+            for (int slot = 0; slot < count; slot++) {
+                copiedSlots.put(copiedIds[slot], slot);
+            }
+
+            lock.writeLock().lock();
+            try {
+                if (generation == startGeneration) {
+                    swap(copiedPoints, copiedIds, origins, count, copiedSize, copiedSlots, built);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            reindexing = false;
+        }
+    }
+
+    // Con generation invariata nessuno slot è stato compattato dopo la copia: lo slot copiato i è ancora origins[i],
+    // e gli slot da copiedSize in poi sono quelli aggiunti durante la ricostruzione
+    private void swap(double[] copiedPoints, long[] copiedIds, int[] origins, int count, int copiedSize,
+                      SlotMap copiedSlots, TreeBuilder built) {
+        int added = size - copiedSize;
+        int capacity = copiedIds.length;
+        while (capacity < count + added) {
+            capacity *= 2;
+        }
+        double[] newPoints = capacity == copiedIds.length ? copiedPoints : Arrays.copyOf(copiedPoints, capacity * DIMENSIONS);
+        long[] newIds = capacity == copiedIds.length ? copiedIds : Arrays.copyOf(copiedIds, capacity);
+        boolean[] newRemoved = new boolean[capacity];
+        int newLive = count;
+        for (int slot = 0; slot < count; slot++) {
+            if (removed[origins[slot]]) {
+                newRemoved[slot] = true;
+                copiedSlots.remove(newIds[slot]);
+                newLive--;
+            }
+        }
+        int newSize = count;
+        for (int slot = copiedSize; slot < size; slot++) {
+            if (!removed[slot]) {
+                System.arraycopy(points, slot * DIMENSIONS, newPoints, newSize * DIMENSIONS, DIMENSIONS);
+                newIds[newSize] = ids[slot];
+                copiedSlots.put(ids[slot], newSize);
+                newSize++;
+                newLive++;
+            }
+        }
+        points = newPoints;
+        ids = newIds;
+        removed = newRemoved;
+        size = newSize;
+        live = newLive;
+        slotsById = copiedSlots;
+        install(built, count);
+    }
+
+    private void install(TreeBuilder built, int builtSize) {
+        weights = built.weights;
+        tree = built.tree;
+        splitDimensions = built.splitDimensions;
+        treeSize = builtSize;
+        generation++;
+    }
+
+    private double coordinate(int slot, int dimension) {
+        return points[slot * DIMENSIONS + dimension];
+    }
+
+    @Override
+    public void start() {
+        if (enabled) {
+            rebuild();
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return INITIAL_SCAN_PHASE;
+    }
+
+    public record Neighbour(long id, double distance) {
+    }
+
+    // Ricerca dei k vicini: i candidati migliori stanno in un max-heap su array, con in cima il più lontano
+    private final class Search {
+
+        private final double[] query;
+        private final double[] lower;
+        private final double[] upper;
+        private final double[] low;
+        private final double[] high;
+        private final long excludedId;
+        private final double[] distances;
+        private final int[] slots;
+        private int found;
+
+        private Search(double[] query, double[] lower, double[] upper, long excludedId, int k) {
+            this.query = query;
+            this.lower = lower;
+            this.upper = upper;
+            this.low = lower.clone();
+            this.high = upper.clone();
+            this.excludedId = excludedId;
+            this.distances = new double[k];
+            this.slots = new int[k];
+        }
+
+        private void tree(int from, int to) {
+            if (to - from <= LEAF_SIZE) {
+                for (int i = from; i < to; i++) {
+                    offer(tree[i]);
+                }
+                return;
+            }
+            int median = (from + to) >>> 1;
+            int slot = tree[median];
+            int dimension = splitDimensions[median];
+            double split = coordinate(slot, dimension);
+            offer(slot);
+
+            // Prima il lato che contiene il punto cercato
+            if (query[dimension] < split) {
+                visit(from, median, dimension, Double.NEGATIVE_INFINITY, split);
+                visit(median + 1, to, dimension, split, Double.POSITIVE_INFINITY);
+            } else {
+                visit(median + 1, to, dimension, split, Double.POSITIVE_INFINITY);
+                visit(from, median, dimension, Double.NEGATIVE_INFINITY, split);
+            }
+        }
+
+        // low e high delimitano la regione del sottoalbero già intersecata con i filtri: il sottoalbero si salta
+        // se l'intersezione è vuota o se anche il suo punto più vicino non migliorerebbe il risultato
+        private void visit(int from, int to, int dimension, double regionLow, double regionHigh) {
+            double previousLow = low[dimension];
+            double previousHigh = high[dimension];
+            low[dimension] = Math.max(previousLow, regionLow);
+            high[dimension] = Math.min(previousHigh, regionHigh);
+            if (low[dimension] <= high[dimension] && (found < distances.length || regionDistance() < distances[0])) {
+                tree(from, to);
+            }
+            low[dimension] = previousLow;
+            high[dimension] = previousHigh;
+        }
+
+        private double regionDistance() {
+            double distance = 0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                double gap = query[d] < low[d] ? low[d] - query[d] : query[d] > high[d] ? query[d] - high[d] : 0;
+                distance += gap * gap * weights[d];
+            }
+            return distance;
+        }
+
+        private void offer(int slot) {
+            if (removed[slot] || ids[slot] == excludedId) {
+                return;
+            }
+            double distance = 0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                double value = points[slot * DIMENSIONS + d];
+                if (value < lower[d] || value > upper[d]) {
+                    return;
+                }
+                double difference = value - query[d];
+                distance += difference * difference * weights[d];
+            }
+            if (found < distances.length) {
+                distances[found] = distance;
+                slots[found] = slot;
+                siftUp(found++);
+            } else if (distance < distances[0]) {
+                distances[0] = distance;
+                slots[0] = slot;
+                siftDown(0);
+            }
+        }
+
+        private void siftUp(int index) {
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (distances[parent] >= distances[index]) {
+                    return;
+                }
+                swap(parent, index);
+                index = parent;
+            }
+        }
+
+        private void siftDown(int index) {
+            while (true) {
+                int largest = index;
+                int left = 2 * index + 1;
+                int right = left + 1;
+                if (left < found && distances[left] > distances[largest]) {
+                    largest = left;
+                }
+                if (right < found && distances[right] > distances[largest]) {
+                    largest = right;
+                }
+                if (largest == index) {
+                    return;
+                }
+                swap(index, largest);
+                index = largest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            double distance = distances[a];
+            distances[a] = distances[b];
+            distances[b] = distance;
+            int slot = slots[a];
+            slots[a] = slots[b];
+            slots[b] = slot;
+        }
+
+        // Dal più vicino al più lontano: svuota l'heap togliendo ogni volta il più lontano
+        private List<Neighbour> neighbours() {
+            Neighbour[] sorted = new Neighbour[found];
+            while (found > 0) {
+                sorted[found - 1] = new Neighbour(ids[slots[0]], Math.sqrt(distances[0]));
+                found--;
+                swap(0, found);
+                siftDown(0);
+            }
+            return new ArrayList<>(Arrays.asList(sorted));
+        }
+
+    }
+
+    // Costruzione dell'albero su slot già compattati: scrive solo nei propri array e legge i punti che riceve,
+    // quindi può lavorare senza lock su una copia
+    private static final class TreeBuilder {
+
+        private final double[] points;
+        private final double[] weights = new double[DIMENSIONS];
+        private final int[] tree;
+        private final byte[] splitDimensions;
+
+        private TreeBuilder(double[] points, int size) {
+            this.points = points;
+            this.tree = new int[size];
+            this.splitDimensions = new byte[size];
+            reweight(size);
+            for (int slot = 0; slot < size; slot++) {
+                tree[slot] = slot;
+            }
+            build(0, size);
+        }
+
+        // Una caratteristica costante non ha varianza e mantiene peso 1
+        private void reweight(int size) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                double sum = 0;
+                double sumOfSquares = 0;
+                for (int slot = 0; slot < size; slot++) {
+                    double value = points[slot * DIMENSIONS + d];
+                    sum += value;
+                    sumOfSquares += value * value;
+                }
+                double mean = size == 0 ? 0 : sum / size;
+                double variance = size == 0 ? 0 : Math.max(0, sumOfSquares / size - mean * mean);
+                weights[d] = variance > 0 ? 1 / variance : 1;
+            }
+        }
+
+        // Ogni intervallo [from, to) ha la mediana al centro, sulla dimensione con la maggiore estensione pesata
+        private void build(int from, int to) {
+            if (to - from <= LEAF_SIZE) {
+                return;
+            }
+            int dimension = widestDimension(from, to);
+            int median = (from + to) >>> 1;
+            select(from, to, median, dimension);
+            splitDimensions[median] = (byte) dimension;
+            build(from, median);
+            build(median + 1, to);
+        }
+
+        private int widestDimension(int from, int to) {
+            int widest = 0;
+            double widestSpread = -1;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int i = from; i < to; i++) {
+                    double value = points[tree[i] * DIMENSIONS + d];
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+                double spread = (max - min) * (max - min) * weights[d];
+                if (spread > widestSpread) {
+                    widestSpread = spread;
+                    widest = d;
+                }
+            }
+            return widest;
+        }
+
+        // Quickselect su tree[from, to): dopo la chiamata in posizione k c'è lo slot che ci starebbe con l'array ordinato
+        private void select(int from, int to, int k, int dimension) {
+            int left = from;
+            int right = to - 1;
+            while (right > left) {
+                double pivot = coordinate(tree[(left + right) >>> 1], dimension);
+                int i = left;
+                int j = right;
+                while (i <= j) {
+                    while (coordinate(tree[i], dimension) < pivot) {
+                        i++;
+                    }
+                    while (coordinate(tree[j], dimension) > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        int swap = tree[i];
+                        tree[i] = tree[j];
+                        tree[j] = swap;
+                        i++;
+                        j--;
+                    }
+                }
+                if (k <= j) {
+                    right = j;
+                } else if (k >= i) {
+                    left = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private double coordinate(int slot, int dimension) {
+            return points[slot * DIMENSIONS + dimension];
+        }
+
+    }
+
+    // Mappa da ID a slot con indirizzamento aperto su array di long e int, senza boxing.
+    // La rimozione sposta indietro gli elementi successivi della stessa sequenza, così non servono lapidi
+    private static final class SlotMap {
+
+        private long[] keys = new long[2048];
+        private int[] values = new int[2048];
+        private boolean[] used = new boolean[2048];
+        private int count;
+
+        private void clear() {
+            Arrays.fill(used, false);
+            count = 0;
+        }
+
+        private int index(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & (keys.length - 1);
+        }
+
+        private void put(long key, int value) {
+            if ((count + 1) * 2 > keys.length) {
+                grow();
+            }
+            int index = index(key);
+            while (used[index]) {
+                if (keys[index] == key) {
+                    values[index] = value;
+                    return;
+                }
+                index = (index + 1) & (keys.length - 1);
+            }
+            used[index] = true;
+            keys[index] = key;
+            values[index] = value;
+            count++;
+        }
+
+        // Restituisce lo slot rimosso, o -1 se l'ID non c'era
+        private int remove(long key) {
+            int index = index(key);
+            while (used[index]) {
+                if (keys[index] == key) {
+                    int value = values[index];
+                    shiftBack(index);
+                    count--;
+                    return value;
+                }
+                index = (index + 1) & (keys.length - 1);
+            }
+            return -1;
+        }
+
+        private void shiftBack(int free) {
+            int mask = keys.length - 1;
+            int index = free;
+            while (true) {
+                index = (index + 1) & mask;
+                if (!used[index]) {
+                    used[free] = false;
+                    return;
+                }
+                int home = index(keys[index]);
+                // L'elemento può occupare il posto libero solo se la sua posizione naturale non sta tra i due
+                boolean movable = free <= index ? (home <= free || home > index) : (home <= free && home > index);
+                if (movable) {
+                    keys[free] = keys[index];
+                    values[free] = values[index];
+                    free = index;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            count = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,165 @@
+package my.wikicasa.web.stats;
+
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.repository.RealEstateRepository;
+import my.wikicasa.web.response.MarketStatsResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Aggregati tenuti in memoria e aggiornati in modo incrementale: la lettura non dipende dal numero di RealEstate.
+// Vengono ricostruiti con un'unica scansione in streaming all'avvio, prima che il server web accetti richieste
+@Component
+@ConditionalOnProperty(name = "realestate.stats.mode", havingValue = "memory", matchIfMissing = true)
+public class InMemoryRealEstateStats implements RealEstateStats, SmartLifecycle {
+
+    private final RealEstateRepository realEstateRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int fetchSize;
+    private final double relativeAccuracy;
+
+    private Aggregates aggregates;
+    private MarketStatsResponse snapshot;
+    private volatile boolean running;
+
+    public InMemoryRealEstateStats(RealEstateRepository realEstateRepository,
+                                   TransactionTemplate transactionTemplate,
+                                   @Value("${realestate.export.fetch-size}") int fetchSize,
+                                   @Value("${realestate.stats.relative-accuracy}") double relativeAccuracy) {
+        this.realEstateRepository = realEstateRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.fetchSize = fetchSize;
+        this.relativeAccuracy = relativeAccuracy;
+        this.aggregates = new Aggregates(relativeAccuracy);
+    }
+
+    public void rebuild() {
+        Aggregates rebuilt = new Aggregates(relativeAccuracy);
+        // Il cursore di PostgreSQL richiede una transazione attiva
+        transactionTemplate.executeWithoutResult(status -> realEstateRepository.streamAll(fetchSize, realEstate -> rebuilt.apply(realEstate, 1)));
+        synchronized (this) {
+            aggregates = rebuilt;
+            snapshot = null;
+        }
+    }
+
+    @Override
+    public synchronized void onCreated(RealEstate realEstate) {
+        aggregates.apply(realEstate, 1);
+        snapshot = null;
+    }
+
+    @Override
+    public synchronized void onUpdated(RealEstate previous, RealEstate current) {
+        aggregates.apply(previous, -1);
+        aggregates.apply(current, 1);
+        snapshot = null;
+    }
+
+    @Override
+    public synchronized void onDeleted(RealEstate realEstate) {
+        aggregates.apply(realEstate, -1);
+        snapshot = null;
+    }
+
+    // Lo snapshot viene ricalcolato solo dopo una modifica, scorrendo i bucket degli sketch e non i RealEstate
+    @Override
+    public synchronized MarketStatsResponse getStats() {
+        if (snapshot == null) {
+            snapshot = aggregates.toResponse();
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void start() {
+        rebuild();
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return INITIAL_SCAN_PHASE;
+    }
+
+    private static final class Aggregates {
+
+        private final QuantileSketch prices;
+        private final QuantileSketch pricesPerSqMeter;
+        private final Map<Integer, Long> roomsHistogram = new TreeMap<>();
+        private long count;
+        private double priceSum;
+        // Solo i RealEstate con prezzo e metri quadri, per la media pesata del prezzo al metro quadro
+        private double pricedSqMetersPriceSum;
+        private double pricedSqMetersSum;
+
+        private Aggregates(double relativeAccuracy) {
+            this.prices = new QuantileSketch(relativeAccuracy);
+            this.pricesPerSqMeter = new QuantileSketch(relativeAccuracy);
+        }
+
+        // sign vale 1 per aggiungere il RealEstate agli aggregati e -1 per toglierlo
+        private void apply(RealEstate realEstate, int sign) {
+            count += sign;
+            Double price = realEstate.getPrice();
+            Double sqMeters = realEstate.getSqMeters();
+            if (price != null) {
+                priceSum += sign * price;
+                update(prices, price, sign);
+                if (sqMeters != null && sqMeters > 0) {
+                    pricedSqMetersPriceSum += sign * price;
+                    pricedSqMetersSum += sign * sqMeters;
+                    update(pricesPerSqMeter, price / sqMeters, sign);
+                }
+            }
+            if (realEstate.getRooms() != null && (sign > 0 || roomsHistogram.containsKey(realEstate.getRooms()))) {
+                roomsHistogram.merge(realEstate.getRooms(), (long) sign, (current, delta) -> current + delta == 0 ? null : current + delta);
+            }
+        }
+
+        private static void update(QuantileSketch sketch, double value, int sign) {
+            if (sign > 0) {
+                sketch.add(value);
+            } else {
+                sketch.remove(value);
+            }
+        }
+
+        private MarketStatsResponse toResponse() {
+            return new MarketStatsResponse(
+                    count,
+                    prices.getCount() > 0 ? priceSum / prices.getCount() : null,
+                    pricedSqMetersSum > 0 ? pricedSqMetersPriceSum / pricedSqMetersSum : null,
+                    percentiles(prices),
+                    percentiles(pricesPerSqMeter),
+                    new LinkedHashMap<>(roomsHistogram)
+            );
+        }
+
+        private static Map<String, Double> percentiles(QuantileSketch sketch) {
+            Map<String, Double> percentiles = new LinkedHashMap<>();
+            for (double percentile : MarketStatsResponse.PERCENTILES) {
+                percentiles.put(MarketStatsResponse.percentileKey(percentile), sketch.quantile(percentile));
+            }
+            return percentiles;
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+package my.wikicasa.web.stats;
+
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.repository.RealEstateRepository;
+import my.wikicasa.web.response.MarketStatsResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+// Statistiche calcolate da PostgreSQL nelle viste materializzate e aggiornate periodicamente:
+// le scritture non le toccano, quindi i valori possono essere indietro al massimo di un intervallo di refresh
+@Component
+@ConditionalOnProperty(name = "realestate.stats.mode", havingValue = "materialized-view")
+public class MaterializedViewRealEstateStats implements RealEstateStats {
+
+    private final RealEstateRepository realEstateRepository;
+    private volatile MarketStatsResponse snapshot;
+
+    public MaterializedViewRealEstateStats(RealEstateRepository realEstateRepository) {
+        this.realEstateRepository = realEstateRepository;
+    }
+
+    // Il primo refresh parte all'avvio: le viste create con lo schema o lasciate dall'ultima esecuzione possono essere vecchie
+    @Scheduled(fixedDelayString = "${realestate.stats.refresh-interval}")
+    public void refresh() {
+        realEstateRepository.refreshMarketStats();
+        snapshot = realEstateRepository.findMarketStats();
+    }
+
+    @Override
+    public void onCreated(RealEstate realEstate) {
+    }
+
+    @Override
+    public void onUpdated(RealEstate previous, RealEstate current) {
+    }
+
+    @Override
+    public void onDeleted(RealEstate realEstate) {
+    }
+
+    // Una richiesta che arriva prima del refresh di avvio lo anticipa invece di leggere le viste non aggiornate
+    @Override
+    public MarketStatsResponse getStats() {
+        MarketStatsResponse current = snapshot;
+        if (current == null) {
+            refresh();
+            current = snapshot;
+        }
+        return current;
+    }
+
+}
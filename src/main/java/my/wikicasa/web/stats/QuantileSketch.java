@@ -0,0 +1,98 @@
+package my.wikicasa.web.stats;
+
+import java.util.Arrays;
+
+// Sketch dei quantili con errore relativo garantito, sul modello di DDSketch: ogni valore positivo
+// finisce nel bucket ceil(log_gamma(v)), quindi i conteggi si possono anche decrementare quando un valore viene rimosso.
+// La memoria dipende dall'intervallo dei valori e non dal loro numero. Non è thread-safe.
+public class QuantileSketch {
+
+    private static final int INITIAL_BUCKETS = 128;
+
+    private final double gamma;
+    private final double logGamma;
+    private long[] counts = new long[0];
+    private int minIndex;
+    private long zeroCount;
+    private long count;
+
+    public QuantileSketch(double relativeAccuracy) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("The relative accuracy must be between 0 and 1");
+        }
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public void add(double value) {
+        if (value <= 0) {
+            zeroCount++;
+        } else {
+            int index = index(value);
+            ensureCapacity(index);
+            counts[index - minIndex]++;
+        }
+        count++;
+    }
+
+    // Rimuove un valore aggiunto in precedenza; i valori mai aggiunti vengono ignorati
+    public void remove(double value) {
+        if (value <= 0) {
+            if (zeroCount == 0) {
+                return;
+            }
+            zeroCount--;
+        } else {
+            int position = index(value) - minIndex;
+            if (position < 0 || position >= counts.length || counts[position] == 0) {
+                return;
+            }
+            counts[position]--;
+        }
+        count--;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // Restituisce il quantile richiesto (tra 0 e 1), oppure null se lo sketch è vuoto
+    public Double quantile(double quantile) {
+        if (count == 0) {
+            return null;
+        }
+        long rank = (long) (quantile * (count - 1));
+        long seen = zeroCount;
+        if (rank < seen) {
+            return 0.0;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (rank < seen) {
+                // Punto medio del bucket, con errore relativo entro la precisione richiesta
+                return 2 * Math.pow(gamma, minIndex + i) / (gamma + 1);
+            }
+        }
+        throw new IllegalStateException("Inconsistent sketch counts");
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    private void ensureCapacity(int index) {
+        if (counts.length == 0) {
+            counts = new long[INITIAL_BUCKETS];
+            minIndex = index - INITIAL_BUCKETS / 2;
+        } else if (index < minIndex) {
+            int newMinIndex = Math.min(index, minIndex - counts.length);
+            long[] grown = new long[counts.length + minIndex - newMinIndex];
+            System.arraycopy(counts, 0, grown, minIndex - newMinIndex, counts.length);
+            counts = grown;
+            minIndex = newMinIndex;
+        } else if (index >= minIndex + counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index - minIndex + 1, counts.length * 2));
+        }
+    }
+
+}
@@ -0,0 +1,12 @@
+package my.wikicasa.web.stats;
+
+import my.wikicasa.web.response.MarketStatsResponse;
+import my.wikicasa.web.service.RealEstateChangeListener;
+
+// Statistiche di mercato aggiornate dal service a ogni scrittura.
+// L'implementazione è scelta con realestate.stats.mode (memory oppure materialized-view)
+public interface RealEstateStats extends RealEstateChangeListener {
+
+    MarketStatsResponse getStats();
+
+}
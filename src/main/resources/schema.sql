@@ -1,4 +1,5 @@
-DROP TABLE IF EXISTS real_estate;
+-- Idempotente e non distruttivo: può essere rieseguito su un database esistente senza toccarne i dati
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
 CREATE TABLE IF NOT EXISTS real_estate
 (
     id        SERIAL PRIMARY KEY,
@@ -8,7 +9,117 @@ CREATE TABLE IF NOT EXISTS real_estate
     rooms     INT,
     bathrooms INT,
     sq_meters DOUBLE PRECISION,
+    version   BIGINT       NOT NULL DEFAULT 0,
     CONSTRAINT unique_real_estate UNIQUE (name, address, price)
 );
+CREATE INDEX IF NOT EXISTS idx_real_estate_price ON real_estate (price, id);
+CREATE INDEX IF NOT EXISTS idx_real_estate_rooms_price ON real_estate (rooms, price);
+CREATE INDEX IF NOT EXISTS idx_real_estate_bathrooms_price ON real_estate (bathrooms, price);
+CREATE INDEX IF NOT EXISTS idx_real_estate_sq_meters ON real_estate (sq_meters, id);
+CREATE INDEX IF NOT EXISTS idx_real_estate_name_trgm ON real_estate USING GIN (name gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_real_estate_address_trgm ON real_estate USING GIN (address gin_trgm_ops);
+CREATE MATERIALIZED VIEW IF NOT EXISTS real_estate_market_stats AS
+SELECT 1                                                                                  AS id,
+       count(*)                                                                           AS listings,
+       avg(price)::DOUBLE PRECISION                                                       AS average_price,
+       (sum(price) FILTER (WHERE sq_meters > 0)
+           / NULLIF(sum(sq_meters) FILTER (WHERE price IS NOT NULL AND sq_meters > 0), 0))::DOUBLE PRECISION
+                                                                                          AS average_price_per_sq_meter,
+       percentile_cont(ARRAY [0.25, 0.5, 0.75, 0.9, 0.99]) WITHIN GROUP (ORDER BY price::DOUBLE PRECISION)
+                                                                                          AS price_percentiles,
+       percentile_cont(ARRAY [0.25, 0.5, 0.75, 0.9, 0.99]) WITHIN GROUP (ORDER BY price / sq_meters)
+           FILTER (WHERE sq_meters > 0)                                                   AS price_per_sq_meter_percentiles
+FROM real_estate;
+CREATE UNIQUE INDEX IF NOT EXISTS idx_real_estate_market_stats ON real_estate_market_stats (id);
+CREATE MATERIALIZED VIEW IF NOT EXISTS real_estate_rooms_histogram AS
+SELECT rooms, count(*) AS listings
+FROM real_estate
+WHERE rooms IS NOT NULL
+GROUP BY rooms;
+CREATE UNIQUE INDEX IF NOT EXISTS idx_real_estate_rooms_histogram ON real_estate_rooms_histogram (rooms);
+-- Registro delle modifiche per il feed /api/realestate/changes: ogni riga di real_estate scritta lascia qui
+-- una copia con un numero di sequenza, notificato sul canale real_estate_changes al commit.
+-- La sequenza definitiva è assegnata al commit, nell'ordine dei commit (vedi real_estate_sequence_changes)
+CREATE TABLE IF NOT EXISTS real_estate_change_log
+(
+    seq        BIGSERIAL PRIMARY KEY,
+    sequenced  BOOLEAN     NOT NULL DEFAULT true,
+    type       VARCHAR(7)  NOT NULL,
+    changed_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+    id         INT         NOT NULL,
+    name       VARCHAR(255),
+    address    VARCHAR(255),
+    price      NUMERIC(10, 2),
+    rooms      INT,
+    bathrooms  INT,
+    sq_meters  DOUBLE PRECISION,
+    version    BIGINT
+);
+ALTER TABLE real_estate_change_log ADD COLUMN IF NOT EXISTS sequenced BOOLEAN NOT NULL DEFAULT true;
+CREATE INDEX IF NOT EXISTS idx_real_estate_change_log_changed_at ON real_estate_change_log (changed_at);
+CREATE INDEX IF NOT EXISTS idx_real_estate_change_log_pending ON real_estate_change_log (seq) WHERE NOT sequenced;
+CREATE OR REPLACE FUNCTION real_estate_log_change() RETURNS TRIGGER AS
+$$
+DECLARE
+    source real_estate;
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        source := OLD;
+    ELSE
+        source := NEW;
+    END IF;
+    INSERT INTO real_estate_change_log (sequenced, type, id, name, address, price, rooms, bathrooms, sq_meters, version)
+    VALUES (false, CASE TG_OP WHEN 'INSERT' THEN 'CREATED' WHEN 'UPDATE' THEN 'UPDATED' ELSE 'DELETED' END,
+            source.id, source.name, source.address, source.price, source.rooms, source.bathrooms, source.sq_meters,
+            source.version);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+-- La sequenza assegnata all'inserimento segue l'ordine delle scritture, non dei commit: chi legge il registro
+-- per sequenza crescente salterebbe una riga con sequenza minore resa visibile dopo una maggiore.
+-- Al commit le righe della transazione ricevono una nuova sequenza sotto un advisory lock tenuto fino alla fine
+-- del commit, quindi le sequenze diventano visibili in ordine crescente; la notifica parte con la sequenza definitiva.
+-- Il primo trigger della transazione le assegna tutte, i successivi non trovano più righe da assegnare.
+-- Costo: la parte finale dei commit che scrivono real_estate viene serializzata
+CREATE OR REPLACE FUNCTION real_estate_sequence_changes() RETURNS TRIGGER AS
+$$
+DECLARE
+    pending  BIGINT;
+    assigned BIGINT;
+BEGIN
+    PERFORM pg_advisory_xact_lock(hashtext('real_estate_change_log'));
+    FOR pending IN SELECT seq FROM real_estate_change_log WHERE NOT sequenced ORDER BY seq
+        LOOP
+            UPDATE real_estate_change_log
+            SET seq       = nextval('real_estate_change_log_seq_seq'),
+                sequenced = true
+            WHERE seq = pending
+            RETURNING seq INTO assigned;
+            PERFORM pg_notify('real_estate_changes', assigned::TEXT);
+        END LOOP;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+DO
+$$
+    BEGIN
+        IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'real_estate_change_sequence_trigger') THEN
+            CREATE CONSTRAINT TRIGGER real_estate_change_sequence_trigger
+                AFTER INSERT
+                ON real_estate_change_log
+                DEFERRABLE INITIALLY DEFERRED
+                FOR EACH ROW
+            EXECUTE FUNCTION real_estate_sequence_changes();
+        END IF;
+    END
+$$;
+CREATE OR REPLACE TRIGGER real_estate_change_trigger
+    AFTER INSERT OR UPDATE OR DELETE
+    ON real_estate
+    FOR EACH ROW
+EXECUTE FUNCTION real_estate_log_change();
 GRANT ALL PRIVILEGES ON TABLE real_estate TO testuser;
-GRANT USAGE, SELECT ON SEQUENCE real_estate_id_seq TO testuser;
\ No newline at end of file
+GRANT ALL PRIVILEGES ON TABLE real_estate_change_log TO testuser;
+GRANT USAGE, SELECT ON SEQUENCE real_estate_change_log_seq_seq TO testuser;
+GRANT USAGE, SELECT ON SEQUENCE real_estate_id_seq TO testuser;
+GRANT SELECT ON real_estate_market_stats, real_estate_rooms_histogram TO testuser;
\ No newline at end of file
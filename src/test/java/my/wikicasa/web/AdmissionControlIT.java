@@ -0,0 +1,126 @@
+package my.wikicasa.web;
+
+import io.restassured.RestAssured;
+import my.wikicasa.web.config.SlowDatabaseConfig;
+import my.wikicasa.web.config.TestDatabaseConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "realestate.admission.enabled=true",
+        "realestate.admission.initial-limit=4",
+        "realestate.admission.min-limit=2",
+        "realestate.admission.max-limit=20",
+        "realestate.admission.max-queue-size=4",
+        "realestate.admission.queue-timeout=100ms",
+        "realestate.bulkhead.enabled=true",
+        "realestate.bulkhead.max-concurrent-connections=" + AdmissionControlIT.CONNECTIONS,
+        "realestate.bulkhead.acquire-timeout=30s"
+})
+@ContextConfiguration(classes = {TestDatabaseConfig.class, SlowDatabaseConfig.class})
+@ActiveProfiles("test")
+@AutoConfigureObservability
+@Testcontainers
+public class AdmissionControlIT {
+
+    static final int CONNECTIONS = 4;
+    private static final int REQUESTS = 150;
+    private static final Duration LATENCY = Duration.ofMillis(100);
+
+    @LocalServerPort
+    private int port;
+
+    @BeforeEach
+    public void beforeEach() {
+        RestAssured.port = port;
+    }
+
+    @AfterEach
+    public void afterEach() {
+        SlowDatabaseConfig.setLatency(Duration.ZERO);
+    }
+
+    @Test
+    public void shouldShedExcessLoadAndKeepLatencyBoundedWhenDatabaseSlowsDown() throws Exception {
+        SlowDatabaseConfig.setLatency(LATENCY);
+        List<Result> results = burst(REQUESTS);
+
+        List<Long> admitted = results.stream().filter(result -> result.status() == HttpStatus.OK.value()).map(Result::millis).sorted().toList();
+        List<Result> rejected = results.stream().filter(result -> result.status() == HttpStatus.SERVICE_UNAVAILABLE.value()).toList();
+        Assertions.assertEquals(REQUESTS, admitted.size() + rejected.size(), () -> "Unexpected statuses in " + results);
+        Assertions.assertFalse(admitted.isEmpty());
+        Assertions.assertFalse(rejected.isEmpty());
+        rejected.forEach(result -> Assertions.assertEquals("1", result.retryAfter()));
+
+        // Senza controllo di ammissione tutte le richieste resterebbero in coda sul bulkhead
+        // e le ultime attenderebbero circa REQUESTS / CONNECTIONS * LATENCY
+        long backlogMillis = REQUESTS / CONNECTIONS * LATENCY.toMillis();
+        long p99 = percentile(admitted, 0.99);
+        Assertions.assertTrue(p99 < backlogMillis / 3, () -> "Admitted p99 " + p99 + " ms with " + admitted.size() + " admitted and "
+                + rejected.size() + " rejected, backlog " + backlogMillis + " ms");
+        long rejectedP99 = percentile(rejected.stream().map(Result::millis).sorted().toList(), 0.99);
+        Assertions.assertTrue(rejectedP99 < backlogMillis / 3, () -> "Rejections took up to " + rejectedP99 + " ms");
+
+        given().when().get(MetricsIT.PROMETHEUS_API).then()
+                .statusCode(HttpStatus.OK.value())
+                .body(containsString("realestate_admission_limit "))
+                .body(containsString("realestate_admission_rejected_total{priority=\"interactive\"}"));
+    }
+
+    // Tutte le richieste partono insieme, ognuna su un virtual thread
+    private List<Result> burst(int requests) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + RealEstateControllerIT.SEARCH_API + "?minPrice=1")).build();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Result> results = new ArrayList<>();
+        try (HttpClient client = HttpClient.newHttpClient(); ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    long begin = System.nanoTime();
+                    HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                    return new Result(response.statusCode(), (System.nanoTime() - begin) / 1_000_000,
+                            response.headers().firstValue(HttpHeaders.RETRY_AFTER).orElse(null));
+                }));
+            }
+            start.countDown();
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        }
+        return results;
+    }
+
+    private static long percentile(List<Long> sortedMillis, double percentile) {
+        return sortedMillis.get((int) Math.ceil(percentile * sortedMillis.size()) - 1);
+    }
+
+    private record Result(int status, long millis, String retryAfter) {
+    }
+
+}
@@ -0,0 +1,238 @@
+package my.wikicasa.web;
+
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
+import io.restassured.response.Response;
+import my.wikicasa.web.config.TestDatabaseConfig;
+import my.wikicasa.web.entity.RealEstate;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static io.restassured.RestAssured.given;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ContextConfiguration(classes = {TestDatabaseConfig.class})
+@ActiveProfiles("test")
+@Testcontainers
+public class ChangeFeedIT {
+
+    public static final String CHANGES_API = RealEstateControllerIT.BASE_API + "/changes";
+
+    private static final long EVENT_TIMEOUT_SECONDS = 10;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @BeforeEach
+    public void beforeEach() {
+        RestAssured.port = port;
+    }
+
+    @Test
+    public void shouldStreamCreateUpdateAndDeleteEvents() throws Exception {
+        try (EventStream events = EventStream.open(port, null)) {
+            Long id = create(new RealEstate("feedName", "feedAddress", 99_999., 4, 1, 89.));
+            given().contentType(ContentType.JSON).body(Map.of("price", 120_000)).when().put(RealEstateControllerIT.PUT_API, id)
+                    .then().statusCode(HttpStatus.OK.value());
+            given().when().delete(RealEstateControllerIT.DELETE_API, id).then().statusCode(HttpStatus.NO_CONTENT.value());
+
+            Event created = events.next();
+            Assertions.assertEquals("created", created.name());
+            Assertions.assertEquals(id, created.data().getLong("realEstate.id"));
+            Assertions.assertEquals("feedName", created.data().getString("realEstate.name"));
+            Assertions.assertEquals(created.id(), created.data().getLong("seq"));
+
+            Event updated = events.next();
+            Assertions.assertEquals("updated", updated.name());
+            Assertions.assertEquals(120_000., updated.data().getDouble("realEstate.price"));
+            Assertions.assertTrue(updated.id() > created.id());
+
+            Event deleted = events.next();
+            Assertions.assertEquals("deleted", deleted.name());
+            Assertions.assertEquals(id, deleted.data().getLong("realEstate.id"));
+        }
+    }
+
+    @Test
+    public void shouldResumeFromLastEventId() throws Exception {
+        long lastEventId;
+        Long firstId;
+        try (EventStream events = EventStream.open(port, null)) {
+            firstId = create(new RealEstate("resumeName1", "resumeAddress1", 99_999., 4, 1, 89.));
+            lastEventId = events.next().id();
+        }
+
+        // Modifiche fatte mentre il client è disconnesso: arrivano dal registro alla riconnessione
+        Long secondId = create(new RealEstate("resumeName2", "resumeAddress2", 99_999., 4, 1, 89.));
+        given().when().delete(RealEstateControllerIT.DELETE_API, firstId).then().statusCode(HttpStatus.NO_CONTENT.value());
+
+        try (EventStream events = EventStream.open(port, lastEventId)) {
+            Event created = events.next();
+            Assertions.assertEquals("created", created.name());
+            Assertions.assertEquals(secondId, created.data().getLong("realEstate.id"));
+            Assertions.assertEquals(lastEventId + 1, created.id());
+
+            Event deleted = events.next();
+            Assertions.assertEquals("deleted", deleted.name());
+            Assertions.assertEquals(firstId, deleted.data().getLong("realEstate.id"));
+
+            // Dopo la ripresa lo stream continua con le modifiche in tempo reale
+            given().when().delete(RealEstateControllerIT.DELETE_API, secondId).then().statusCode(HttpStatus.NO_CONTENT.value());
+            Event live = events.next();
+            Assertions.assertEquals("deleted", live.name());
+            Assertions.assertEquals(secondId, live.data().getLong("realEstate.id"));
+        }
+    }
+
+    // Il primo INSERT riceve la sequenza provvisoria minore ma esegue il commit per secondo: l'evento arriva
+    // comunque, dopo l'altro e con una sequenza maggiore
+    @Test
+    public void shouldStreamTransactionsInCommitOrder() throws Exception {
+        try (EventStream events = EventStream.open(port, null);
+             Connection first = dataSource.getConnection();
+             Connection second = dataSource.getConnection()) {
+            first.setAutoCommit(false);
+            second.setAutoCommit(false);
+            insert(first, "commitOrderName1");
+            insert(second, "commitOrderName2");
+            second.commit();
+            first.commit();
+
+            Event committedFirst = events.next();
+            Event committedSecond = events.next();
+            Assertions.assertEquals("commitOrderName2", committedFirst.data().getString("realEstate.name"));
+            Assertions.assertEquals("commitOrderName1", committedSecond.data().getString("realEstate.name"));
+            Assertions.assertTrue(committedSecond.id() > committedFirst.id());
+
+            // Anche la ripresa da prima delle due transazioni le restituisce entrambe, nell'ordine dei commit
+            try (EventStream resumed = EventStream.open(port, committedFirst.id() - 1)) {
+                Assertions.assertEquals(committedFirst.id(), resumed.next().id());
+                Assertions.assertEquals(committedSecond.id(), resumed.next().id());
+            }
+            given().when().delete(RealEstateControllerIT.DELETE_API, committedFirst.data().getLong("realEstate.id"))
+                    .then().statusCode(HttpStatus.NO_CONTENT.value());
+            given().when().delete(RealEstateControllerIT.DELETE_API, committedSecond.data().getLong("realEstate.id"))
+                    .then().statusCode(HttpStatus.NO_CONTENT.value());
+        }
+    }
+
+    private static void insert(Connection connection, String name) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO real_estate (name, address, price, rooms, bathrooms, sq_meters) "
+                + "VALUES (?, 'commitOrderAddress', 99999, 4, 1, 89)")) {
+            statement.setString(1, name);
+            statement.executeUpdate();
+        }
+    }
+
+    private static Long create(RealEstate realEstate) {
+        Response response = given().contentType(ContentType.JSON).body(realEstate).when().post(RealEstateControllerIT.BASE_API);
+        response.then().statusCode(HttpStatus.CREATED.value());
+        return response.jsonPath().getLong("id");
+    }
+
+    private record Event(Long id, String name, JsonPath data) {
+    }
+
+    // Client SSE minimo: legge le righe dello stream su un thread separato e le raggruppa in eventi
+    private static final class EventStream implements AutoCloseable {
+
+        private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+        private final HttpClient client;
+        private final Stream<String> lines;
+
+        private EventStream(HttpClient client, Stream<String> lines) {
+            this.client = client;
+            this.lines = lines;
+            Thread.ofVirtual().start(this::read);
+        }
+
+        static EventStream open(int port, Long lastEventId) throws IOException, InterruptedException {
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + CHANGES_API))
+                    .header(HttpHeaders.ACCEPT, MediaType.TEXT_EVENT_STREAM_VALUE);
+            if (lastEventId != null) {
+                request.header("Last-Event-ID", lastEventId.toString());
+            }
+            HttpClient client = HttpClient.newHttpClient();
+            HttpResponse<Stream<String>> response = client.send(request.build(), HttpResponse.BodyHandlers.ofLines());
+            Assertions.assertEquals(HttpStatus.OK.value(), response.statusCode());
+            return new EventStream(client, response.body());
+        }
+
+        private void read() {
+            Long id = null;
+            String name = null;
+            StringBuilder data = new StringBuilder();
+            Iterator<String> iterator = lines.iterator();
+            try {
+                while (iterator.hasNext()) {
+                    String line = iterator.next();
+                    if (line.isEmpty()) {
+                        if (!data.isEmpty()) {
+                            events.add(new Event(id, name, new JsonPath(data.toString())));
+                        }
+                        id = null;
+                        name = null;
+                        data.setLength(0);
+                    } else if (line.startsWith("id:")) {
+                        id = Long.valueOf(field(line));
+                    } else if (line.startsWith("event:")) {
+                        name = field(line);
+                    } else if (line.startsWith("data:")) {
+                        data.append(field(line));
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Stream chiuso da close()
+            }
+        }
+
+        private static String field(String line) {
+            String value = line.substring(line.indexOf(':') + 1);
+            return value.startsWith(" ") ? value.substring(1) : value;
+        }
+
+        Event next() throws InterruptedException {
+            Event event = events.poll(EVENT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            Assertions.assertNotNull(event, "No change event received");
+            return event;
+        }
+
+        @Override
+        public void close() {
+            lines.close();
+            client.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,106 @@
+package my.wikicasa.web;
+
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
+import io.restassured.response.Response;
+import my.wikicasa.web.config.TestDatabaseConfig;
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.repository.RealEstateRepository;
+import my.wikicasa.web.response.MarketStatsResponse;
+import my.wikicasa.web.stats.InMemoryRealEstateStats;
+import my.wikicasa.web.stats.MaterializedViewRealEstateStats;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static io.restassured.RestAssured.given;
+
+// Dopo un refresh le viste materializzate devono dare gli stessi numeri degli aggregati in memoria, calcolati qui
+// sulle stesse righe. I percentili possono differire per l'accuratezza dello sketch e per l'interpolazione di percentile_cont
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "realestate.stats.mode=materialized-view")
+@ContextConfiguration(classes = {TestDatabaseConfig.class})
+@ActiveProfiles("test")
+@Testcontainers
+public class MaterializedViewStatsIT {
+
+    private static final double PERCENTILE_TOLERANCE = 0.05;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private MaterializedViewRealEstateStats marketStats;
+
+    @Autowired
+    private RealEstateRepository realEstateRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${realestate.export.fetch-size}")
+    private int fetchSize;
+
+    @Value("${realestate.stats.relative-accuracy}")
+    private double relativeAccuracy;
+
+    @BeforeEach
+    public void beforeEach() {
+        RestAssured.port = port;
+    }
+
+    @Test
+    public void shouldServeTheInMemoryNumbersAfterRefresh() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i <= 100; i++) {
+            ids.add(create(new RealEstate("viewStatsName" + i, "viewStatsAddress" + i, 100_000. + i * 1_000, 1 + i % 5, 1, 50. + i)));
+        }
+        marketStats.refresh();
+        JsonPath stats = given().when().get(RealEstateControllerIT.MARKET_STATS_API)
+                .then().statusCode(HttpStatus.OK.value()).extract().jsonPath();
+
+        InMemoryRealEstateStats inMemoryStats = new InMemoryRealEstateStats(realEstateRepository, transactionTemplate, fetchSize, relativeAccuracy);
+        inMemoryStats.rebuild();
+        MarketStatsResponse expected = inMemoryStats.getStats();
+
+        Assertions.assertEquals(expected.getCount(), stats.getLong("count"));
+        Assertions.assertEquals(expected.getAveragePrice(), stats.getDouble("averagePrice"), 1e-9 * expected.getAveragePrice());
+        Assertions.assertEquals(expected.getAveragePricePerSqMeter(), stats.getDouble("averagePricePerSqMeter"),
+                1e-9 * expected.getAveragePricePerSqMeter());
+        assertPercentiles(expected.getPricePercentiles(), stats.getMap("pricePercentiles"));
+        assertPercentiles(expected.getPricePerSqMeterPercentiles(), stats.getMap("pricePerSqMeterPercentiles"));
+
+        Map<String, Object> roomsHistogram = stats.getMap("roomsHistogram");
+        Assertions.assertEquals(expected.getRoomsHistogram().size(), roomsHistogram.size());
+        expected.getRoomsHistogram().forEach((rooms, listings) ->
+                Assertions.assertEquals(listings, ((Number) roomsHistogram.get(rooms.toString())).longValue(), () -> "rooms " + rooms));
+
+        ids.forEach(realEstateRepository::deleteById);
+    }
+
+    private static void assertPercentiles(Map<String, Double> expected, Map<String, Object> actual) {
+        Assertions.assertEquals(expected.keySet(), actual.keySet());
+        expected.forEach((key, value) -> Assertions.assertEquals(value, ((Number) actual.get(key)).doubleValue(),
+                PERCENTILE_TOLERANCE * value, () -> key + " in " + actual));
+    }
+
+    private static Long create(RealEstate realEstate) {
+        Response response = given().contentType(ContentType.JSON).body(realEstate).when().post(RealEstateControllerIT.BASE_API);
+        response.then().statusCode(HttpStatus.CREATED.value());
+        return response.jsonPath().getLong("id");
+    }
+
+}
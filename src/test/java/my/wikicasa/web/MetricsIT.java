@@ -0,0 +1,61 @@
+package my.wikicasa.web;
+
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.response.Response;
+import my.wikicasa.web.config.TestDatabaseConfig;
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.repository.RealEstateRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ContextConfiguration(classes = {TestDatabaseConfig.class})
+@ActiveProfiles("test")
+@AutoConfigureObservability
+@Testcontainers
+public class MetricsIT {
+
+    public static final String PROMETHEUS_API = "/actuator/prometheus";
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private RealEstateRepository realEstateRepository;
+
+    @BeforeEach
+    public void beforeEach() {
+        RestAssured.port = port;
+    }
+
+    @Test
+    public void shouldExposeRepositoryAndEndpointMetrics() {
+        RealEstate realEstate = new RealEstate("metricsName", "metricsAddress", 99_999., 4, 1, 89.);
+        Response postResponse = given().contentType(ContentType.JSON).body(realEstate).when().post(RealEstateControllerIT.BASE_API);
+        Long id = postResponse.jsonPath().getLong("id");
+        given().when().get(RealEstateControllerIT.GET_API, id).then().statusCode(HttpStatus.OK.value());
+
+        given().when().get(PROMETHEUS_API).then()
+                .statusCode(HttpStatus.OK.value())
+                .body(containsString("realestate_repository_seconds_bucket{"))
+                .body(containsString("operation=\"save\""))
+                .body(containsString("realestate_repository_rows_count{"))
+                .body(containsString("http_server_requests_seconds_count{"))
+                .body(containsString("uri=\"/api/realestate/{id}\""))
+                .body(containsString("cache_gets_total{"));
+        realEstateRepository.deleteById(id);
+    }
+
+}
@@ -0,0 +1,16 @@
+package my.wikicasa.web;
+
+import my.wikicasa.web.config.ReactiveTestDatabaseConfig;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+// Stessi test di ChangeFeedIT contro lo stack WebFlux, dove il feed è servito come Flux di ServerSentEvent
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.main.web-application-type=reactive")
+@ContextConfiguration(classes = {ReactiveTestDatabaseConfig.class})
+@ActiveProfiles({"test", "reactive"})
+@Testcontainers
+public class ReactiveChangeFeedIT extends ChangeFeedIT {
+}
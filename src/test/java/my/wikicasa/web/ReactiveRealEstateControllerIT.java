@@ -0,0 +1,17 @@
+package my.wikicasa.web;
+
+import my.wikicasa.web.config.ReactiveTestDatabaseConfig;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+// Stessi test di RealEstateControllerIT eseguiti contro lo stack WebFlux + R2DBC: il contratto dell'API deve coincidere.
+// Il tipo di applicazione va indicato qui perché SpringBootTest lo decide prima di leggere i file dei profili
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.main.web-application-type=reactive")
+@ContextConfiguration(classes = {ReactiveTestDatabaseConfig.class})
+@ActiveProfiles({"test", "reactive"})
+@Testcontainers
+public class ReactiveRealEstateControllerIT extends RealEstateControllerIT {
+}
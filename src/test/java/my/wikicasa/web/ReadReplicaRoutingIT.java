@@ -0,0 +1,111 @@
+package my.wikicasa.web;
+
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.response.Response;
+import my.wikicasa.web.config.TestDatabaseConfig;
+import my.wikicasa.web.entity.RealEstate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.MountableFile;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static io.restassured.RestAssured.given;
+import static my.wikicasa.web.filter.ReadYourWritesFilter.CLIENT_ID_HEADER;
+import static org.hamcrest.Matchers.containsString;
+
+// Il primario è il container di TestDatabaseConfig, la replica un secondo container con lo stesso schema.
+// Tra i due non c'è replica reale: una riga presente in uno solo dei due rivela dove è andata la lettura
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "realestate.routing.enabled=true",
+        "realestate.routing.sticky-window=1m"
+})
+@ContextConfiguration(classes = {TestDatabaseConfig.class})
+@ActiveProfiles("test")
+@Testcontainers
+public class ReadReplicaRoutingIT {
+
+    private static final long REPLICA_ONLY_ID = 1_000_000;
+
+    @Container
+    private static final PostgreSQLContainer<?> REPLICA = new PostgreSQLContainer<>("postgres:16-alpine")
+            .withDatabaseName("testdb")
+            .withUsername("testuser")
+            .withPassword("testpass")
+            // Eseguito da psql all'avvio del container, che gestisce i corpi delle funzioni plpgsql
+            .withCopyFileToContainer(MountableFile.forClasspathResource("schema.sql"), "/docker-entrypoint-initdb.d/schema.sql");
+
+    @DynamicPropertySource
+    static void replicaProperties(DynamicPropertyRegistry registry) {
+        registry.add("realestate.routing.replica-urls", REPLICA::getJdbcUrl);
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @BeforeEach
+    public void beforeEach() {
+        RestAssured.port = port;
+    }
+
+    @Test
+    public void shouldServeReadsFromReplica() throws SQLException {
+        executeOnReplica("INSERT INTO real_estate (id, name, address, price, rooms, bathrooms, sq_meters) "
+                + "VALUES (" + REPLICA_ONLY_ID + ", 'replicaName', 'replicaAddress', 120000, 3, 1, 70)");
+        try {
+            given().header(CLIENT_ID_HEADER, "reader").when().get(RealEstateControllerIT.GET_API, REPLICA_ONLY_ID).then()
+                    .statusCode(HttpStatus.OK.value())
+                    .body(containsString("replicaName"));
+        } finally {
+            executeOnReplica("DELETE FROM real_estate WHERE id = " + REPLICA_ONLY_ID);
+        }
+        // Le letture servite dalla replica non finiscono in cache
+        given().header(CLIENT_ID_HEADER, "reader").when().get(RealEstateControllerIT.GET_API, REPLICA_ONLY_ID).then()
+                .statusCode(HttpStatus.NOT_FOUND.value());
+    }
+
+    @Test
+    public void shouldReadOwnWritesFromPrimary() {
+        RealEstate realEstate = new RealEstate("routingName", "routingAddress", 99_999., 4, 1, 89.);
+        Response created = given().header(CLIENT_ID_HEADER, "writer").contentType(ContentType.JSON).body(realEstate)
+                .when().post(RealEstateControllerIT.BASE_API);
+        created.then().statusCode(HttpStatus.CREATED.value());
+        Long id = created.jsonPath().getLong("id");
+
+        // Gli altri client leggono dalla replica, che non ha ricevuto la riga: il 404 non va in cache,
+        // e chi ha scritto rilegge la riga dal primario
+        given().header(CLIENT_ID_HEADER, "reader").when().get(RealEstateControllerIT.GET_API, id).then()
+                .statusCode(HttpStatus.NOT_FOUND.value());
+        given().header(CLIENT_ID_HEADER, "writer").when().get(RealEstateControllerIT.GET_API, id).then()
+                .statusCode(HttpStatus.OK.value());
+
+        // La lettura sul primario invece sì, e da lì la riga arriva anche agli altri client
+        given().header(CLIENT_ID_HEADER, "reader").when().get(RealEstateControllerIT.GET_API, id).then()
+                .statusCode(HttpStatus.OK.value());
+
+        given().header(CLIENT_ID_HEADER, "writer").when().delete(RealEstateControllerIT.DELETE_API, id).then()
+                .statusCode(HttpStatus.NO_CONTENT.value());
+    }
+
+    private static void executeOnReplica(String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(REPLICA.getJdbcUrl(), REPLICA.getUsername(), REPLICA.getPassword());
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+}
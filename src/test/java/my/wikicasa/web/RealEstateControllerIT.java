@@ -8,7 +8,9 @@ import io.restassured.response.Response;
 import io.restassured.specification.RequestSpecification;
 import my.wikicasa.web.config.TestDatabaseConfig;
 import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.protobuf.RealEstateProtobuf;
 import my.wikicasa.web.repository.RealEstateRepository;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
@@ -16,6 +18,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
@@ -27,6 +30,9 @@ import java.util.Map;
 import static io.restassured.RestAssured.given;
 import static my.wikicasa.web.ValidationMessages.*;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @ContextConfiguration(classes = {TestDatabaseConfig.class})
@@ -35,6 +41,14 @@ import static org.hamcrest.Matchers.containsString;
 public class RealEstateControllerIT {
 
     public static final String BASE_API = "/api/realestate";
+    public static final String BATCH_API = BASE_API + "/batch";
+    public static final String SEARCH_API = BASE_API + "/search";
+    public static final String EXPORT_API = BASE_API + "/export";
+    public static final String CACHE_STATS_API = BASE_API + "/cache/stats";
+    public static final String MARKET_STATS_API = BASE_API + "/stats";
+    public static final String AUTOCOMPLETE_API = BASE_API + "/autocomplete";
+    public static final String INGEST_STATUS_API = BASE_API + "/ingest/{token}";
+    public static final String SIMILAR_API = BASE_API + "/{id}/similar";
     public static final String GET_API = BASE_API + "/{id}";
     public static final String PUT_API = BASE_API + "/{id}";
     public static final String DELETE_API = BASE_API + "/{id}";
@@ -57,6 +71,7 @@ public class RealEstateControllerIT {
         Response response = performPostRequest(requestSpecification);
         Long generatedId = response.jsonPath().getLong("id");
         realEstate.setId(generatedId);
+        realEstate.setVersion(response.jsonPath().getLong("version"));
         return realEstate;
     }
 
@@ -72,6 +87,7 @@ public class RealEstateControllerIT {
             Response postResponse = performPostRequest(postRequest);
             Long generatedId = postResponse.jsonPath().getLong("id");
             realEstate.setId(generatedId);
+            realEstate.setVersion(postResponse.jsonPath().getLong("version"));
         });
 
         return realEstates;
@@ -82,7 +98,7 @@ public class RealEstateControllerIT {
     }
 
     private void deleteRealEstatesFromResponse(Response response) {
-        List<RealEstate> realEstates = response.jsonPath().getList("", RealEstate.class);
+        List<RealEstate> realEstates = response.jsonPath().getList("content", RealEstate.class);
 
         for (RealEstate realEstate : realEstates) {
             realEstateRepository.deleteById(realEstate.getId());
@@ -147,6 +163,7 @@ public class RealEstateControllerIT {
         RequestSpecification request = preparePostRequest(realEstate);
         Response response = performPostRequest(request);
         realEstate.setId(response.jsonPath().getLong("id"));
+        realEstate.setVersion(0L);
         verifyResponse(response, HttpStatus.CREATED.value(), realEstate.toJson());
         deleteRealEstateFromResponse(response);
     }
@@ -160,6 +177,109 @@ public class RealEstateControllerIT {
         realEstateRepository.deleteById(realEstate.getId());
     }
 
+    @Test
+    public void shouldCreateRealEstatesInBatchReportingPerRowErrors() {
+        List<RealEstate> realEstates = List.of(
+                createRealEstate(),
+                createRealEstate(),
+                new RealEstate("", "testAddress", 99_999., 4, 1, 89.)
+        );
+        RequestSpecification request = given().contentType(ContentType.JSON).body(realEstates);
+        Response response = request.when().post(BATCH_API);
+        verifyResponse(response, HttpStatus.OK.value(), null);
+        response.then()
+                .body("results[0].status", equalTo("CREATED"))
+                .body("results[1].status", equalTo("CONFLICT"))
+                .body("results[2].status", equalTo("INVALID"))
+                .body("results[2].errors.name", equalTo(NAME_CANNOT_BE_BLANK));
+        realEstateRepository.deleteById(response.jsonPath().getLong("results[0].id"));
+    }
+
+    @Test
+    public void shouldUpsertRealEstateReportingWhatChanged() {
+        RealEstate realEstate = createRealEstate();
+        Response response = preparePostRequest(realEstate).when().post(BASE_API + "?onConflict=update");
+        verifyResponse(response, HttpStatus.CREATED.value(), null);
+        response.then().body("status", equalTo("CREATED"));
+        Long id = response.jsonPath().getLong("realEstate.id");
+
+        response = preparePostRequest(realEstate).when().post(BASE_API + "?onConflict=update");
+        verifyResponse(response, HttpStatus.OK.value(), null);
+        response.then().body("status", equalTo("UNCHANGED")).body("realEstate.version", equalTo(0));
+
+        realEstate.setRooms(realEstate.getRooms() + 1);
+        response = preparePostRequest(realEstate).when().post(BASE_API + "?onConflict=ignore");
+        response.then().body("status", equalTo("UNCHANGED")).body("realEstate.rooms", equalTo(realEstate.getRooms() - 1));
+
+        response = preparePostRequest(realEstate).when().post(BASE_API + "?onConflict=update");
+        verifyResponse(response, HttpStatus.OK.value(), null);
+        response.then()
+                .body("status", equalTo("UPDATED"))
+                .body("realEstate.id", equalTo(id.intValue()))
+                .body("realEstate.rooms", equalTo(realEstate.getRooms()))
+                .body("realEstate.version", equalTo(1));
+        realEstateRepository.deleteById(id);
+    }
+
+    @Test
+    public void shouldUpsertRealEstatesInBatch() {
+        RealEstate existing = createRealEstateByAPI();
+        RealEstate changed = createRealEstate();
+        changed.setBathrooms(existing.getBathrooms() + 1);
+        List<RealEstate> realEstates = List.of(
+                changed,
+                new RealEstate("upsertName", "upsertAddress", 150_000., 3, 1, 75.),
+                new RealEstate("upsertName", "upsertAddress", 150_000., 4, 2, 80.)
+        );
+        Response response = given().contentType(ContentType.JSON).body(realEstates).when().post(BATCH_API + "?onConflict=update");
+        verifyResponse(response, HttpStatus.OK.value(), null);
+        response.then()
+                .body("results[0].status", equalTo("UPDATED"))
+                .body("results[0].id", equalTo(existing.getId().intValue()))
+                .body("results[1].status", equalTo("CREATED"))
+                .body("results[2].status", equalTo("CONFLICT"));
+        realEstateRepository.deleteById(existing.getId());
+        realEstateRepository.deleteById(response.jsonPath().getLong("results[1].id"));
+    }
+
+    @Test
+    public void shouldReturnBadRequestWhenOnConflictModeIsUnsupported() {
+        Response response = preparePostRequest(createRealEstate()).when().post(BASE_API + "?onConflict=replace");
+        verifyResponse(response, HttpStatus.BAD_REQUEST.value(), "Unsupported onConflict mode: replace");
+    }
+
+    @Test
+    public void shouldIngestRealEstateAsynchronously() throws InterruptedException {
+        RealEstate realEstate = new RealEstate("asyncName", "asyncAddress", 88_888., 3, 1, 66.);
+        Response response = preparePostRequest(realEstate).when().post(BASE_API + "?async=true");
+        verifyResponse(response, HttpStatus.ACCEPTED.value(), null);
+        response.then().body("state", equalTo("PENDING"));
+        String token = response.jsonPath().getString("token");
+        Assertions.assertTrue(response.getHeader(HttpHeaders.LOCATION).endsWith("/api/realestate/ingest/" + token));
+
+        Response status = performGetRequest(prepareGetRequest(), INGEST_STATUS_API, token);
+        for (int attempt = 0; attempt < 50 && "PENDING".equals(status.jsonPath().getString("state")); attempt++) {
+            Thread.sleep(100);
+            status = performGetRequest(prepareGetRequest(), INGEST_STATUS_API, token);
+        }
+        status.then().body("state", equalTo("CREATED"));
+        Long id = status.jsonPath().getLong("id");
+        verifyResponse(performGetRequest(prepareGetRequest(), GET_API, id), HttpStatus.OK.value(), "asyncName");
+        performDeleteRequest(prepareDeleteRequest(), id);
+    }
+
+    @Test
+    public void shouldReturnBadRequestWhenAsyncIngestHasOnConflictMode() {
+        Response response = preparePostRequest(createRealEstate()).when().post(BASE_API + "?async=true&onConflict=update");
+        verifyResponse(response, HttpStatus.BAD_REQUEST.value(), "async=true cannot be combined with onConflict");
+    }
+
+    @Test
+    public void shouldReturnNotFoundWhenIngestTokenIsUnknown() {
+        Response response = performGetRequest(prepareGetRequest(), INGEST_STATUS_API, "unknown");
+        verifyResponse(response, HttpStatus.NOT_FOUND.value(), "Unknown or expired ingestion token");
+    }
+
     @Test
     public void shouldGetAllRealEstates() {
         List<RealEstate> realEstates = createRealEstatesByAPI();
@@ -169,6 +289,200 @@ public class RealEstateControllerIT {
         deleteRealEstatesFromResponse(response);
     }
 
+    @Test
+    public void shouldPaginateRealEstatesWithCursor() {
+        List<RealEstate> realEstates = createRealEstatesByAPI();
+        Response firstPage = performGetRequest(prepareGetRequest().queryParam("size", 2), BASE_API);
+        verifyResponse(firstPage, HttpStatus.OK.value(), RealEstate.toJson(realEstates.subList(0, 2)));
+        String nextCursor = firstPage.jsonPath().getString("nextCursor");
+        Assertions.assertNotNull(nextCursor);
+
+        Response lastPage = performGetRequest(prepareGetRequest().queryParam("size", 2).queryParam("cursor", nextCursor), BASE_API);
+        verifyResponse(lastPage, HttpStatus.OK.value(), RealEstate.toJson(realEstates.subList(2, 3)));
+        Assertions.assertNull(lastPage.jsonPath().getString("nextCursor"));
+        realEstates.forEach(realEstate -> realEstateRepository.deleteById(realEstate.getId()));
+    }
+
+    @Test
+    public void shouldGetRealEstateSummariesWithoutAddress() {
+        List<RealEstate> realEstates = createRealEstatesByAPI();
+        Response response = performGetRequest(prepareGetRequest().queryParam("view", "summary"), BASE_API);
+        verifyResponse(response, HttpStatus.OK.value(), null);
+        response.then()
+                .body("content.id", equalTo(realEstates.stream().map(realEstate -> realEstate.getId().intValue()).toList()))
+                .body("content.name", equalTo(realEstates.stream().map(RealEstate::getName).toList()))
+                .body(not(containsString("address")));
+        realEstates.forEach(realEstate -> realEstateRepository.deleteById(realEstate.getId()));
+    }
+
+    @Test
+    public void shouldReturnBadRequestWhenCursorIsInvalid() {
+        RequestSpecification request = prepareGetRequest().queryParam("cursor", "not-a-cursor");
+        Response response = performGetRequest(request, BASE_API);
+        verifyResponse(response, HttpStatus.BAD_REQUEST.value(), "Invalid cursor");
+    }
+
+    @Test
+    public void shouldReturnBadRequestWhenUnpagedListingIsDisabled() {
+        RequestSpecification request = prepareGetRequest().queryParam("unpaged", true);
+        Response response = performGetRequest(request, BASE_API);
+        verifyResponse(response, HttpStatus.BAD_REQUEST.value(), "Unpaged listing is disabled");
+    }
+
+    @Test
+    public void shouldReturnBadRequestWhenSummaryViewIsUnpaged() {
+        RequestSpecification request = prepareGetRequest().queryParam("view", "summary").queryParam("unpaged", true);
+        Response response = performGetRequest(request, BASE_API);
+        verifyResponse(response, HttpStatus.BAD_REQUEST.value(), "view=summary cannot be combined with unpaged=true");
+    }
+
+    @Test
+    public void shouldSearchRealEstatesByRangesSortedByPrice() {
+        List<RealEstate> realEstates = createRealEstatesByAPI();
+        RequestSpecification request = prepareGetRequest()
+                .queryParam("minPrice", 10_000)
+                .queryParam("maxRooms", 9)
+                .queryParam("sort", "price")
+                .queryParam("direction", "desc");
+        Response response = performGetRequest(request, SEARCH_API);
+        verifyResponse(response, HttpStatus.OK.value(), RealEstate.toJson(List.of(realEstates.get(2), realEstates.get(1))));
+        response.then().body("hasNext", equalTo(false));
+        Assertions.assertTrue(response.jsonPath().getDouble("tookMillis") >= 0);
+        realEstates.forEach(realEstate -> realEstateRepository.deleteById(realEstate.getId()));
+    }
+
+    @Test
+    public void shouldReturnBadRequestWhenSearchSortIsUnsupported() {
+        RequestSpecification request = prepareGetRequest().queryParam("sort", "address");
+        Response response = performGetRequest(request, SEARCH_API);
+        verifyResponse(response, HttpStatus.BAD_REQUEST.value(), "Unsupported sort property: address");
+    }
+
+    @Test
+    public void shouldReturnBadRequestWhenSearchDirectionIsUnsupported() {
+        RequestSpecification request = prepareGetRequest().queryParam("sort", "price").queryParam("direction", "up");
+        Response response = performGetRequest(request, SEARCH_API);
+        verifyResponse(response, HttpStatus.BAD_REQUEST.value(), "Unsupported sort direction: up");
+    }
+
+    @Test
+    public void shouldReturnBadRequestWhenSearchFilterIsNotANumber() {
+        RequestSpecification request = prepareGetRequest().queryParam("minPrice", "abc");
+        Response response = performGetRequest(request, SEARCH_API);
+        verifyResponse(response, HttpStatus.BAD_REQUEST.value(), null);
+        response.then().body("minPrice", notNullValue());
+    }
+
+    @Test
+    public void shouldAutocompleteNamesWithBothBackends() {
+        RealEstate realEstate = new RealEstate("Casale Montebello", "Strada Provinciale 12, Siena", 420_000., 7, 3, 310.);
+        Long id = performPostRequest(preparePostRequest(realEstate)).jsonPath().getLong("id");
+
+        for (String backend : List.of("trigram", "memory")) {
+            Response response = performGetRequest(prepareGetRequest().queryParam("q", "casale mont").queryParam("backend", backend), AUTOCOMPLETE_API);
+            verifyResponse(response, HttpStatus.OK.value(), "Casale Montebello");
+            Assertions.assertEquals(id, response.jsonPath().getLong("suggestions[0].id"));
+            Assertions.assertEquals(backend, response.jsonPath().getString("backend"));
+        }
+        performDeleteRequest(prepareDeleteRequest(), id);
+    }
+
+    @Test
+    public void shouldAutocompleteMisspelledWordsFromMemoryIndex() {
+        RealEstate realEstate = new RealEstate("Villa Montebello", "Via Chiantigiana 8, Siena", 650_000., 9, 4, 380.);
+        Long id = performPostRequest(preparePostRequest(realEstate)).jsonPath().getLong("id");
+        Response response = performGetRequest(prepareGetRequest().queryParam("q", "montebelo").queryParam("backend", "memory"), AUTOCOMPLETE_API);
+        verifyResponse(response, HttpStatus.OK.value(), "Villa Montebello");
+        performDeleteRequest(prepareDeleteRequest(), id);
+        response = performGetRequest(prepareGetRequest().queryParam("q", "montebelo").queryParam("backend", "memory"), AUTOCOMPLETE_API);
+        verifyResponse(response, HttpStatus.OK.value(), null);
+        response.then().body(not(containsString("Villa Montebello")));
+    }
+
+    @Test
+    public void shouldReturnBadRequestWhenAutocompleteQueryIsTooShort() {
+        Response response = performGetRequest(prepareGetRequest().queryParam("q", "ca"), AUTOCOMPLETE_API);
+        verifyResponse(response, HttpStatus.BAD_REQUEST.value(), "at least 3 characters");
+    }
+
+    // Solo il prezzo cambia tra questi RealEstate, quindi l'ordine dei vicini non dipende dalla normalizzazione
+    private List<Long> createComparableRealEstatesByAPI() {
+        return List.of(40_000_000., 40_000_100., 40_001_000., 40_010_000.).stream()
+                .map(price -> performPostRequest(preparePostRequest(new RealEstate("Attico Brera", "Via Solferino 3, Milano", price, 5, 3, 240.)))
+                        .jsonPath().getLong("id"))
+                .toList();
+    }
+
+    @Test
+    public void shouldReturnNearestRealEstatesBySimilarity() {
+        List<Long> ids = createComparableRealEstatesByAPI();
+        Response response = performGetRequest(prepareGetRequest().queryParam("k", 2), SIMILAR_API, ids.get(0));
+        verifyResponse(response, HttpStatus.OK.value(), null);
+        Assertions.assertEquals(ids.get(0), response.jsonPath().getLong("id"));
+        Assertions.assertEquals(List.of(ids.get(1), ids.get(2)), response.jsonPath().getList("content.realEstate.id", Long.class));
+        List<Double> distances = response.jsonPath().getList("content.distance", Double.class);
+        Assertions.assertTrue(distances.get(0) < distances.get(1));
+        ids.forEach(id -> performDeleteRequest(prepareDeleteRequest(), id));
+    }
+
+    @Test
+    public void shouldFilterSimilarRealEstatesByRange() {
+        List<Long> ids = createComparableRealEstatesByAPI();
+        Response response = performGetRequest(prepareGetRequest().queryParam("minPrice", 40_000_500), SIMILAR_API, ids.get(0));
+        verifyResponse(response, HttpStatus.OK.value(), null);
+        Assertions.assertEquals(List.of(ids.get(2), ids.get(3)), response.jsonPath().getList("content.realEstate.id", Long.class));
+        ids.forEach(id -> performDeleteRequest(prepareDeleteRequest(), id));
+    }
+
+    @Test
+    public void shouldUpdateSimilarRealEstatesAfterWrites() {
+        List<Long> ids = createComparableRealEstatesByAPI();
+        performDeleteRequest(prepareDeleteRequest(), ids.get(1));
+        performPutRequest(preparePutRequest(Map.of("price", 40_000_050.)), ids.get(3));
+        Response response = performGetRequest(prepareGetRequest().queryParam("k", 2), SIMILAR_API, ids.get(0));
+        verifyResponse(response, HttpStatus.OK.value(), null);
+        Assertions.assertEquals(List.of(ids.get(3), ids.get(2)), response.jsonPath().getList("content.realEstate.id", Long.class));
+        Assertions.assertEquals(40_000_050., response.jsonPath().getDouble("content[0].realEstate.price"));
+        List.of(ids.get(0), ids.get(2), ids.get(3)).forEach(id -> performDeleteRequest(prepareDeleteRequest(), id));
+    }
+
+    @Test
+    public void shouldReturnNotFoundWhenSimilarReferenceDoesNotExist() {
+        Response response = performGetRequest(prepareGetRequest(), SIMILAR_API, Long.MAX_VALUE);
+        verifyResponse(response, HttpStatus.NOT_FOUND.value(), null);
+    }
+
+    @Test
+    public void shouldReturnBadRequestWhenSimilarKIsNotPositive() {
+        RealEstate realEstate = createRealEstateByAPI();
+        Response response = performGetRequest(prepareGetRequest().queryParam("k", 0), SIMILAR_API, realEstate.getId());
+        verifyResponse(response, HttpStatus.BAD_REQUEST.value(), "k must be positive");
+        performDeleteRequest(prepareDeleteRequest(), realEstate.getId());
+    }
+
+    @Test
+    public void shouldExportRealEstatesAsNdjson() {
+        List<RealEstate> realEstates = createRealEstatesByAPI();
+        Response response = performGetRequest(prepareGetRequest(), EXPORT_API);
+        verifyResponse(response, HttpStatus.OK.value(), null);
+        response.then().contentType(containsString("application/x-ndjson"));
+        realEstates.forEach(realEstate -> response.then().body(containsString(realEstate.toJson() + "\n")));
+        realEstates.forEach(realEstate -> realEstateRepository.deleteById(realEstate.getId()));
+    }
+
+    @Test
+    public void shouldExportRealEstatesAsProtobufWhenRequested() {
+        Response response = performGetRequest(prepareGetRequest().accept(RealEstateProtobuf.MEDIA_TYPE_VALUE), EXPORT_API);
+        verifyResponse(response, HttpStatus.OK.value(), null);
+        response.then().contentType(containsString(RealEstateProtobuf.MEDIA_TYPE_VALUE));
+    }
+
+    @Test
+    public void shouldReturnNotAcceptableWhenExportFormatIsUnsupported() {
+        Response response = performGetRequest(prepareGetRequest().accept(ContentType.XML), EXPORT_API);
+        verifyResponse(response, HttpStatus.NOT_ACCEPTABLE.value(), null);
+    }
+
     @Test
     public void shouldGetRealEstateByIdWhenIdIsValid() {
         RealEstate realEstate = createRealEstateByAPI();
@@ -178,6 +492,68 @@ public class RealEstateControllerIT {
         deleteRealEstateFromResponse(response);
     }
 
+    @Test
+    public void shouldReturnNotModifiedWhenETagMatches() {
+        RealEstate realEstate = createRealEstateByAPI();
+        Response response = performGetRequest(prepareGetRequest(), GET_API, realEstate.getId());
+        String eTag = response.getHeader(HttpHeaders.ETAG);
+        Assertions.assertEquals("\"" + realEstate.getVersion() + "\"", eTag);
+
+        Response conditionalResponse = performGetRequest(prepareGetRequest().header(HttpHeaders.IF_NONE_MATCH, eTag), GET_API, realEstate.getId());
+        verifyResponse(conditionalResponse, HttpStatus.NOT_MODIFIED.value(), null);
+        Assertions.assertEquals("", conditionalResponse.asString());
+        realEstateRepository.deleteById(realEstate.getId());
+    }
+
+    @Test
+    public void shouldReturnNotModifiedWhenPageETagMatches() {
+        List<RealEstate> realEstates = createRealEstatesByAPI();
+        String eTag = performGetRequest(prepareGetRequest(), BASE_API).getHeader(HttpHeaders.ETAG);
+        Response response = performGetRequest(prepareGetRequest().header(HttpHeaders.IF_NONE_MATCH, eTag), BASE_API);
+        verifyResponse(response, HttpStatus.NOT_MODIFIED.value(), null);
+
+        performPutRequest(preparePutRequest(Map.of("rooms", 2)), realEstates.get(0).getId());
+        Response changedResponse = performGetRequest(prepareGetRequest().header(HttpHeaders.IF_NONE_MATCH, eTag), BASE_API);
+        verifyResponse(changedResponse, HttpStatus.OK.value(), null);
+        realEstates.forEach(realEstate -> realEstateRepository.deleteById(realEstate.getId()));
+    }
+
+    @Test
+    public void shouldReturnPreconditionFailedWhenIfMatchIsStale() {
+        RealEstate realEstate = createRealEstateByAPI();
+        String staleETag = "\"" + realEstate.getVersion() + "\"";
+        performPutRequest(preparePutRequest(Map.of("rooms", 5)), realEstate.getId());
+
+        Response putResponse = performPutRequest(preparePutRequest(Map.of("rooms", 6)).header(HttpHeaders.IF_MATCH, staleETag), realEstate.getId());
+        verifyResponse(putResponse, HttpStatus.PRECONDITION_FAILED.value(), "was modified concurrently");
+        Response deleteResponse = performDeleteRequest(prepareDeleteRequest().header(HttpHeaders.IF_MATCH, staleETag), realEstate.getId());
+        verifyResponse(deleteResponse, HttpStatus.PRECONDITION_FAILED.value(), "was modified concurrently");
+        realEstateRepository.deleteById(realEstate.getId());
+    }
+
+    @Test
+    public void shouldRequireExistingRealEstateWhenIfMatchIsAny() {
+        RealEstate realEstate = createRealEstateByAPI();
+        Response putResponse = performPutRequest(preparePutRequest(Map.of("rooms", 6)).header(HttpHeaders.IF_MATCH, "*"), realEstate.getId());
+        verifyResponse(putResponse, HttpStatus.OK.value(), null);
+        Response deleteResponse = performDeleteRequest(prepareDeleteRequest().header(HttpHeaders.IF_MATCH, "*"), realEstate.getId());
+        verifyResponse(deleteResponse, HttpStatus.NO_CONTENT.value(), null);
+
+        Response missingPutResponse = performPutRequest(preparePutRequest(Map.of("rooms", 7)).header(HttpHeaders.IF_MATCH, "*"), realEstate.getId());
+        verifyResponse(missingPutResponse, HttpStatus.PRECONDITION_FAILED.value(), "not found");
+        Response missingDeleteResponse = performDeleteRequest(prepareDeleteRequest().header(HttpHeaders.IF_MATCH, "*"), realEstate.getId());
+        verifyResponse(missingDeleteResponse, HttpStatus.PRECONDITION_FAILED.value(), "not found");
+    }
+
+    @Test
+    public void shouldReturnBadRequestWhenIfMatchListsSeveralEntityTags() {
+        RealEstate realEstate = createRealEstateByAPI();
+        String eTags = "\"" + realEstate.getVersion() + "\", \"" + (realEstate.getVersion() + 1) + "\"";
+        Response response = performPutRequest(preparePutRequest(Map.of("rooms", 6)).header(HttpHeaders.IF_MATCH, eTags), realEstate.getId());
+        verifyResponse(response, HttpStatus.BAD_REQUEST.value(), "If-Match must contain a single entity tag or *");
+        realEstateRepository.deleteById(realEstate.getId());
+    }
+
     @Test
     public void shouldReturnNotFoundWhenIdIsInvalid() {
         RequestSpecification request = prepareGetRequest();
@@ -185,18 +561,106 @@ public class RealEstateControllerIT {
         verifyResponse(response, HttpStatus.NOT_FOUND.value(), "RealEstate with ID: 1 not found");
     }
 
+    @Test
+    public void shouldServeRepeatedReadsFromCache() {
+        RealEstate realEstate = createRealEstateByAPI();
+        long hitsBefore = performGetRequest(prepareGetRequest(), CACHE_STATS_API).jsonPath().getLong("hitCount");
+        performGetRequest(prepareGetRequest(), GET_API, realEstate.getId());
+        Response response = performGetRequest(prepareGetRequest(), GET_API, realEstate.getId());
+        verifyResponse(response, HttpStatus.OK.value(), realEstate.toJson());
+        long hitsAfter = performGetRequest(prepareGetRequest(), CACHE_STATS_API).jsonPath().getLong("hitCount");
+        Assertions.assertTrue(hitsAfter > hitsBefore);
+        realEstateRepository.deleteById(realEstate.getId());
+    }
+
+    @Test
+    public void shouldNotServeStaleRealEstateAfterUpdate() {
+        RealEstate realEstate = createRealEstateByAPI();
+        performGetRequest(prepareGetRequest(), GET_API, realEstate.getId());
+        Double newPrice = 12_345.67;
+        performPutRequest(preparePutRequest(Map.of("price", newPrice)), realEstate.getId());
+        realEstate.setPrice(newPrice);
+        realEstate.setVersion(realEstate.getVersion() + 1);
+        Response response = performGetRequest(prepareGetRequest(), GET_API, realEstate.getId());
+        verifyResponse(response, HttpStatus.OK.value(), realEstate.toJson());
+        realEstateRepository.deleteById(realEstate.getId());
+    }
+
     @Test
     public void shouldUpdateRealEstateWhenPriceIsValid() {
         RealEstate realEstate = createRealEstateByAPI();
         Double newPrice = 10_000.99;
         Map<String, Object> update = Map.of("price", newPrice);
         realEstate.setPrice(newPrice);
+        realEstate.setVersion(realEstate.getVersion() + 1);
         RequestSpecification request = preparePutRequest(update);
         Response response = performPutRequest(request, realEstate.getId());
         verifyResponse(response, HttpStatus.OK.value(), realEstate.toJson());
         realEstateRepository.deleteById(realEstate.getId());
     }
 
+    @Test
+    public void shouldUpdateRealEstateWhenVersionIsCurrent() {
+        RealEstate realEstate = createRealEstateByAPI();
+        Map<String, Object> update = Map.of("rooms", 5, "version", realEstate.getVersion());
+        realEstate.setRooms(5);
+        realEstate.setVersion(realEstate.getVersion() + 1);
+        Response response = performPutRequest(preparePutRequest(update), realEstate.getId());
+        verifyResponse(response, HttpStatus.OK.value(), realEstate.toJson());
+        realEstateRepository.deleteById(realEstate.getId());
+    }
+
+    @Test
+    public void shouldReturnConflictWhenVersionIsStale() {
+        RealEstate realEstate = createRealEstateByAPI();
+        performPutRequest(preparePutRequest(Map.of("rooms", 5)), realEstate.getId());
+        Map<String, Object> staleUpdate = Map.of("rooms", 6, "version", realEstate.getVersion());
+        Response response = performPutRequest(preparePutRequest(staleUpdate), realEstate.getId());
+        verifyResponse(response, HttpStatus.CONFLICT.value(), "was modified concurrently");
+        realEstateRepository.deleteById(realEstate.getId());
+    }
+
+    @Test
+    public void shouldReturnBadRequestWhenUpdateValueHasWrongType() {
+        RealEstate realEstate = createRealEstateByAPI();
+        Response roomsResponse = performPutRequest(preparePutRequest(Map.of("rooms", "x")), realEstate.getId());
+        verifyResponse(roomsResponse, HttpStatus.BAD_REQUEST.value(), "Invalid value for rooms: x");
+        Response nameResponse = performPutRequest(preparePutRequest(Map.of("name", 5)), realEstate.getId());
+        verifyResponse(nameResponse, HttpStatus.BAD_REQUEST.value(), "Invalid value for name: 5");
+        Response versionResponse = performPutRequest(preparePutRequest(Map.of("rooms", 5, "version", List.of(1))), realEstate.getId());
+        verifyResponse(versionResponse, HttpStatus.BAD_REQUEST.value(), "Invalid value for version");
+        realEstateRepository.deleteById(realEstate.getId());
+    }
+
+    @Test
+    public void shouldReturnNotFoundWhenUpdatingMissingRealEstate() {
+        Response response = performPutRequest(preparePutRequest(Map.of("rooms", 5)), Long.MAX_VALUE);
+        verifyResponse(response, HttpStatus.NOT_FOUND.value(), "RealEstate with ID: " + Long.MAX_VALUE + " not found");
+    }
+
+    @Test
+    public void shouldUpdateMarketStatsIncrementally() {
+        long countBefore = performGetRequest(prepareGetRequest(), MARKET_STATS_API).jsonPath().getLong("count");
+        RealEstate realEstate = new RealEstate("statsName", "statsAddress", 200_000., 17, 2, 100.);
+        Response created = performPostRequest(preparePostRequest(realEstate));
+        Long id = created.jsonPath().getLong("id");
+
+        Response response = performGetRequest(prepareGetRequest(), MARKET_STATS_API);
+        verifyResponse(response, HttpStatus.OK.value(), "pricePerSqMeterPercentiles");
+        Assertions.assertEquals(countBefore + 1, response.jsonPath().getLong("count"));
+        Assertions.assertEquals(1, response.jsonPath().getMap("roomsHistogram").get("17"));
+
+        performPutRequest(preparePutRequest(Map.of("rooms", 18)), id);
+        Map<String, Object> roomsHistogram = performGetRequest(prepareGetRequest(), MARKET_STATS_API).jsonPath().getMap("roomsHistogram");
+        Assertions.assertNull(roomsHistogram.get("17"));
+        Assertions.assertEquals(1, roomsHistogram.get("18"));
+
+        performDeleteRequest(prepareDeleteRequest(), id);
+        response = performGetRequest(prepareGetRequest(), MARKET_STATS_API);
+        Assertions.assertEquals(countBefore, response.jsonPath().getLong("count"));
+        Assertions.assertNull(response.jsonPath().getMap("roomsHistogram").get("18"));
+    }
+
     @Test
     public void shouldDeleteRealEstateWhenIdIsValid() {
         RealEstate realEstate = createRealEstateByAPI();
@@ -0,0 +1,176 @@
+package my.wikicasa.web;
+
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.response.Response;
+import my.wikicasa.web.config.SqlStatementRecorder;
+import my.wikicasa.web.config.SqlStatementRecorder.RecordedRequest;
+import my.wikicasa.web.config.TestDatabaseConfig;
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.repository.RealEstateRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static io.restassured.RestAssured.given;
+
+// Il numero di istruzioni SQL per richiesta fa parte del contratto di ogni endpoint: un round trip in più
+// o un N+1 fanno fallire questi test. I tempi massimi sono ampi e segnalano solo le regressioni evidenti
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ContextConfiguration(classes = {TestDatabaseConfig.class})
+@ActiveProfiles("test")
+@Testcontainers
+public class SqlStatementBudgetIT {
+
+    private static final Duration SINGLE_ROW_BUDGET = Duration.ofMillis(250);
+    private static final Duration PAGE_BUDGET = Duration.ofMillis(500);
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private SqlStatementRecorder recorder;
+
+    @Autowired
+    private RealEstateRepository realEstateRepository;
+
+    @BeforeEach
+    public void beforeEach() {
+        RestAssured.port = port;
+    }
+
+    @Test
+    public void shouldCreateWithSingleStatement() {
+        Long[] id = new Long[1];
+        recorder.recordOne(() -> id[0] = create(new RealEstate("budgetName", "budgetAddress", 99_999., 4, 1, 89.)))
+                .assertStatements(1)
+                .assertWithin(SINGLE_ROW_BUDGET);
+        realEstateRepository.deleteById(id[0]);
+    }
+
+    @Test
+    public void shouldReadFromDatabaseOnlyOnCacheMiss() {
+        Long id = create(new RealEstate("budgetCacheName", "budgetCacheAddress", 99_999., 4, 1, 89.));
+        List<RecordedRequest> gets = recorder.record(() -> {
+            given().when().get(RealEstateControllerIT.GET_API, id).then().statusCode(HttpStatus.OK.value());
+            given().when().get(RealEstateControllerIT.GET_API, id).then().statusCode(HttpStatus.OK.value());
+        });
+        gets.get(0).assertStatements(1).assertWithin(SINGLE_ROW_BUDGET);
+        gets.get(1).assertStatements(0).assertWithin(SINGLE_ROW_BUDGET);
+        realEstateRepository.deleteById(id);
+    }
+
+    @Test
+    public void shouldUpdateWithSingleStatement() {
+        Long id = create(new RealEstate("budgetUpdateName", "budgetUpdateAddress", 99_999., 4, 1, 89.));
+        // Lettura dei valori precedenti, blocco della riga e controllo di versione stanno nella stessa istruzione
+        recorder.recordOne(() -> given().contentType(ContentType.JSON).body(Map.of("price", 120_000, "version", 0))
+                        .when().put(RealEstateControllerIT.PUT_API, id).then().statusCode(HttpStatus.OK.value()))
+                .assertStatements(1)
+                .assertWithin(SINGLE_ROW_BUDGET);
+        // Solo quando nessuna riga è stata aggiornata serve una seconda lettura per distinguere il 409 dal 404
+        recorder.recordOne(() -> given().contentType(ContentType.JSON).body(Map.of("price", 130_000, "version", 0))
+                        .when().put(RealEstateControllerIT.PUT_API, id).then().statusCode(HttpStatus.CONFLICT.value()))
+                .assertStatements(2)
+                .assertWithin(SINGLE_ROW_BUDGET);
+        realEstateRepository.deleteById(id);
+    }
+
+    @Test
+    public void shouldDeleteWithSingleStatement() {
+        Long id = create(new RealEstate("budgetDeleteName", "budgetDeleteAddress", 99_999., 4, 1, 89.));
+        recorder.recordOne(() -> given().when().delete(RealEstateControllerIT.DELETE_API, id)
+                        .then().statusCode(HttpStatus.NO_CONTENT.value()))
+                .assertStatements(1)
+                .assertWithin(SINGLE_ROW_BUDGET);
+    }
+
+    @Test
+    public void shouldListPagesWithSingleQueryWhateverTheirSize() {
+        List<Long> ids = createThree("budgetList");
+        List<RecordedRequest> pages = recorder.record(() -> {
+            given().queryParam("size", 1).when().get(RealEstateControllerIT.BASE_API).then().statusCode(HttpStatus.OK.value());
+            given().queryParam("size", 3).when().get(RealEstateControllerIT.BASE_API).then().statusCode(HttpStatus.OK.value());
+        });
+        pages.forEach(page -> page.assertStatements(1).assertWithin(PAGE_BUDGET));
+
+        // Il 304 si decide sulle sole versioni, sempre con un'unica query
+        String eTag = given().queryParam("size", 3).when().get(RealEstateControllerIT.BASE_API).getHeader(HttpHeaders.ETAG);
+        recorder.recordOne(() -> given().queryParam("size", 3).header(HttpHeaders.IF_NONE_MATCH, eTag)
+                        .when().get(RealEstateControllerIT.BASE_API).then().statusCode(HttpStatus.NOT_MODIFIED.value()))
+                .assertStatements(1)
+                .assertWithin(PAGE_BUDGET);
+        ids.forEach(realEstateRepository::deleteById);
+    }
+
+    @Test
+    public void shouldSearchWithSingleQuery() {
+        List<Long> ids = createThree("budgetSearch");
+        recorder.recordOne(() -> given().queryParam("minPrice", 10_000).queryParam("sort", "price")
+                        .when().get(RealEstateControllerIT.SEARCH_API).then().statusCode(HttpStatus.OK.value()))
+                .assertStatements(1)
+                .assertWithin(PAGE_BUDGET);
+        ids.forEach(realEstateRepository::deleteById);
+    }
+
+    @Test
+    public void shouldLoadSimilarRealEstatesWithSingleQuery() {
+        List<Long> ids = createThree("budgetSimilar");
+        // Con il RealEstate di riferimento in cache resta solo la lettura dei vicini, tutti insieme
+        given().when().get(RealEstateControllerIT.GET_API, ids.get(0)).then().statusCode(HttpStatus.OK.value());
+        recorder.recordOne(() -> given().queryParam("k", 3).when().get(RealEstateControllerIT.SIMILAR_API, ids.get(0))
+                        .then().statusCode(HttpStatus.OK.value()))
+                .assertStatements(1)
+                .assertWithin(PAGE_BUDGET);
+        ids.forEach(realEstateRepository::deleteById);
+    }
+
+    @Test
+    public void shouldCreateBatchWithSingleBatchStatement() {
+        List<RealEstate> realEstates = List.of(
+                new RealEstate("budgetBatchName1", "budgetBatchAddress1", 5_000.25, 3, 1, 70.),
+                new RealEstate("budgetBatchName2", "budgetBatchAddress2", 15_000.50, 6, 2, 120.),
+                new RealEstate("budgetBatchName3", "budgetBatchAddress3", 25_000.75, 9, 3, 170.)
+        );
+        Response[] response = new Response[1];
+        RecordedRequest batch = recorder.recordOne(() -> response[0] = given().contentType(ContentType.JSON).body(realEstates)
+                .when().post(RealEstateControllerIT.BATCH_API));
+        batch.assertStatements(1).assertWithin(PAGE_BUDGET);
+        Assertions.assertEquals(realEstates.size(), batch.statements().get(0).batchSize());
+        response[0].jsonPath().getList("results.id", Long.class).forEach(realEstateRepository::deleteById);
+    }
+
+    @Test
+    public void shouldServeMarketStatsFromMemory() {
+        recorder.recordOne(() -> given().when().get(RealEstateControllerIT.MARKET_STATS_API).then().statusCode(HttpStatus.OK.value()))
+                .assertStatements(0)
+                .assertWithin(SINGLE_ROW_BUDGET);
+    }
+
+    private static Long create(RealEstate realEstate) {
+        Response response = given().contentType(ContentType.JSON).body(realEstate).when().post(RealEstateControllerIT.BASE_API);
+        response.then().statusCode(HttpStatus.CREATED.value());
+        return response.jsonPath().getLong("id");
+    }
+
+    private static List<Long> createThree(String prefix) {
+        return List.of(
+                create(new RealEstate(prefix + "Name1", prefix + "Address1", 5_000.25, 3, 1, 70.)),
+                create(new RealEstate(prefix + "Name2", prefix + "Address2", 15_000.50, 6, 2, 120.)),
+                create(new RealEstate(prefix + "Name3", prefix + "Address3", 25_000.75, 9, 3, 170.))
+        );
+    }
+
+}
@@ -0,0 +1,73 @@
+package my.wikicasa.web;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import my.wikicasa.web.config.TestDatabaseConfig;
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.service.RealEstateService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@SpringBootTest
+@ContextConfiguration(classes = {TestDatabaseConfig.class})
+@ActiveProfiles({"test", "virtual-threads"})
+@Testcontainers
+public class VirtualThreadPinningIT {
+
+    private static final int CONCURRENT_TASKS = 100;
+
+    @Autowired
+    private RealEstateService realEstateService;
+
+    @Test
+    public void shouldNotPinCarrierThreadsOnJdbcPath() throws Exception {
+        Path recordingFile = Files.createTempFile("virtual-thread-pinning", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+            runJdbcWorkloadOnVirtualThreads();
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        List<RecordedEvent> pinnedEvents = RecordingFile.readAllEvents(recordingFile);
+        Files.deleteIfExists(recordingFile);
+        Assertions.assertTrue(pinnedEvents.isEmpty(), () -> "Virtual threads were pinned: " + pinnedEvents);
+    }
+
+    // Più task che permessi del bulkhead, così i virtual thread restano anche in attesa sul semaforo
+    private void runJdbcWorkloadOnVirtualThreads() throws Exception {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < CONCURRENT_TASKS; i++) {
+                RealEstate realEstate = new RealEstate("pinningName" + i, "pinningAddress" + i, 50_000. + i, 3, 1, 80.);
+                futures.add(executor.submit(() -> {
+                    RealEstate created = realEstateService.createRealEstate(realEstate);
+                    realEstateService.getRealEstateById(created.getId());
+                    realEstateService.updateRealEstate(created.getId(), Map.of("rooms", 4));
+                    realEstateService.deleteRealEstate(created.getId());
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+    }
+
+}
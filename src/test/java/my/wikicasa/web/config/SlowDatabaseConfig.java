@@ -0,0 +1,59 @@
+package my.wikicasa.web.config;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.Ordered;
+import org.springframework.core.PriorityOrdered;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+
+// Simula un database lento: ogni connessione ottenuta resta occupata per latency prima di essere usata
+@TestConfiguration
+public class SlowDatabaseConfig {
+
+    private static volatile Duration latency = Duration.ZERO;
+
+    public static void setLatency(Duration value) {
+        latency = value;
+    }
+
+    // PriorityOrdered: avvolge il DataSource prima del bulkhead, così l'attesa avviene con il permesso già preso
+    @Bean
+    public static BeanPostProcessor slowDataSourcePostProcessor() {
+        return new SlowDataSourcePostProcessor();
+    }
+
+    private static final class SlowDataSourcePostProcessor implements BeanPostProcessor, PriorityOrdered {
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (bean instanceof DataSource dataSource && "dataSource".equals(beanName)) {
+                return new DelegatingDataSource(dataSource) {
+                    @Override
+                    public Connection getConnection() throws SQLException {
+                        Connection connection = super.getConnection();
+                        try {
+                            Thread.sleep(latency);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return connection;
+                    }
+                };
+            }
+            return bean;
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.HIGHEST_PRECEDENCE;
+        }
+
+    }
+
+}
@@ -0,0 +1,141 @@
+package my.wikicasa.web.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import org.junit.jupiter.api.Assertions;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+// Registra le istruzioni SQL eseguite da ogni richiesta HTTP mentre è in corso record(): il filtro apre la registrazione
+// sul thread della richiesta, il listener del proxy sul DataSource vi aggiunge ogni esecuzione JDBC (un batch conta una volta).
+// Le istruzioni eseguite su altri thread (ingestione asincrona, export in streaming, feed delle modifiche) non vengono attribuite
+public class SqlStatementRecorder implements QueryExecutionListener {
+
+    private static final Duration COMPLETION_TIMEOUT = Duration.ofSeconds(5);
+
+    private final ThreadLocal<List<RecordedStatement>> current = new ThreadLocal<>();
+    private final Queue<RecordedRequest> requests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean recording;
+
+    public record RecordedStatement(String sql, int batchSize, long elapsedMillis) {
+    }
+
+    public record RecordedRequest(String method, String uri, int status, List<RecordedStatement> statements, Duration elapsed) {
+
+        public RecordedRequest assertStatements(int expected) {
+            Assertions.assertEquals(expected, statements.size(), () -> "Unexpected SQL statements for " + this);
+            return this;
+        }
+
+        public RecordedRequest assertAtMostStatements(int max) {
+            Assertions.assertTrue(statements.size() <= max, () -> "More than " + max + " SQL statements for " + this);
+            return this;
+        }
+
+        // Tempo trascorso lato server, dall'ingresso nel filtro alla fine della richiesta
+        public RecordedRequest assertWithin(Duration budget) {
+            Assertions.assertTrue(elapsed.compareTo(budget) <= 0, () -> "Over the " + budget.toMillis() + " ms budget: " + this);
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + uri + " -> " + status + " in " + elapsed.toMillis() + " ms, " + statements.size() + " statements"
+                    + statements.stream().map(statement -> "\n  " + statement.sql()
+                            + (statement.batchSize() > 0 ? " [batch of " + statement.batchSize() + "]" : "")
+                            + " (" + statement.elapsedMillis() + " ms)").collect(Collectors.joining());
+        }
+
+    }
+
+    // Esegue le richieste indicate e restituisce, nell'ordine di completamento, quelle arrivate al server nel frattempo
+    public List<RecordedRequest> record(Runnable action) {
+        requests.clear();
+        recording = true;
+        try {
+            action.run();
+            awaitCompletion();
+        } finally {
+            recording = false;
+        }
+        return List.copyOf(requests);
+    }
+
+    // Per il caso più comune: un'unica richiesta
+    public RecordedRequest recordOne(Runnable action) {
+        List<RecordedRequest> recorded = record(action);
+        Assertions.assertEquals(1, recorded.size(), () -> "Expected a single request, recorded " + recorded);
+        return recorded.get(0);
+    }
+
+    // Il client può ricevere la risposta prima che il filtro abbia chiuso la registrazione
+    private void awaitCompletion() {
+        long deadline = System.nanoTime() + COMPLETION_TIMEOUT.toNanos();
+        while (inFlight.get() > 0) {
+            if (System.nanoTime() > deadline) {
+                Assertions.fail(inFlight.get() + " requests still in progress after " + COMPLETION_TIMEOUT);
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Override
+    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        List<RecordedStatement> statements = current.get();
+        if (statements != null) {
+            String sql = queryInfoList.stream().map(QueryInfo::getQuery).collect(Collectors.joining("; "));
+            statements.add(new RecordedStatement(sql, execInfo.isBatch() ? execInfo.getBatchSize() : 0, execInfo.getElapsedTime()));
+        }
+    }
+
+    public OncePerRequestFilter filter() {
+        return new OncePerRequestFilter() {
+            @Override
+            protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+                    throws ServletException, IOException {
+                if (!recording) {
+                    filterChain.doFilter(request, response);
+                    return;
+                }
+                inFlight.incrementAndGet();
+                List<RecordedStatement> statements = new ArrayList<>();
+                current.set(statements);
+                long start = System.nanoTime();
+                try {
+                    filterChain.doFilter(request, response);
+                } finally {
+                    current.remove();
+                    String uri = request.getQueryString() == null ? request.getRequestURI() : request.getRequestURI() + "?" + request.getQueryString();
+                    requests.add(new RecordedRequest(request.getMethod(), uri, response.getStatus(), List.copyOf(statements),
+                            Duration.ofNanos(System.nanoTime() - start)));
+                    inFlight.decrementAndGet();
+                }
+            }
+        };
+    }
+
+}
@@ -1,9 +1,11 @@
 package my.wikicasa.web.config;
 
+import com.zaxxer.hikari.HikariDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
 import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.DependsOn;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.web.filter.OncePerRequestFilter;
 import org.testcontainers.containers.PostgreSQLContainer;
 
 import javax.sql.DataSource;
@@ -11,23 +13,55 @@ import javax.sql.DataSource;
 @TestConfiguration
 public class TestDatabaseConfig {
 
+    // Un solo container per JVM, condiviso da tutti i contesti di test e fermato da Testcontainers all'uscita.
+    // Non è un bean: la chiusura di un contesto lo fermerebbe anche per gli altri
+    public static PostgreSQLContainer<?> postgreSQLContainer() {
+        return SharedContainer.INSTANCE;
+    }
+
     @Bean
-    public PostgreSQLContainer<?> postgreSQLContainer() {
-        return new PostgreSQLContainer<>("postgres:16-alpine")
-                .withDatabaseName("testdb")
-                .withUsername("testuser")
-                .withPassword("testpass");
+    public SqlStatementRecorder sqlStatementRecorder() {
+        return new SqlStatementRecorder();
     }
 
+    // Pool come in produzione, avvolto dal proxy che passa ogni istruzione a SqlStatementRecorder
     @Bean
-    @DependsOn("postgreSQLContainer")
-    public DataSource dataSource(PostgreSQLContainer<?> postgreSQLContainer) {
-        DriverManagerDataSource dataSource = new DriverManagerDataSource();
+    public DataSource dataSource(SqlStatementRecorder sqlStatementRecorder) {
+        PostgreSQLContainer<?> postgreSQLContainer = postgreSQLContainer();
+        HikariDataSource dataSource = new HikariDataSource();
         dataSource.setDriverClassName("org.postgresql.Driver");
-        dataSource.setUrl(postgreSQLContainer.getJdbcUrl());
+        dataSource.setJdbcUrl(postgreSQLContainer.getJdbcUrl());
         dataSource.setUsername(postgreSQLContainer.getUsername());
         dataSource.setPassword(postgreSQLContainer.getPassword());
-        return dataSource;
+        dataSource.setMaximumPoolSize(20);
+        dataSource.setMinimumIdle(2);
+        return ProxyDataSourceBuilder.create(dataSource)
+                .name("test")
+                .listener(sqlStatementRecorder)
+                .build();
+    }
+
+    // Prima di tutti gli altri filtri, anche del controllo di ammissione, così il tempo misurato comprende l'intera richiesta
+    @Bean
+    public FilterRegistrationBean<OncePerRequestFilter> sqlStatementRecordingFilter(SqlStatementRecorder sqlStatementRecorder) {
+        FilterRegistrationBean<OncePerRequestFilter> registration = new FilterRegistrationBean<>(sqlStatementRecorder.filter());
+        registration.setOrder(AdmissionControlConfig.FILTER_ORDER - 1);
+        return registration;
     }
-}
 
+    // Avviato al primo accesso. Più connessioni del default di Postgres: ogni contesto in cache ha il proprio pool
+    private static final class SharedContainer {
+
+        private static final PostgreSQLContainer<?> INSTANCE = new PostgreSQLContainer<>("postgres:16-alpine")
+                .withDatabaseName("testdb")
+                .withUsername("testuser")
+                .withPassword("testpass")
+                .withCommand("postgres", "-c", "max_connections=300");
+
+        static {
+            INSTANCE.start();
+        }
+
+    }
+
+}
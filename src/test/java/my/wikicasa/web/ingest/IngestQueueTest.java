@@ -0,0 +1,82 @@
+package my.wikicasa.web.ingest;
+
+import my.wikicasa.web.entity.RealEstate;
+import my.wikicasa.web.response.BatchItemResult;
+import my.wikicasa.web.response.BatchResponse;
+import my.wikicasa.web.response.IngestState;
+import my.wikicasa.web.response.IngestStatusResponse;
+import my.wikicasa.web.service.RealEstateService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Senza database: il service restituisce CREATED per ogni elemento del batch
+public class IngestQueueTest {
+
+    private IngestQueue ingestQueue;
+
+    @BeforeEach
+    public void beforeEach() {
+        RealEstateService realEstateService = mock(RealEstateService.class);
+        when(realEstateService.createRealEstates(anyList(), eq("ignore"))).thenAnswer(invocation -> {
+            List<RealEstate> realEstates = invocation.getArgument(0);
+            return BatchResponse.of(IntStream.range(0, realEstates.size()).mapToObj(i -> BatchItemResult.created(i, (long) i)).toList());
+        });
+        ingestQueue = new IngestQueue(realEstateService,
+                new IngestQueueProperties(true, 10_000, 50, Duration.ofMillis(5), Duration.ofMinutes(1), Duration.ofSeconds(10)));
+    }
+
+    @Test
+    public void shouldRejectSubmitAfterStop() {
+        ingestQueue.start();
+        ingestQueue.stop();
+        ResponseStatusException e = Assertions.assertThrows(ResponseStatusException.class, () -> ingestQueue.submit(realEstate(0)));
+        Assertions.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatusCode());
+    }
+
+    // Le richieste che arrivano mentre la coda si ferma vengono respinte oppure scritte: nessun token resta PENDING
+    @Test
+    public void shouldStoreEverySubmissionAcceptedBeforeStop() throws InterruptedException {
+        ingestQueue.start();
+        Queue<String> accepted = new ConcurrentLinkedQueue<>();
+        List<Thread> submitters = IntStream.range(0, 4).mapToObj(n -> Thread.ofPlatform().start(() -> {
+            for (int i = 0; ; i++) {
+                try {
+                    accepted.add(ingestQueue.submit(realEstate(i)).getToken());
+                } catch (ResponseStatusException e) {
+                    return;
+                }
+            }
+        })).toList();
+        Thread.sleep(20);
+        ingestQueue.stop();
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+
+        Assertions.assertFalse(accepted.isEmpty());
+        Assertions.assertEquals(0, ingestQueue.size());
+        for (String token : accepted) {
+            IngestStatusResponse status = ingestQueue.getStatus(token);
+            Assertions.assertEquals(IngestState.CREATED, status.getState(), () -> "Token left " + status.getState() + ": " + token);
+        }
+    }
+
+    private static RealEstate realEstate(int i) {
+        return new RealEstate("ingestName" + i, "ingestAddress" + i, 99_999., 4, 1, 89.);
+    }
+
+}